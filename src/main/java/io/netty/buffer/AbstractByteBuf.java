@@ -39,4 +39,19 @@ public abstract class AbstractByteBuf extends ByteBuf {
     final void discardMarks() {
         markedReaderIndex = markedWriterIndex = 0;
     }
+
+    /**检查新的容量在 [0, maxCapacity] 之间*/
+    protected final void checkNewCapacity(int newCapacity) {
+        if (newCapacity < 0 || newCapacity > maxCapacity()) {
+            throw new IllegalArgumentException("newCapacity: " + newCapacity + " (expected: 0-" + maxCapacity() + ')');
+        }
+    }
+
+    /**缩容后读写位置不能超过新的容量*/
+    final void trimIndicesToCapacity(int newCapacity) {
+        if (writerIndex > newCapacity) {
+            readerIndex = Math.min(readerIndex, newCapacity);
+            writerIndex = newCapacity;
+        }
+    }
 }
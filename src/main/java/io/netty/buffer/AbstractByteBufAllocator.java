@@ -26,7 +26,16 @@ public abstract class AbstractByteBufAllocator implements ByteBufAllocator{
             return emptyBuf;
         }
         validate(initialCapacity, maxCapacity); // 校验容量的参数
-        return newDirectBuffer(initialCapacity,maxCapacity);
+        return newHeapBuffer(initialCapacity,maxCapacity);
+    }
+
+    @Override
+    public ByteBuf directBuffer(int initialCapacity, int maxCapacity) {
+        if (initialCapacity == 0 && maxCapacity == 0) {
+            return emptyBuf;
+        }
+        validate(initialCapacity, maxCapacity);
+        return newDirectBuffer(initialCapacity, maxCapacity);
     }
 
     private static void validate(int initialCapacity, int maxCapacity) {
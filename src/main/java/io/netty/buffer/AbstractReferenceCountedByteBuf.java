@@ -15,6 +15,9 @@ public abstract class AbstractReferenceCountedByteBuf extends AbstractByteBuf  {
     /**最大容量*/
     private int maxCapacity;
 
+    /**引用数量,通过 refCntUpdater 更新*/
+    private volatile int refCnt;
+
     /**引用更新器*/
     private static final AtomicIntegerFieldUpdater<AbstractReferenceCountedByteBuf> refCntUpdater = AtomicIntegerFieldUpdater.newUpdater(AbstractReferenceCountedByteBuf.class, "refCnt");
 
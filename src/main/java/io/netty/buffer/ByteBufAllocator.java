@@ -3,4 +3,6 @@ package io.netty.buffer;
 public interface ByteBufAllocator {
 
     ByteBuf heapBuffer(int initialCapacity, int maxCapacity);
+
+    ByteBuf directBuffer(int initialCapacity, int maxCapacity);
 }
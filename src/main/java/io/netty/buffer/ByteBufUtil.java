@@ -42,6 +42,9 @@ public final class ByteBufUtil {
             logger.debug("-Dio.netty.allocator.type: pooled (unknown: {})", allocType);
         }
 
+        DEFAULT_ALLOCATOR = alloc;
+
     }
 
+    private ByteBufUtil() { }
 }
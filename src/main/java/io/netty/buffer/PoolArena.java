@@ -1,22 +1,46 @@
 package io.netty.buffer;
 
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.MathUtil;
 import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.StringUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public abstract class PoolArena<T> implements PoolArenaMetric {
 
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(PoolArena.class);
+
      static final boolean HAS_UNSAFE = PlatformDependent.hasUnsafe();
 
 
      enum SizeClass{
          Tiny,
          Small,
-         Normal
+         Normal,
+         Huge
+     }
+
+     /**
+      * Normal 内存块在 PoolChunkList 之间的放置策略
+      */
+     public enum PlacementPolicy {
+         /**依次尝试 q050 q025 q000 qInit q075*/
+         Default,
+         /**所有 PoolChunkList 中最大空闲 run 最小且能放下请求的 Chunk,相同时取内存利用率高的*/
+         BestFit,
+         /**依次尝试 q075 q050 q025 q000 qInit,优先填满快满的 Chunk,使空闲的 Chunk 尽快释放*/
+         MemorySaving
      }
 
      /**数组的大小*/
@@ -45,7 +69,7 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
     /**
      * 数组的大小
      *
-     * 默认为 4
+     * 512B ~ pageSize/2 每次翻倍之间 4 个规格,默认为 13
      */
     final int numSmallSubpagePools;
 
@@ -71,9 +95,101 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
     private final PoolChunkList<T> q075;
     private final PoolChunkList<T> q100;
 
+    /**预计算的内存规格表,请求容量到规格化容量、规格、池下标的映射*/
+    final SizeClasses sizeClasses;
+
+    /**是否使用按 run 分配的 {@link PoolRunChunk},否则使用满二叉树的 {@link PoolChunk}*/
+    final boolean useRunChunk;
+
+    /**Normal 内存块的放置策略*/
+    final PlacementPolicy placementPolicy;
+
+    /**Subpage 是否通过 CAS 无锁分配和释放内存段,见 {@link PoolSubpage#allocateConcurrent}*/
+    final boolean concurrentSubpage;
+
+    /**
+     * PooledByteBuf 对象是否通过 Recycler 复用
+     *
+     * 条带缓存用于大量短生命周期的线程,Recycler 会为每个线程创建 InternalThreadLocalMap 和 Stack,
+     * 普通线程还要向 ObjectCleaner 注册清理任务,此时不复用,每次分配创建一个 PooledByteBuf 对象
+     */
+    final boolean recycleByteBufs;
+
+    /**
+     * 其他线程归还内存块的队列,为 null 表示不开启
+     *
+     * 不使用当前 Arena 的线程释放内存块时不获取锁,只放入队列,下一次获取锁时批量归还
+     */
+    private final RemoteFreeQueue<T> remoteFreeQueue;
+
+    /**经过 remoteFreeQueue 归还的内存块数量*/
+    private final LongCounter numRemoteFrees = PlatformDependent.newLongCounter();
+
+    /**调整容量时在 Chunk 中原地扩容和重新分配并复制的次数*/
+    private final LongCounter numInPlaceExpansions = PlatformDependent.newLongCounter();
+    private final LongCounter numCopiedExpansions = PlatformDependent.newLongCounter();
+
+    /**remoteFreeQueue 的清空次数及耗时,在锁内修改*/
+    private long numRemoteFreeDrains;
+    private long remoteFreeDrainNanos;
+
+    /**
+     * 清空 remoteFreeQueue 时变为完全空闲的 Chunk,已从 PoolChunkList 中移除,通过 next 连接,在锁内修改
+     * 获取锁的调用者在离开锁之前通过 {@link #takeDrainedChunks()} 取出,在锁外释放
+     */
+    private PoolChunk<T> drainedChunks;
+
+    /**
+     * 后台线程预先分配的空闲 Chunk,为 null 表示不开启
+     *
+     * 所有 PoolChunkList 都无法分配时直接取出一个,不在请求线程中分配整个 Chunk 的内存
+     */
+    private final Queue<PoolChunk<T>> spareChunks;
+
+    /**是否已经提交了补充空闲 Chunk 的任务*/
+    private final AtomicBoolean spareChunkRefilling = new AtomicBoolean();
+
+    /**最近释放的 Huge 内存块的缓存,为 null 表示不开启*/
+    private final PoolHugeChunkCache<T> hugeChunkCache;
+
+    /**
+     * 下一个新建 Chunk 的大小,从 initialChunkSize 开始每次新建 Chunk 后翻倍,直到 chunkSize,在锁内修改
+     *
+     * 只有新建的 Chunk 才可能小于 chunkSize,预先分配的 Chunk 和空闲 Chunk 池中的 Chunk 都等于 chunkSize
+     */
+    private int nextChunkSize;
+
+    /**
+     * 持有或等待 Arena 的锁的线程数,用于判断获取锁时是否有竞争
+     * 只统计分配和释放的路径
+     */
+    private final AtomicInteger lockWaiters = new AtomicInteger();
+
+    /**获取锁的次数、有竞争的次数及等待的纳秒数,在锁内修改*/
+    private long numLockAcquisitions;
+    private long numContendedLockAcquisitions;
+    private long lockWaitNanos;
+
+    /**PoolChunkListMetric 数组*/
+    private final List<PoolChunkListMetric> chunkListMetrics;
+
+    /**每个内存规格的度量,下标为规格下标*/
+    private final SizeClassMetric[] sizeClassMetrics;
+
+    private final List<PoolSizeClassMetric> sizeClassMetricList;
+
     protected PoolArena(PooledByteBufAllocator parent, int pageSize,
-                        int maxOrder, int pageShifts, int chunkSize, int cacheAlignment) {
+                        int maxOrder, int pageShifts, int chunkSize, int cacheAlignment, boolean useRunChunk) {
         this.parent = parent;
+        this.useRunChunk = useRunChunk;
+        concurrentSubpage = parent.concurrentSubpage;
+        recycleByteBufs = !parent.hasStripedCaches();
+        placementPolicy = parent.placementPolicy;
+        spareChunks = parent.spareChunks > 0 ?
+                PlatformDependent.<PoolChunk<T>>newFixedMpscQueue(parent.spareChunks) : null;
+        hugeChunkCache = parent.hugeCacheBytes > 0 ? new PoolHugeChunkCache<T>(this, parent.hugeCacheBytes) : null;
+        remoteFreeQueue = parent.remoteFreeQueueCapacity > 0 ?
+                new RemoteFreeQueue<T>(parent.remoteFreeQueueCapacity) : null;
         this.pageSize = pageSize;
         this.maxOrder = maxOrder;
         this.pageShifts = pageShifts;
@@ -81,6 +197,12 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
         directMemoryCacheAlignment = cacheAlignment;
         directMemoryCacheAlignmentMask = cacheAlignment - 1;
         subpageOverflowMask = ~(pageSize - 1);
+        nextChunkSize = parent.initialChunkSize > 0 ?
+                Math.min(chunkSize, Math.max(pageSize, parent.initialChunkSize)) : chunkSize;
+
+        // 构建内存规格表,每个 Arena 只构建一次
+        // run 模式下 Normal 规格按 Page 细分
+        sizeClasses = new SizeClasses(pageSize, pageShifts, maxOrder, chunkSize, useRunChunk);
 
         // 初始化 tinySubpagePools 数组
         tinySubpagePools = newSubpagePoolArray(numTinySubpagePools);
@@ -89,7 +211,7 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
         }
 
         // 初始化 smallSubpagePools 数组
-        numSmallSubpagePools = pageShifts - 9;
+        numSmallSubpagePools = SizeClasses.numSmallSizes(pageShifts);
         smallSubpagePools = newSubpagePoolArray(numSmallSubpagePools);
         for (int i = 0; i < smallSubpagePools.length; i ++) {
             smallSubpagePools[i] = newSubpagePoolHead(pageSize);
@@ -120,22 +242,697 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
         metrics.add(q075);
         metrics.add(q100);
         chunkListMetrics = Collections.unmodifiableList(metrics);
+
+        // 创建每个内存规格的度量
+        sizeClassMetrics = new SizeClassMetric[sizeClasses.numSizes()];
+        List<PoolSizeClassMetric> sizeMetrics = new ArrayList<PoolSizeClassMetric>(sizeClassMetrics.length);
+        for (int i = 0; i < sizeClassMetrics.length; i ++) {
+            sizeClassMetrics[i] = new SizeClassMetric(sizeClasses.sizeClass(i), sizeClasses.sizeIdx2size(i), pageSize);
+            sizeMetrics.add(sizeClassMetrics[i]);
+        }
+        sizeClassMetricList = Collections.unmodifiableList(sizeMetrics);
     }
 
     PooledByteBuf<T> allocate(PoolThreadCache cache, int reqCapacity, int maxCapacity) {
 
         //创建相应的PoolByteBuf
         PooledByteBuf<T> buf = newByteBuf(maxCapacity);
-
-
+        //分配内存块给PooledByteBuf
+        allocate(cache, buf, reqCapacity);
+        return buf;
     }
 
     abstract boolean isDirect();
 
     protected abstract PooledByteBuf<T> newByteBuf(int maxCapacity);
 
-    private void allocate(PoolThreadCache cache, PooledByteBuf<T> buf, final int reqCapacity){
+    /**创建池化的Chunk*/
+    protected abstract PoolChunk<T> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize);
+
+    /**创建非池化的Chunk,用于Huge内存块*/
+    protected abstract PoolChunk<T> newUnpooledChunk(int capacity);
+
+    /**销毁Chunk,释放其内存*/
+    protected abstract void destroyChunk(PoolChunk<T> chunk);
+
+    /**同类型 Arena 共享的空闲 Chunk 池,为 null 表示不开启*/
+    abstract PoolChunkPool<T> chunkPool();
+
+    /**根据 useRunChunk 选择Chunk的内存管理方式*/
+    final PoolChunk<T> newPooledChunk(T memory, int pageSize, int maxOrder, int pageShifts, int chunkSize, int offset) {
+        return useRunChunk ? new PoolRunChunk<T>(this, memory, pageSize, pageShifts, chunkSize, offset)
+                : new PoolChunk<T>(this, memory, pageSize, maxOrder, pageShifts, chunkSize, offset);
+    }
+
+    /**使用空闲 Chunk 的内存创建属于当前 Arena 的 Chunk,已属于当前 Arena 的直接复用*/
+    final PoolChunk<T> adoptChunk(PoolChunk<T> chunk) {
+        assert chunk.freeBytes == chunkSize && chunk.chunkSize() == chunkSize;
+        if (chunk.arena == this) {
+            return chunk;
+        }
+        PoolHandle.unregister(chunk);
+        return newPooledChunk(chunk.memory, pageSize, maxOrder, pageShifts, chunkSize, chunk.offset);
+    }
+
+    /**
+     * 通过内存规格表一次查表得到规格化容量和规格,再按规格分配
+     * */
+    void allocate(PoolThreadCache cache, PooledByteBuf<T> buf, final int reqCapacity){
+        final int sizeIdx = sizeClasses.size2SizeIdx(alignCapacity(reqCapacity));
+        sizeClassMetrics[sizeIdx].record(reqCapacity);
+        switch (sizeClasses.sizeClass(sizeIdx)) {
+            case Tiny:
+            case Small: {
+                final int normCapacity = sizeClasses.sizeIdx2size(sizeIdx);
+                //优先从线程缓存分配
+                if (cache.allocate(this, buf, reqCapacity, sizeIdx)) {
+                    return;
+                }
+                final PoolSubpage<T> head = subpagePoolHead(sizeIdx);
+                if (concurrentSubpage) {
+                    if (allocateSubpageConcurrent(head, buf, reqCapacity, normCapacity, cache)) {
+                        return;
+                    }
+                } else {
+                    //优先从已有的PoolSubpage分配
+                    synchronized (head) {
+                        final PoolSubpage<T> s = head.next;
+                        if (s != head) {
+                            assert s.doNotDestroy && s.elemSize == normCapacity;
+                            long handle = s.allocate();
+                            assert handle >= 0;
+                            s.chunk.initBufWithSubpage(buf, handle, reqCapacity, cache);
+                            return;
+                        }
+                    }
+                }
+                //没有可用的PoolSubpage,从Chunk中申请Page
+                allocateNormalLocked(buf, reqCapacity, normCapacity, cache);
+                return;
+            }
+            case Normal: {
+                final int normCapacity = sizeClasses.sizeIdx2size(sizeIdx);
+                if (cache.allocate(this, buf, reqCapacity, sizeIdx)) {
+                    return;
+                }
+                allocateNormalLocked(buf, reqCapacity, normCapacity, cache);
+                return;
+            }
+            default:
+                //大于chunkSize,不进行池化
+                allocateHuge(buf, reqCapacity);
+        }
+    }
+
+    /**
+     * 并发模式下从已有的PoolSubpage分配
+     * 先无锁读取链表中的第一个Subpage并 CAS 分配,失败时(已被其他线程分配完或已销毁)在 head 的锁内遍历链表
+     * */
+    private boolean allocateSubpageConcurrent(PoolSubpage<T> head, PooledByteBuf<T> buf, int reqCapacity,
+                                              int normCapacity, PoolThreadCache cache) {
+        PoolSubpage<T> s = head.next;
+        if (s != head && s != null) {
+            long handle = s.allocateConcurrent(head, normCapacity);
+            if (handle >= 0) {
+                s.chunk.initBufWithSubpage(buf, handle, reqCapacity, cache);
+                return true;
+            }
+        }
+        synchronized (head) {
+            for (s = head.next; s != head; s = s.next) {
+                long handle = s.allocateConcurrent(head, normCapacity);
+                if (handle >= 0) {
+                    s.chunk.initBufWithSubpage(buf, handle, reqCapacity, cache);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void allocateNormalLocked(PooledByteBuf<T> buf, int reqCapacity, int normCapacity,
+                                      PoolThreadCache cache) {
+        final PoolChunk<T> drained;
+        final boolean contended = lockWaiters.getAndIncrement() > 0;
+        final long waitStart = contended ? System.nanoTime() : 0;
+        try {
+            synchronized (this) {
+                lockAcquired(contended, waitStart);
+                allocateNormal(buf, reqCapacity, normCapacity, cache);
+                drained = takeDrainedChunks();
+            }
+        } finally {
+            lockWaiters.getAndDecrement();
+        }
+        releaseChunks(drained);
+    }
+
+    /**
+     * 获取锁后记录锁的竞争情况,在锁内调用
+     * contended 表示获取锁之前已有其他线程持有或等待锁
+     * */
+    private void lockAcquired(boolean contended, long waitStart) {
+        numLockAcquisitions ++;
+        if (contended) {
+            numContendedLockAcquisitions ++;
+            lockWaitNanos += System.nanoTime() - waitStart;
+        }
+    }
+
+    /**
+     * 按照内存利用率依次从PoolChunkList中分配,都失败时创建新的Chunk
+     * 优先q050,使内存利用率较高的Chunk被充分使用
+     * */
+    private void allocateNormal(PooledByteBuf<T> buf, int reqCapacity, int normCapacity, PoolThreadCache cache) {
+        drainRemoteFrees();
+        switch (placementPolicy) {
+            case BestFit:
+                if (allocateBestFit(buf, reqCapacity, normCapacity, cache)) {
+                    return;
+                }
+                break;
+            case MemorySaving:
+                if (q075.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q050.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q025.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q000.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    qInit.allocate(buf, reqCapacity, normCapacity, cache)) {
+                    return;
+                }
+                break;
+            default:
+                if (q050.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q025.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q000.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    qInit.allocate(buf, reqCapacity, normCapacity, cache) ||
+                    q075.allocate(buf, reqCapacity, normCapacity, cache)) {
+                    return;
+                }
+        }
+
+        // 优先使用空闲 Chunk 池和预先分配的Chunk,都没有时新建Chunk
+        PoolChunk<T> c = pollPooledChunk();
+        if (c == null) {
+            c = pollSpareChunk();
+        }
+        if (c == null) {
+            c = newGrowingChunk(normCapacity);
+        }
+        long handle = c.allocate(normCapacity);
+        assert handle > 0;
+        c.initBuf(buf, handle, reqCapacity, cache);
+        qInit.add(c);
+    }
+
+    /**
+     * 按 nextChunkSize 新建 Chunk,不小于请求所需的大小,之后 nextChunkSize 翻倍
+     * 在锁内调用
+     * */
+    private PoolChunk<T> newGrowingChunk(int normCapacity) {
+        int size = nextChunkSize;
+        if (size < chunkSize) {
+            // Chunk 的大小为 2 的幂次且至少包含一个 Page
+            size = Math.max(size, MathUtil.safeFindNextPositivePowerOfTwo(Math.max(normCapacity, pageSize)));
+            nextChunkSize = Math.min(chunkSize, size << 1);
+        }
+        return newChunk(pageSize, PoolChunk.log2(size) - pageShifts, pageShifts, size);
+    }
+
+    /**
+     * 分配 Huge 内存块,开启缓存时优先复用同一规格的 Chunk,新建的 Chunk 按规格化容量创建以便复用
+     * */
+    private void allocateHuge(PooledByteBuf<T> buf, int reqCapacity) {
+        PoolChunk<T> chunk;
+        if (hugeChunkCache != null) {
+            chunk = hugeChunkCache.poll(reqCapacity);
+            if (chunk == null) {
+                chunk = newUnpooledChunk(PoolHugeChunkCache.normalizeCapacity(reqCapacity));
+            }
+        } else {
+            chunk = newUnpooledChunk(reqCapacity);
+        }
+        buf.initUnpooled(chunk, reqCapacity);
+    }
+
+    /**
+     * 释放内存块
+     * 非池化的Chunk优先放入 Huge 缓存,否则直接销毁;池化的Chunk优先放入线程缓存,否则交给所属的PoolChunkList
+     * */
+    void free(PoolChunk<T> chunk, long handle, int normCapacity, PoolThreadCache cache) {
+        if (chunk.unpooled) {
+            if (hugeChunkCache == null || !hugeChunkCache.offer(chunk)) {
+                destroyChunk(chunk);
+            }
+        } else {
+            //优先放入线程缓存,缓存已满或没有对应规格的缓存时才交还给Chunk
+            //线程缓存迁移到其他 Arena 后,之前分配的内存块不能再放入,否则会混入其他 Arena 的内存块
+            if (cache != null && (cache.heapArena == this || cache.directArena == this) &&
+                    cache.add(this, chunk, handle, sizeClasses.size2SizeIdx(normCapacity))) {
+                // cached so not free it.
+                return;
+            }
+            //其他线程释放时放入队列,不获取锁
+            if (remoteFreeQueue != null && !isOwnerThread() && offerRemoteFree(chunk, handle)) {
+                return;
+            }
+            freeChunk(chunk, handle);
+        }
+    }
+
+    /**
+     * 调整 buf 的容量,由 {@link PooledByteBuf#capacity(int)} 在超出当前内存块时调用
+     * 扩容时优先在所属的 Chunk 中原地扩容,不需要复制;否则从当前线程的 Arena 分配新的内存块,复制内容后释放原内存块
+     * */
+    void reallocate(PooledByteBuf<T> buf, int newCapacity) {
+        assert newCapacity >= 0 && newCapacity <= buf.maxCapacity();
+        final int oldCapacity = buf.length;
+        if (newCapacity > oldCapacity) {
+            if (expandInPlace(buf, newCapacity)) {
+                numInPlaceExpansions.increment();
+                return;
+            }
+            numCopiedExpansions.increment();
+        }
+
+        final PoolChunk<T> oldChunk = buf.chunk;
+        final long oldHandle = buf.handle;
+        final T oldMemory = buf.memory;
+        final int oldOffset = buf.offset;
+        final int oldMaxLength = buf.maxLength;
+        final PoolThreadCache oldCache = buf.cache;
+        final PoolRegionOwner oldOwner = buf.regionOwner;
+        buf.regionOwner = null;
+
+        // 线程缓存只能用于其所属的 Arena,所以从当前线程的 Arena 分配
+        final PoolThreadCache cache = parent.threadCache();
+        @SuppressWarnings("unchecked")
+        final PoolArena<T> arena = (PoolArena<T>) (isDirect() ? cache.directArena : cache.heapArena);
+        arena.allocate(cache, buf, newCapacity);
+        memoryCopy(oldMemory, oldOffset, buf, Math.min(oldCapacity, newCapacity));
+        buf.trimIndicesToCapacity(newCapacity);
+
+        if (oldHandle >= 0) {
+            free(oldChunk, oldHandle, oldMaxLength, oldCache);
+        } else if (oldOwner != null) {
+            oldOwner.free(oldChunk, oldOffset, oldMaxLength);
+        }
+    }
+
+    /**
+     * 只有 Normal 内存块可以原地扩容,新的容量按规格化后的大小占用 Chunk 中相邻的空闲内存
+     * */
+    private boolean expandInPlace(PooledByteBuf<T> buf, int newCapacity) {
+        final PoolChunk<T> chunk = buf.chunk;
+        if (buf.handle < 0 || chunk.unpooled || PoolChunk.bitmapIdx(buf.handle) != 0) {
+            return false;
+        }
+        final int sizeIdx = sizeClasses.size2SizeIdx(alignCapacity(newCapacity));
+        if (sizeClasses.sizeClass(sizeIdx) != SizeClass.Normal) {
+            return false;
+        }
+        final int normCapacity = sizeClasses.sizeIdx2size(sizeIdx);
+        final boolean expanded;
+        final PoolChunk<T> drained;
+        final boolean contended = lockWaiters.getAndIncrement() > 0;
+        final long waitStart = contended ? System.nanoTime() : 0;
+        try {
+            synchronized (this) {
+                lockAcquired(contended, waitStart);
+                // 其他线程归还的内存块可能正好是相邻的内存
+                drainRemoteFrees();
+                expanded = chunk.parent.expand(chunk, buf, newCapacity, normCapacity);
+                drained = takeDrainedChunks();
+            }
+        } finally {
+            lockWaiters.getAndDecrement();
+        }
+        releaseChunks(drained);
+        return expanded;
+    }
+
+    /**复制 src 中从 srcOffset 开始的 length 个字节到 dst 的开头*/
+    protected abstract void memoryCopy(T src, int srcOffset, PooledByteBuf<T> dst, int length);
+
+    /**
+     * 在所有 PoolChunkList 中选择最适合的 Chunk 分配,见 {@link PoolChunkList#bestFit(int)}
+     * */
+    private boolean allocateBestFit(PooledByteBuf<T> buf, int reqCapacity, int normCapacity, PoolThreadCache cache) {
+        PoolChunk<T> best = null;
+        best = betterFit(best, q075.bestFit(normCapacity));
+        best = betterFit(best, q050.bestFit(normCapacity));
+        best = betterFit(best, q025.bestFit(normCapacity));
+        best = betterFit(best, q000.bestFit(normCapacity));
+        best = betterFit(best, qInit.bestFit(normCapacity));
+        return best != null && best.parent.allocate(best, buf, reqCapacity, normCapacity, cache);
+    }
+
+    private static <T> PoolChunk<T> betterFit(PoolChunk<T> best, PoolChunk<T> candidate) {
+        if (best == null) {
+            return candidate;
+        }
+        if (candidate == null) {
+            return best;
+        }
+        return PoolChunkList.isBetterFit(candidate, best) ? candidate : best;
+    }
+
+    private PoolChunk<T> pollPooledChunk() {
+        PoolChunkPool<T> pool = chunkPool();
+        return pool == null ? null : pool.poll(this);
+    }
+
+    /**
+     * 释放完全空闲的池化 Chunk,大小为 chunkSize 时优先放入空闲 Chunk 池供所有同类型的 Arena 复用,池已满时销毁
+     * */
+    private void releaseChunk(PoolChunk<T> chunk) {
+        PoolChunkPool<T> pool = chunkPool();
+        // 小于 chunkSize 的 Chunk 不放入池中,池中的 Chunk 可以满足任意 Normal 请求
+        if (pool == null || chunk.chunkSize() != chunkSize || !pool.offer(chunk)) {
+            destroyChunk(chunk);
+        }
+    }
+
+    private PoolChunk<T> pollSpareChunk() {
+        if (spareChunks == null) {
+            return null;
+        }
+        PoolChunk<T> chunk = spareChunks.poll();
+        refillSpareChunks();
+        return chunk;
+    }
+
+    /**
+     * 分配后 Chunk 的内存利用率达到水位线时,提前补充空闲 Chunk
+     * */
+    void checkSpareChunkWatermark(PoolChunk<T> chunk) {
+        if (spareChunks != null && chunk.usage() >= parent.spareChunkWatermark) {
+            refillSpareChunks();
+        }
+    }
+
+    /**空闲 Chunk 不足时提交后台任务补充,同时只有一个任务*/
+    private void refillSpareChunks() {
+        if (spareChunks.size() < parent.spareChunks && spareChunkRefilling.compareAndSet(false, true)) {
+            try {
+                parent.spareChunkExecutor.execute(spareChunkRefillTask);
+            } catch (Throwable t) {
+                spareChunkRefilling.set(false);
+                logger.warn("Failed to schedule spare chunk allocation", t);
+            }
+        }
+    }
+
+    private final Runnable spareChunkRefillTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (spareChunks.size() < parent.spareChunks) {
+                    PoolChunk<T> chunk = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
+                    if (!spareChunks.offer(chunk)) {
+                        destroyChunk(chunk);
+                        break;
+                    }
+                }
+            } catch (Throwable t) {
+                // 如 OutOfMemoryError,请求线程仍然可以自己分配Chunk
+                logger.warn("Failed to allocate spare chunk", t);
+            } finally {
+                spareChunkRefilling.set(false);
+            }
+        }
+    };
+
+    /**当前线程的 PoolThreadCache 是否使用当前 Arena,不会为当前线程创建 PoolThreadCache*/
+    private boolean isOwnerThread() {
+        PoolThreadCache cache = parent.threadCacheIfExists();
+        return cache != null && (cache.heapArena == this || cache.directArena == this);
+    }
+
+    private boolean offerRemoteFree(PoolChunk<T> chunk, long handle) {
+        if (remoteFreeQueue.offer(chunk, handle)) {
+            numRemoteFrees.increment();
+            return true;
+        }
+        // 队列已满,直接在锁内释放
+        return false;
+    }
+
+    /**
+     * 其他线程归还内存块的有界多生产者单消费者队列
+     *
+     * 与 {@link PoolThreadCache} 的 MemoryRegionCache 相同,Chunk 和 handle 存放在预先分配的并列数组中,
+     * 通过 sequences 发布槽位,放入时不创建对象。只有持有 Arena 锁的线程取出
+     */
+    private static final class RemoteFreeQueue<T> {
+        private final PoolChunk<T>[] chunks;
+        private final long[] handles;
+
+        /**
+         * 槽位的序号,等于 producerIndex 时可以写入,等于写入时的 producerIndex + 1 时可以取出,
+         * 取出后加上容量供下一轮写入
+         */
+        private final AtomicLongArray sequences;
+        private final int mask;
+
+        /**下一个写入的位置,生产者 CAS 递增*/
+        private final AtomicLong producerIndex = new AtomicLong();
+
+        /**下一个取出的位置,只在锁内修改*/
+        private volatile long consumerIndex;
+
+        /**{@link #poll()} 取出的内存块的 handle,只在锁内读写*/
+        private long polledHandle;
+
+        @SuppressWarnings("unchecked")
+        RemoteFreeQueue(int capacity) {
+            int size = MathUtil.safeFindNextPositivePowerOfTwo(capacity);
+            chunks = new PoolChunk[size];
+            handles = new long[size];
+            mask = size - 1;
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i ++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**任意线程都可能放入,CAS 抢占 producerIndex 对应的槽位后写入*/
+        boolean offer(PoolChunk<T> chunk, long handle) {
+            for (;;) {
+                final long index = producerIndex.get();
+                final int offset = (int) index & mask;
+                final long seq = sequences.get(offset);
+                if (seq == index) {
+                    if (producerIndex.compareAndSet(index, index + 1)) {
+                        chunks[offset] = chunk;
+                        handles[offset] = handle;
+                        sequences.lazySet(offset, index + 1);
+                        return true;
+                    }
+                } else if (seq < index) {
+                    // 槽位中上一轮的内存块还未取出,队列已满
+                    return false;
+                }
+                // 其他生产者已抢占该槽位,重试
+            }
+        }
+
+        /**
+         * 取出最早放入的内存块,handle 通过 {@link #polledHandle()} 获取,在锁内调用
+         * @return null 表示为空,或生产者已抢占槽位但还未写入,留到下一次清空
+         * */
+        PoolChunk<T> poll() {
+            final long index = consumerIndex;
+            final int offset = (int) index & mask;
+            if (sequences.get(offset) != index + 1) {
+                return null;
+            }
+            final PoolChunk<T> chunk = chunks[offset];
+            polledHandle = handles[offset];
+            // 不再引用 PoolChunk,使其可以被 GC
+            chunks[offset] = null;
+            sequences.lazySet(offset, index + mask + 1);
+            consumerIndex = index + 1;
+            return chunk;
+        }
+
+        long polledHandle() {
+            return polledHandle;
+        }
+
+        boolean isEmpty() {
+            return consumerIndex == producerIndex.get();
+        }
+
+        int size() {
+            // 先读 consumerIndex,保证结果不为负数
+            final long consumer = consumerIndex;
+            return (int) Math.min(producerIndex.get() - consumer, mask + 1);
+        }
+    }
+
+    /**
+     * 批量归还其他线程放入队列的内存块,在锁内调用,锁保证了只有一个消费者
+     * 完全空闲的Chunk加入 drainedChunks,由调用者在锁外释放,避免在锁内销毁Chunk或访问空闲Chunk池
+     * */
+    private void drainRemoteFrees() {
+        if (remoteFreeQueue == null || remoteFreeQueue.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        PoolChunk<T> chunk;
+        while ((chunk = remoteFreeQueue.poll()) != null) {
+            long handle = remoteFreeQueue.polledHandle();
+
+            if (concurrentSubpage && PoolChunk.bitmapIdx(handle) != 0) {
+                if (chunk.freeSubpageConcurrent(handle)) {
+                    continue;
+                }
+                handle &= 0xFFFFFFFFL;
+            }
+            if (!chunk.parent.free(chunk, handle)) {
+                chunk.next = drainedChunks;
+                drainedChunks = chunk;
+            }
+        }
+        numRemoteFreeDrains ++;
+        remoteFreeDrainNanos += System.nanoTime() - start;
+    }
+
+    /**取出 drainRemoteFrees() 中完全空闲的Chunk,在锁内调用*/
+    private PoolChunk<T> takeDrainedChunks() {
+        PoolChunk<T> drained = drainedChunks;
+        drainedChunks = null;
+        return drained;
+    }
+
+    /**释放 takeDrainedChunks() 取出的Chunk,在锁外调用*/
+    private void releaseChunks(PoolChunk<T> chunk) {
+        while (chunk != null) {
+            PoolChunk<T> next = chunk.next;
+            chunk.next = null;
+            releaseChunk(chunk);
+            chunk = next;
+        }
+    }
+
+    /**
+     * 批量释放内存块,只获取一次锁
+     * PoolChunkList 的调整与逐个释放相同,需要销毁的Chunk在锁外销毁
+     * */
+    void freeChunks(PoolChunk<T>[] chunks, long[] handles, int size) {
+        if (concurrentSubpage) {
+            for (int i = 0; i < size; i ++) {
+                long handle = handles[i];
+                if (PoolChunk.bitmapIdx(handle) != 0) {
+                    if (chunks[i].freeSubpageConcurrent(handle)) {
+                        chunks[i] = null;
+                    } else {
+                        handles[i] = handle & 0xFFFFFFFFL;
+                    }
+                }
+            }
+        }
+
+        // 需要销毁的Chunk依次写回 chunks 数组的前部,numDestroy 不会超过当前下标
+        int numDestroy = 0;
+        final PoolChunk<T> drained;
+        final boolean contended = lockWaiters.getAndIncrement() > 0;
+        final long waitStart = contended ? System.nanoTime() : 0;
+        try {
+            synchronized (this) {
+                lockAcquired(contended, waitStart);
+                drainRemoteFrees();
+                for (int i = 0; i < size; i ++) {
+                    PoolChunk<T> chunk = chunks[i];
+                    if (chunk != null && !chunk.parent.free(chunk, handles[i])) {
+                        chunks[numDestroy ++] = chunk;
+                    }
+                }
+                drained = takeDrainedChunks();
+            }
+        } finally {
+            lockWaiters.getAndDecrement();
+        }
+        for (int i = 0; i < numDestroy; i ++) {
+            // destroyChunk not need to be called while holding the synchronized lock.
+            releaseChunk(chunks[i]);
+        }
+        releaseChunks(drained);
+    }
+
+    void freeChunk(PoolChunk<T> chunk, long handle) {
+        if (concurrentSubpage && PoolChunk.bitmapIdx(handle) != 0) {
+            if (chunk.freeSubpageConcurrent(handle)) {
+                return;
+            }
+            // Subpage 已经销毁,只需释放其所在的 Page
+            handle &= 0xFFFFFFFFL;
+        }
+        final boolean destroyChunk;
+        final PoolChunk<T> drained;
+        final boolean contended = lockWaiters.getAndIncrement() > 0;
+        final long waitStart = contended ? System.nanoTime() : 0;
+        try {
+            synchronized (this) {
+                lockAcquired(contended, waitStart);
+                drainRemoteFrees();
+                destroyChunk = !chunk.parent.free(chunk, handle);
+                drained = takeDrainedChunks();
+            }
+        } finally {
+            lockWaiters.getAndDecrement();
+        }
+        if (destroyChunk) {
+            // destroyChunk not need to be called while holding the synchronized lock.
+            releaseChunk(chunk);
+        }
+        releaseChunks(drained);
+    }
+
+    /**
+     * 销毁 qInit 和 q000 中完全空闲的 Chunk 以及 Huge 缓存中的 Chunk,在锁外销毁
+     * @return 释放的字节数
+     * */
+    long trim() {
+        long trimmed = hugeChunkCache == null ? 0 : hugeChunkCache.trim();
+        List<PoolChunk<T>> empty = new ArrayList<PoolChunk<T>>();
+        synchronized (this) {
+            drainRemoteFrees();
+            qInit.removeEmptyChunks(empty);
+            q000.removeEmptyChunks(empty);
+            for (PoolChunk<T> chunk = takeDrainedChunks(); chunk != null; ) {
+                PoolChunk<T> next = chunk.next;
+                chunk.next = null;
+                empty.add(chunk);
+                chunk = next;
+            }
+        }
+        for (PoolChunk<T> chunk : empty) {
+            destroyChunk(chunk);
+            trimmed += chunk.chunkSize();
+        }
+        return trimmed;
+    }
 
+    /**按照directMemoryCacheAlignment对齐请求容量*/
+    int alignCapacity(int reqCapacity) {
+        if (directMemoryCacheAlignment == 0) {
+            return reqCapacity;
+        }
+        int delta = reqCapacity & directMemoryCacheAlignmentMask;
+        return delta == 0 ? reqCapacity : reqCapacity + directMemoryCacheAlignment - delta;
+    }
+
+    /**
+     * 规格化容量,查 {@link SizeClasses} 的规格表向上取到最近的规格
+     * 16B~496B按16B对齐,512B~pageSize/2每次翻倍之间4个规格,如512 640 768 896 1024
+     * Normal按Page对齐,buddy模式下为2的幂次个Page,run模式下每次翻倍之间4个规格
+     * */
+    int normalizeCapacity(int reqCapacity) {
+        if (reqCapacity < 0) {
+            throw new IllegalArgumentException("capacity: " + reqCapacity + " (expected: 0+)");
+        }
+        return sizeClasses.normalizeCapacity(alignCapacity(reqCapacity));
     }
 
     private PoolSubpage<T> newSubpagePoolHead(int pageSize) {
@@ -151,32 +948,147 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
 
     /**
      * @Desc 根据内存大小找到对应的PoolSubpage
-     * 
+     *
+     * elemSize为规格化后的容量,通过内存规格表直接定位tinySubpagePools或smallSubpagePools的下标
      * */
     PoolSubpage<T> findSubpagePoolHead(int elemSize){
-        int tableIdx;
-        PoolSubpage<T>[] table;
-
-        //如果内存大小是Tiny,即小于512B,
-        if(isTiny(elemSize)){
-            //找到表对应的idx,tinySubpagePools的大小是32,故这里右移4位确定,其存在的位置
-            tableIdx = elemSize>>>4;
-            //获取tiny对应的PoolSubpage
-            table = tinySubpagePools;
-        }else{
-            //Small内存大小范围在512KB~8KB,
-            //直接移动10,tableIdx初始值为0,表示范围在512B~1024B存放在数组下标为0的位置
-            tableIdx=0;
-            elemSize>>>=10;
-            //依次确定1KB~2KB 2KB~4KB 4KB~8KB的数组下标1 2 3的位置
-            while (elemSize!=0){
-                elemSize>>>=1;
-                tableIdx++;
-            }
-            //smallSubpagePools数组大小为4
-            table = smallSubpagePools;
-        }
-        return table[tableIdx];
+        return subpagePoolHead(sizeClasses.size2SizeIdx(elemSize));
+    }
+
+    private PoolSubpage<T> subpagePoolHead(int sizeIdx) {
+        //下标由规格表中的 poolIdx 给出:Tiny为elemSize>>>4,Small为该规格在Small规格中的序号
+        PoolSubpage<T>[] table = sizeClasses.sizeClass(sizeIdx) == SizeClass.Tiny ? tinySubpagePools : smallSubpagePools;
+        return table[sizeClasses.poolIdx(sizeIdx)];
+    }
+
+    @Override
+    public List<PoolSizeClassMetric> sizeClassMetrics() {
+        return sizeClassMetricList;
+    }
+
+    @Override
+    public List<PoolSubpageMetric> tinySubpages() {
+        return subPageMetricList(tinySubpagePools);
+    }
+
+    @Override
+    public List<PoolSubpageMetric> smallSubpages() {
+        return subPageMetricList(smallSubpagePools);
+    }
+
+    @Override
+    public List<PoolChunkListMetric> chunkLists() {
+        return chunkListMetrics;
+    }
+
+    /**遍历每个 Subpage 池的双向链表,在 head 的锁内读取*/
+    private static List<PoolSubpageMetric> subPageMetricList(PoolSubpage<?>[] pages) {
+        List<PoolSubpageMetric> metrics = new ArrayList<PoolSubpageMetric>();
+        for (PoolSubpage<?> head : pages) {
+            synchronized (head) {
+                for (PoolSubpage<?> s = head.next; s != head; s = s.next) {
+                    metrics.add(s);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public int numSpareChunks() {
+        return spareChunks == null ? 0 : spareChunks.size();
+    }
+
+    @Override
+    public int numPendingRemoteFrees() {
+        return remoteFreeQueue == null ? 0 : remoteFreeQueue.size();
+    }
+
+    @Override
+    public long numRemoteFrees() {
+        return numRemoteFrees.value();
+    }
+
+    @Override
+    public long numRemoteFreeDrains() {
+        synchronized (this) {
+            return numRemoteFreeDrains;
+        }
+    }
+
+    @Override
+    public long remoteFreeDrainNanos() {
+        synchronized (this) {
+            return remoteFreeDrainNanos;
+        }
+    }
+
+    @Override
+    public int numThreadCaches() {
+        return numThreadCaches.get();
+    }
+
+    @Override
+    public long numLockAcquisitions() {
+        synchronized (this) {
+            return numLockAcquisitions;
+        }
+    }
+
+    @Override
+    public long numContendedLockAcquisitions() {
+        synchronized (this) {
+            return numContendedLockAcquisitions;
+        }
+    }
+
+    @Override
+    public long lockWaitNanos() {
+        synchronized (this) {
+            return lockWaitNanos;
+        }
+    }
+
+    @Override
+    public int nextChunkSize() {
+        synchronized (this) {
+            return nextChunkSize;
+        }
+    }
+
+    @Override
+    public long numHugeCacheHits() {
+        return hugeChunkCache == null ? 0 : hugeChunkCache.numHits();
+    }
+
+    @Override
+    public long numHugeCacheMisses() {
+        return hugeChunkCache == null ? 0 : hugeChunkCache.numMisses();
+    }
+
+    @Override
+    public long numHugeCacheEvictions() {
+        return hugeChunkCache == null ? 0 : hugeChunkCache.numEvictions();
+    }
+
+    @Override
+    public long hugeCachedBytes() {
+        return hugeChunkCache == null ? 0 : hugeChunkCache.cachedBytes();
+    }
+
+    @Override
+    public long numInPlaceExpansions() {
+        return numInPlaceExpansions.value();
+    }
+
+    @Override
+    public long numCopiedExpansions() {
+        return numCopiedExpansions.value();
+    }
+
+    /**规格下标对应的度量,线程缓存通过它记录命中情况*/
+    SizeClassMetric sizeClassMetric(int sizeIdx) {
+        return sizeClassMetrics[sizeIdx];
     }
 
     static boolean isTiny(int normCapacity) {
@@ -184,10 +1096,136 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
     }
 
 
+    /**
+     * 单个内存规格的度量,记录请求字节数与分配次数以计算内部碎片
+     * */
+    static final class SizeClassMetric implements PoolSizeClassMetric {
+
+        private final SizeClass sizeClass;
+        private final int elemSize;
+        private final int unusedBytesPerPage;
+
+        private final LongCounter allocations = PlatformDependent.newLongCounter();
+        private final LongCounter requestedBytes = PlatformDependent.newLongCounter();
+        private final LongCounter cacheHits = PlatformDependent.newLongCounter();
+        private final LongCounter cacheMisses = PlatformDependent.newLongCounter();
+        private final LongCounter cacheEvictions = PlatformDependent.newLongCounter();
+        private final LongCounter cacheCapacity = PlatformDependent.newLongCounter();
+
+        SizeClassMetric(SizeClass sizeClass, int elemSize, int pageSize) {
+            this.sizeClass = sizeClass;
+            this.elemSize = elemSize;
+            unusedBytesPerPage = sizeClass == SizeClass.Tiny || sizeClass == SizeClass.Small ? pageSize % elemSize : 0;
+        }
+
+        void record(int reqCapacity) {
+            allocations.increment();
+            requestedBytes.add(reqCapacity);
+        }
+
+        void recordCacheHit() {
+            cacheHits.increment();
+        }
+
+        void recordCacheMiss() {
+            cacheMisses.increment();
+        }
+
+        void recordCacheEvictions(int evictions) {
+            cacheEvictions.add(evictions);
+        }
+
+        /**线程缓存的容量变化,创建时为正,调整或释放时可能为负*/
+        void recordCacheCapacity(int delta) {
+            cacheCapacity.add(delta);
+        }
+
+        @Override
+        public String sizeClass() {
+            return sizeClass.name();
+        }
+
+        @Override
+        public int elementSize() {
+            return elemSize;
+        }
+
+        @Override
+        public long numAllocations() {
+            return allocations.value();
+        }
+
+        @Override
+        public long numRequestedBytes() {
+            return requestedBytes.value();
+        }
+
+        @Override
+        public long numAllocatedBytes() {
+            // Huge 不做规格化,分配的字节数即请求的字节数
+            return sizeClass == SizeClass.Huge ? numRequestedBytes() : numAllocations() * elemSize;
+        }
+
+        @Override
+        public long internalFragmentationBytes() {
+            return Math.max(0, numAllocatedBytes() - numRequestedBytes());
+        }
+
+        @Override
+        public int internalFragmentation() {
+            long allocated = numAllocatedBytes();
+            return allocated == 0 ? 0 : (int) (internalFragmentationBytes() * 100L / allocated);
+        }
+
+        @Override
+        public int unusedBytesPerPage() {
+            return unusedBytesPerPage;
+        }
+
+        @Override
+        public long numCacheHits() {
+            return cacheHits.value();
+        }
+
+        @Override
+        public long numCacheMisses() {
+            return cacheMisses.value();
+        }
+
+        @Override
+        public long numCacheEvictions() {
+            return cacheEvictions.value();
+        }
+
+        @Override
+        public int cacheHitRate() {
+            long hits = numCacheHits();
+            long total = hits + numCacheMisses();
+            return total == 0 ? 0 : (int) (hits * 100L / total);
+        }
+
+        @Override
+        public long cacheCapacity() {
+            return cacheCapacity.value();
+        }
+
+        @Override
+        public String toString() {
+            return StringUtil.simpleClassName(this) +
+                    "(sizeClass: " + sizeClass +
+                    ", elementSize: " + elemSize +
+                    ", allocations: " + numAllocations() +
+                    ", internalFragmentation: " + internalFragmentation() + "%" +
+                    ", cacheHitRate: " + cacheHitRate() + "%" +
+                    ", cacheCapacity: " + cacheCapacity() + ')';
+        }
+    }
+
     static final class HeapArena extends PoolArena<byte[]> { // 管理 byte[] 数组
 
-        HeapArena(PooledByteBufAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
-            super(parent, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment);
+        HeapArena(PooledByteBufAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize,
+                  int directMemoryCacheAlignment, boolean useRunChunk) {
+            super(parent, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment, useRunChunk);
         }
 
         // 创建 byte[] 数组,即内存大小
@@ -200,10 +1238,39 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
             return false;
         }
 
+        @Override
+        protected PoolChunk<byte[]> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            return newPooledChunk(newByteArray(chunkSize), pageSize, maxOrder, pageShifts, chunkSize, 0);
+        }
+
+        @Override
+        protected PoolChunk<byte[]> newUnpooledChunk(int capacity) {
+            return new PoolChunk<byte[]>(this, newByteArray(capacity), capacity, 0);
+        }
+
+        @Override
+        protected void destroyChunk(PoolChunk<byte[]> chunk) {
+            PoolHandle.unregister(chunk);
+            // Rely on GC.
+        }
+
+        @Override
+        PoolChunkPool<byte[]> chunkPool() {
+            return parent.heapChunkPool;
+        }
+
+        @Override
+        protected void memoryCopy(byte[] src, int srcOffset, PooledByteBuf<byte[]> dst, int length) {
+            if (length == 0) {
+                return;
+            }
+            System.arraycopy(src, srcOffset, dst.memory, dst.offset, length);
+        }
+
         @Override
         protected PooledByteBuf<byte[]> newByteBuf(int maxCapacity) {
-            return HAS_UNSAFE ? PooledUnsafeHeapByteBuf.newUnsafeInstance(maxCapacity)
-                    : PooledHeapByteBuf.newInstance(maxCapacity);
+            return HAS_UNSAFE ? PooledUnsafeHeapByteBuf.newUnsafeInstance(maxCapacity, recycleByteBufs)
+                    : PooledHeapByteBuf.newInstance(maxCapacity, recycleByteBufs);
         }
 
     }
@@ -211,16 +1278,72 @@ public abstract class PoolArena<T> implements PoolArenaMetric {
     static final class DirectArena extends PoolArena<ByteBuffer> { // 管理 Direct ByteBuffer 对象
 
         DirectArena(PooledByteBufAllocator parent, int pageSize, int maxOrder,
-                    int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
-            super(parent, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment);
+                    int pageShifts, int chunkSize, int directMemoryCacheAlignment, boolean useRunChunk) {
+            super(parent, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment, useRunChunk);
+        }
+
+        @Override
+        boolean isDirect() {
+            return true;
+        }
+
+        /**计算内存地址距离对齐位置的偏移量*/
+        private int offsetCacheLine(ByteBuffer memory) {
+            int remainder = HAS_UNSAFE
+                    ? (int) (PlatformDependent.directBufferAddress(memory) & directMemoryCacheAlignmentMask)
+                    : 0;
+            return remainder == 0 ? 0 : directMemoryCacheAlignment - remainder;
+        }
+
+        @Override
+        protected PoolChunk<ByteBuffer> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            if (directMemoryCacheAlignment == 0) {
+                return newPooledChunk(ByteBuffer.allocateDirect(chunkSize), pageSize, maxOrder, pageShifts, chunkSize, 0);
+            }
+            final ByteBuffer memory = ByteBuffer.allocateDirect(chunkSize + directMemoryCacheAlignment);
+            return newPooledChunk(memory, pageSize, maxOrder, pageShifts, chunkSize, offsetCacheLine(memory));
+        }
+
+        @Override
+        protected PoolChunk<ByteBuffer> newUnpooledChunk(int capacity) {
+            if (directMemoryCacheAlignment == 0) {
+                return new PoolChunk<ByteBuffer>(this, ByteBuffer.allocateDirect(capacity), capacity, 0);
+            }
+            final ByteBuffer memory = ByteBuffer.allocateDirect(capacity + directMemoryCacheAlignment);
+            return new PoolChunk<ByteBuffer>(this, memory, capacity, offsetCacheLine(memory));
+        }
+
+        @Override
+        protected void destroyChunk(PoolChunk<ByteBuffer> chunk) {
+            PoolHandle.unregister(chunk);
+            PlatformDependent.freeDirectBuffer(chunk.memory);
+        }
+
+        @Override
+        PoolChunkPool<ByteBuffer> chunkPool() {
+            return parent.directChunkPool;
+        }
+
+        @Override
+        protected void memoryCopy(ByteBuffer src, int srcOffset, PooledByteBuf<ByteBuffer> dst, int length) {
+            if (length == 0) {
+                return;
+            }
+            // 使用副本,不修改 Chunk 共享的 ByteBuffer 的位置
+            src = src.duplicate();
+            ByteBuffer dstBuffer = dst.memory.duplicate();
+            src.limit(srcOffset + length);
+            src.position(srcOffset);
+            dstBuffer.position(dst.offset);
+            dstBuffer.put(src);
         }
 
         @Override
         protected PooledByteBuf<ByteBuffer> newByteBuf(int maxCapacity) {
             if (HAS_UNSAFE) {
-                return PooledUnsafeDirectByteBuf.newInstance(maxCapacity);
+                return PooledUnsafeDirectByteBuf.newInstance(maxCapacity, recycleByteBufs);
             } else {
-                return PooledDirectByteBuf.newInstance(maxCapacity);
+                return PooledDirectByteBuf.newInstance(maxCapacity, recycleByteBufs);
             }
         }
 
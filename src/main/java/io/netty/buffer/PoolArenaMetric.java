@@ -1,6 +1,66 @@
 package io.netty.buffer;
 
+import java.util.List;
+
 public interface PoolArenaMetric {
 
+    /**返回每个内存规格的度量,按规格从小到大排列*/
+    List<PoolSizeClassMetric> sizeClassMetrics();
+
+    /**返回 Tiny 规格的 Subpage 池中所有 Subpage 的度量*/
+    List<PoolSubpageMetric> tinySubpages();
+
+    /**返回 Small 规格的 Subpage 池中所有 Subpage 的度量*/
+    List<PoolSubpageMetric> smallSubpages();
+
+    /**返回所有 PoolChunkList 的度量,按内存利用率从低到高排列*/
+    List<PoolChunkListMetric> chunkLists();
+
+    /**后台线程预先分配、还未使用的空闲 Chunk 数量*/
+    int numSpareChunks();
+
+    /**其他线程释放、还在队列中等待归还的内存块数量*/
+    int numPendingRemoteFrees();
+
+    /**经过队列归还的内存块总数*/
+    long numRemoteFrees();
+
+    /**清空队列的次数*/
+    long numRemoteFreeDrains();
+
+    /**清空队列累计耗时的纳秒数,即持有锁的线程额外承担的延迟*/
+    long remoteFreeDrainNanos();
+
+    /**使用当前 Arena 的线程缓存数量*/
+    int numThreadCaches();
+
+    /**分配和释放时获取 Arena 的锁的次数*/
+    long numLockAcquisitions();
+
+    /**获取锁时已有其他线程持有或等待锁的次数*/
+    long numContendedLockAcquisitions();
+
+    /**有竞争时等待锁的累计纳秒数*/
+    long lockWaitNanos();
+
+    /**下一个新建 Chunk 的大小,开启 Chunk 大小增长时从 initialChunkSize 翻倍到 chunkSize*/
+    int nextChunkSize();
+
+    /**从 Huge 缓存中复用 Chunk 的次数*/
+    long numHugeCacheHits();
+
+    /**开启 Huge 缓存时新建 Huge Chunk 的次数*/
+    long numHugeCacheMisses();
+
+    /**超出字节预算被 Huge 缓存销毁的 Chunk 数量*/
+    long numHugeCacheEvictions();
+
+    /**Huge 缓存中 Chunk 的总字节数*/
+    long hugeCachedBytes();
+
+    /**调整容量时在 Chunk 中原地扩容、不需要复制的次数*/
+    long numInPlaceExpansions();
 
+    /**调整容量时无法原地扩容、重新分配并复制的次数*/
+    long numCopiedExpansions();
 }
@@ -79,7 +79,7 @@ public class PoolChunk<T> implements PoolChunkMetric {
     /**
      * 剩余可用字节数
      */
-    private int freeBytes;
+    int freeBytes;
 
     /**
      * 所属 PoolChunkList 对象
@@ -94,6 +94,17 @@ public class PoolChunk<T> implements PoolChunkMetric {
      */
     PoolChunk<T> next;
 
+    /**
+     * 在所属 PoolChunkList 中按最大空闲 run 分桶的链表,见 {@link PoolChunkList#allocate}
+     */
+    PoolChunk<T> bucketPrev;
+    PoolChunk<T> bucketNext;
+    /**所在的桶,-1 表示不在任何 PoolChunkList 中*/
+    int bucket = -1;
+
+    /**在 {@link PoolHandle} 中注册的 id,-1 表示没有注册*/
+    volatile int registryId = -1;
+
 
 
     PoolChunk(PoolArena<T> arena, T memory, int pageSize, int maxOrder, int pageShifts, int chunkSize, int offset) {
@@ -133,6 +144,28 @@ public class PoolChunk<T> implements PoolChunkMetric {
         subpages = newSubpageArray(maxSubpageAllocs);
     }
 
+    /**
+     * 创建不使用满二叉树管理内存的池化Chunk,由 {@link PoolRunChunk} 自行管理空闲的 run
+     * */
+    PoolChunk(PoolArena<T> arena, T memory, int pageSize, int pageShifts, int chunkSize, int offset) {
+        unpooled = false;
+        this.arena = arena;
+        this.memory = memory;
+        this.pageSize = pageSize;
+        this.pageShifts = pageShifts;
+        this.chunkSize = chunkSize;
+        this.offset = offset;
+        maxOrder = log2(chunkSize) - pageShifts;
+        unusable = (byte) (maxOrder + 1);
+        log2ChunkSize = log2(chunkSize);
+        subpageOverflowMask = ~(pageSize - 1);
+        freeBytes = chunkSize;
+        maxSubpageAllocs = 1 << maxOrder;
+        memoryMap = null;
+        depthMap = null;
+        subpages = null;
+    }
+
     /** Creates a special chunk that is not pooled. */
     PoolChunk(PoolArena<T> arena, T memory, int size, int offset) {
         // 非池化
@@ -184,9 +217,178 @@ public class PoolChunk<T> implements PoolChunkMetric {
         return memoryMap[id];
     }
 
+    /**
+     * 分配内存,返回handle
+     * 大于等于pageSize时分配Page,否则分配Subpage
+     * */
     long allocate(int normCapacity){
         if((normCapacity&subpageOverflowMask)!=0){
-            return
+            return allocateRun(normCapacity);
+        }else{
+            return allocateSubpage(normCapacity);
+        }
+    }
+
+    /**
+     * 初始化PooledByteBuf
+     * handle的低32位为memoryMapIdx,高32位为bitmapIdx,bitmapIdx为0表示分配的是Page
+     * */
+    void initBuf(PooledByteBuf<T> buf, long handle, int reqCapacity, PoolThreadCache threadCache) {
+        int memoryMapIdx = memoryMapIdx(handle);
+        int bitmapIdx = bitmapIdx(handle);
+        if (bitmapIdx == 0) {
+            byte val = value(memoryMapIdx);
+            assert val == unusable : String.valueOf(val);
+            buf.init(this, handle, runOffset(memoryMapIdx) + offset, reqCapacity, runLength(memoryMapIdx),
+                    threadCache);
+        } else {
+            initBufWithSubpage(buf, handle, bitmapIdx, reqCapacity, threadCache);
+        }
+    }
+
+    void initBufWithSubpage(PooledByteBuf<T> buf, long handle, int reqCapacity, PoolThreadCache threadCache) {
+        initBufWithSubpage(buf, handle, bitmapIdx(handle), reqCapacity, threadCache);
+    }
+
+    private void initBufWithSubpage(PooledByteBuf<T> buf, long handle, int bitmapIdx, int reqCapacity,
+                                    PoolThreadCache threadCache) {
+        assert bitmapIdx != 0;
+
+        int memoryMapIdx = memoryMapIdx(handle);
+
+        PoolSubpage<T> subpage = subpages[subpageIdx(memoryMapIdx)];
+        assert subpage.doNotDestroy;
+        assert reqCapacity <= subpage.elemSize;
+
+        //去掉bitmapIdx的标记位0x40000000,得到在Subpage中的第几个内存段
+        buf.init(this, handle,
+                runOffset(memoryMapIdx) + (bitmapIdx & 0x3FFFFFFF) * subpage.elemSize + offset,
+                reqCapacity, subpage.elemSize, threadCache);
+    }
+
+    /**
+     * 当前能分配的最大内存块大小,即最大的空闲 run,没有空闲 Page 时为 0
+     * 满二叉树根节点的值就是最大空闲节点的深度
+     * */
+    int maxFreeRun() {
+        byte val = value(1);
+        return val > maxOrder ? 0 : 1 << log2ChunkSize - val;
+    }
+
+    /**
+     * 原地扩容 handle 对应的 run 到 normCapacity,返回新的 handle,无法原地扩容时返回 -1
+     *
+     * run 的起始位置不能改变,所以每向上一层,当前节点都必须是左子节点且右边的伙伴节点完全空闲,
+     * 之后恢复原节点、占用祖先节点,相当于把伙伴节点合并进来
+     * */
+    long expand(long handle, int normCapacity) {
+        if (bitmapIdx(handle) != 0) {
+            return -1;
+        }
+        final int id = memoryMapIdx(handle);
+        final int d = log2ChunkSize - log2(normCapacity);
+        if (d < 0 || d >= depth(id)) {
+            return -1;
+        }
+        int target = id;
+        while (depth(target) > d) {
+            if ((target & 1) != 0 || value(target ^ 1) != depth(target ^ 1)) {
+                return -1;
+            }
+            target >>>= 1;
+        }
+
+        // 原节点和中间节点的两个子节点都空闲,恢复为自己的深度
+        for (int i = id; i != target; i >>>= 1) {
+            setValue(i, depth(i));
+        }
+        setValue(target, unusable);
+        updateParentsAlloc(target);
+        freeBytes -= runLength(target) - runLength(id);
+        return target;
+    }
+
+    /**
+     * 释放handle对应的内存
+     * 如果是Subpage,先释放Subpage中的内存段,Subpage中所有内存段都空闲时才释放Page
+     * */
+    void free(long handle) {
+        int memoryMapIdx = memoryMapIdx(handle);
+        int bitmapIdx = bitmapIdx(handle);
+
+        if (bitmapIdx != 0) { // free a subpage
+            PoolSubpage<T> subpage = subpages[subpageIdx(memoryMapIdx)];
+            assert subpage != null && subpage.doNotDestroy;
+
+            // Obtain the head of the PoolSubPage pool that is owned by the PoolArena and synchronize on it.
+            // This is need as we may add it back and so alter the linked-list structure.
+            PoolSubpage<T> head = arena.findSubpagePoolHead(subpage.elemSize);
+            synchronized (head) {
+                if (subpage.free(head, bitmapIdx & 0x3FFFFFFF)) {
+                    return;
+                }
+            }
+        }
+        // 增加剩余可用字节数,并恢复节点的值
+        freeBytes += runLength(memoryMapIdx);
+        setValue(memoryMapIdx, depth(memoryMapIdx));
+        updateParentsFree(memoryMapIdx);
+    }
+
+    /**
+     * 并发模式下无锁释放 Subpage 中的内存段,不需要获取 Arena 的锁
+     * @return true 表示释放完成,false 表示 Subpage 已经销毁,需要在 Arena 的锁内释放其所在的 Page
+     * */
+    boolean freeSubpageConcurrent(long handle) {
+        int bitmapIdx = bitmapIdx(handle);
+        assert bitmapIdx != 0;
+        PoolSubpage<T> subpage = subpages[subpageIdx(memoryMapIdx(handle))];
+        assert subpage != null && subpage.concurrent;
+
+        PoolSubpage<T> head = arena.findSubpagePoolHead(subpage.elemSize);
+        return subpage.freeConcurrent(head, bitmapIdx & 0x3FFFFFFF);
+    }
+
+    /**
+     * 释放节点后更新父节点的值
+     * 如果两个子节点都完全空闲,父节点恢复为自己的深度,否则取子节点较小值
+     * */
+    private void updateParentsFree(int id) {
+        int logChild = depth(id) + 1;
+        while (id > 1) {
+            int parentId = id >>> 1;
+            byte val1 = value(id);
+            byte val2 = value(id ^ 1);
+            logChild -= 1; // in first iteration equals log, subsequently reduce 1 from logChild as we traverse up
+
+            if (val1 == logChild && val2 == logChild) {
+                setValue(parentId, (byte) (logChild - 1));
+            } else {
+                byte val = val1 < val2 ? val1 : val2;
+                setValue(parentId, val);
+            }
+
+            id = parentId;
+        }
+    }
+
+    static int memoryMapIdx(long handle) {
+        return (int) handle;
+    }
+
+    static int bitmapIdx(long handle) {
+        return (int) (handle >>> Integer.SIZE);
+    }
+
+    @Override
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public int freeBytes() {
+        synchronized (arena) {
+            return freeBytes;
         }
     }
 
@@ -257,6 +459,10 @@ public class PoolChunk<T> implements PoolChunkMetric {
     private long allocateRun(int normCapacity){
         //11-
         int d = maxOrder-(log2(normCapacity) - pageShifts);
+        if (d < 0) {
+            // Chunk 大小可变时,请求可能大于当前 Chunk
+            return -1;
+        }
         int id =allocateNode(d);
         if(id<0){
             return id;
@@ -271,7 +477,7 @@ public class PoolChunk<T> implements PoolChunkMetric {
      * 3 ==》11 最终结果为1
      * 4 ==> 100 最终结果为2
      * */
-    private static int log2(int val) {
+    static int log2(int val) {
         return INTEGER_SIZE_MINUS_ONE - Integer.numberOfLeadingZeros(val);
     }
 
@@ -311,8 +517,24 @@ public class PoolChunk<T> implements PoolChunkMetric {
             } else {
                 subpage.init(head, normCapacity);
             }
-            return subpage.allocate();
+            return subpage.concurrent ? subpage.firstHandle() : subpage.allocate();
+        }
+    }
+
+    /**
+     * 由内存块在 Chunk 中的偏移和规格化容量还原 {@link #allocate(int)} 返回的 handle,
+     * 用于释放 {@link PoolHandle} 分配的内存块
+     * */
+    long handleAt(int runOffset, int normCapacity) {
+        if (normCapacity < pageSize) {
+            // Subpage 所在的 Page 为叶子节点
+            int memoryMapIdx = maxSubpageAllocs + (runOffset >>> pageShifts);
+            int bitmapIdx = (runOffset & pageSize - 1) / normCapacity;
+            return 0x4000000000000000L | (long) bitmapIdx << 32 | memoryMapIdx;
         }
+        int log2RunLength = log2(normCapacity);
+        int d = log2ChunkSize - log2RunLength;
+        return (1 << d) + (runOffset >>> log2RunLength);
     }
 
     //
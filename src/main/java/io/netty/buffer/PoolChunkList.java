@@ -1,7 +1,9 @@
 package io.netty.buffer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import static java.lang.Math.max;
 
@@ -21,11 +23,19 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
     /**Chunk最大内存利用率*/
     private final int maxUsage;
 
-    /**每个Chunk最大可分配的容量*/
+    /**每个Chunk最大可分配的容量,按 chunkSize 计算,Chunk 大小可变时较小的 Chunk 通过分桶过滤*/
     private final int maxCapacity;
 
     private PoolChunk<T> head;
 
+    /**
+     * 按最大空闲 run 分桶的 Chunk 链表头
+     *
+     * 桶 0 为没有空闲 Page 的 Chunk,桶 b 中 Chunk 的最大空闲 run 在 [2^(b-1), 2^b) 个 Page 之间,
+     * 分配时从能满足请求的最小的桶开始查找,不会尝试放不下的 Chunk
+     */
+    private final PoolChunk<T>[] buckets;
+
     /**前一个PoolChunkList对象*/
     private PoolChunkList<T> prevList;
 
@@ -37,6 +47,12 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
         this.maxUsage = maxUsage;
         // 计算 maxUsage 属性
         maxCapacity = calculateMaxCapacity(minUsage, chunkSize);
+        buckets = newBucketArray(PoolChunk.log2(chunkSize) - arena.pageShifts + 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PoolChunk<T>[] newBucketArray(int size) {
+        return new PoolChunk[size];
     }
 
     /**保证最小值为1*/
@@ -66,31 +82,252 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
     }
 
 
-    boolean allocate(PooledByteBuf<T> buf, int reqCapacity, int normCapacity) {
+    boolean allocate(PooledByteBuf<T> buf, int reqCapacity, int normCapacity, PoolThreadCache threadCache) {
         if (head == null || normCapacity > maxCapacity) {
             // Either this PoolChunkList is empty or the requested capacity is larger then the capacity which can
             // be handled by the PoolChunks that are contained in this PoolChunkList.
             return false;
         }
 
-        for (PoolChunk<T> cur = head;;) {
-            long handle = cur.allocate(normCapacity);
-            if (handle < 0) {
-                cur = cur.next;
-                if (cur == null) {
-                    return false;
+        // Subpage 需要一个空闲的 Page
+        final int runSize = Math.max(normCapacity, arena.pageSize);
+        for (int b = bucketIdx(runSize); b < buckets.length; b ++) {
+            for (PoolChunk<T> cur = buckets[b]; cur != null; cur = cur.bucketNext) {
+                // 只有最小的桶中会有放不下的 Chunk
+                if (cur.maxFreeRun() >= runSize && allocate(cur, buf, reqCapacity, normCapacity, threadCache)) {
+                    return true;
                 }
-            } else {
-                cur.initBuf(buf, handle, reqCapacity);
-                if (cur.usage() >= maxUsage) {
-                    remove(cur);
-                    nextList.add(cur);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在指定的 Chunk 中分配,内存利用率超过 maxUsage 时移动到下一个 PoolChunkList
+     * */
+    boolean allocate(PoolChunk<T> chunk, PooledByteBuf<T> buf, int reqCapacity, int normCapacity,
+                     PoolThreadCache threadCache) {
+        assert chunk.parent == this;
+        long handle = chunk.allocate(normCapacity);
+        if (handle < 0) {
+            return false;
+        }
+        chunk.initBuf(buf, handle, reqCapacity, threadCache);
+        arena.checkSpareChunkWatermark(chunk);
+        if (chunk.usage() >= maxUsage) {
+            remove(chunk);
+            nextList.add(chunk);
+        } else {
+            updateBucket(chunk);
+        }
+        return true;
+    }
+
+    /**
+     * 能放下 normCapacity 且最大空闲 run 最小的 Chunk,相同时取内存利用率高的
+     * 只需查找能放下请求的最小的非空桶
+     * @return null 表示没有能放下的 Chunk
+     * */
+    PoolChunk<T> bestFit(int normCapacity) {
+        if (head == null || normCapacity > maxCapacity) {
+            return null;
+        }
+        final int runSize = Math.max(normCapacity, arena.pageSize);
+        for (int b = bucketIdx(runSize); b < buckets.length; b ++) {
+            PoolChunk<T> best = null;
+            for (PoolChunk<T> cur = buckets[b]; cur != null; cur = cur.bucketNext) {
+                if (cur.maxFreeRun() >= runSize && (best == null || isBetterFit(cur, best))) {
+                    best = cur;
                 }
-                return true;
             }
+            if (best != null) {
+                return best;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在 chunk 中原地扩容 buf,成功后按新的使用率调整 chunk 所在的 PoolChunkList
+     * */
+    boolean expand(PoolChunk<T> chunk, PooledByteBuf<T> buf, int newCapacity, int normCapacity) {
+        assert chunk.parent == this;
+        long handle = chunk.expand(buf.handle, normCapacity);
+        if (handle < 0) {
+            return false;
+        }
+        buf.initExpanded(handle, newCapacity, normCapacity);
+        arena.checkSpareChunkWatermark(chunk);
+        if (chunk.usage() >= maxUsage) {
+            remove(chunk);
+            nextList.add(chunk);
+        } else {
+            updateBucket(chunk);
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<PoolChunkMetric> iterator() {
+        synchronized (arena) {
+            if (head == null) {
+                return EMPTY_METRICS;
+            }
+            List<PoolChunkMetric> metrics = new ArrayList<PoolChunkMetric>();
+            for (PoolChunk<T> cur = head; cur != null; cur = cur.next) {
+                metrics.add(cur);
+            }
+            return metrics.iterator();
+        }
+    }
+
+    /**a 是否比 b 更适合:最大空闲 run 更小,相同时剩余字节更少*/
+    static boolean isBetterFit(PoolChunk<?> a, PoolChunk<?> b) {
+        int runA = a.maxFreeRun();
+        int runB = b.maxFreeRun();
+        return runA < runB || runA == runB && a.freeBytes < b.freeBytes;
+    }
+
+    /**
+     * 释放Chunk中的内存,内存利用率低于minUsage时移动到前一个PoolChunkList
+     * @return false 表示Chunk已经完全空闲且没有前一个PoolChunkList,需要销毁
+     * */
+    boolean free(PoolChunk<T> chunk, long handle) {
+        chunk.free(handle);
+        if (chunk.usage() < minUsage) {
+            remove(chunk);
+            // Move the PoolChunk down the PoolChunkList linked-list.
+            return move0(chunk);
+        }
+        updateBucket(chunk);
+        return true;
+    }
+
+    /**
+     * 移除完全空闲的 Chunk 放入 empty 中,由调用者销毁
+     * */
+    void removeEmptyChunks(List<PoolChunk<T>> empty) {
+        PoolChunk<T> cur = head;
+        while (cur != null) {
+            PoolChunk<T> next = cur.next;
+            if (cur.freeBytes == cur.chunkSize()) {
+                remove(cur);
+                empty.add(cur);
+            }
+            cur = next;
+        }
+    }
+
+    private boolean move(PoolChunk<T> chunk) {
+        assert chunk.usage() < maxUsage;
+
+        if (chunk.usage() < minUsage) {
+            // Move the PoolChunk down the PoolChunkList linked-list.
+            return move0(chunk);
         }
+
+        // PoolChunk fits into this PoolChunkList, adding it here.
+        add0(chunk);
+        return true;
+    }
+
+    /**
+     * Moves the {@link PoolChunk} down the {@link PoolChunkList} linked-list so it will end up in the right
+     * {@link PoolChunkList} that has the correct minUsage / maxUsage in respect to {@link PoolChunk#usage()}.
+     */
+    private boolean move0(PoolChunk<T> chunk) {
+        if (prevList == null) {
+            // There is no previous PoolChunkList so return false which result in having the PoolChunk destroyed and
+            // all memory associated with the PoolChunk will be released.
+            assert chunk.usage() == 0;
+            return false;
+        }
+        return prevList.move(chunk);
     }
 
+    /**
+     * 添加Chunk,内存利用率超过maxUsage时交给下一个PoolChunkList
+     * */
+    void add(PoolChunk<T> chunk) {
+        if (chunk.usage() >= maxUsage) {
+            nextList.add(chunk);
+            return;
+        }
+        add0(chunk);
+    }
 
+    /**将Chunk添加到链表头部*/
+    void add0(PoolChunk<T> chunk) {
+        chunk.parent = this;
+        if (head == null) {
+            head = chunk;
+            chunk.prev = null;
+            chunk.next = null;
+        } else {
+            chunk.prev = null;
+            chunk.next = head;
+            head.prev = chunk;
+            head = chunk;
+        }
+        addToBucket(chunk, bucketIdx(chunk.maxFreeRun()));
+    }
+
+    private void remove(PoolChunk<T> cur) {
+        if (cur == head) {
+            head = cur.next;
+            if (head != null) {
+                head.prev = null;
+            }
+        } else {
+            PoolChunk<T> next = cur.next;
+            cur.prev.next = next;
+            if (next != null) {
+                next.prev = cur.prev;
+            }
+        }
+        removeFromBucket(cur);
+    }
+
+    /**最大空闲 run 对应的桶*/
+    private int bucketIdx(int maxFreeRun) {
+        int pages = maxFreeRun >>> arena.pageShifts;
+        return pages == 0 ? 0 : PoolChunk.log2(pages) + 1;
+    }
+
+    /**分配或释放后最大空闲 run 可能变化,移动到对应的桶*/
+    private void updateBucket(PoolChunk<T> chunk) {
+        int bucket = bucketIdx(chunk.maxFreeRun());
+        if (bucket != chunk.bucket) {
+            removeFromBucket(chunk);
+            addToBucket(chunk, bucket);
+        }
+    }
+
+    private void addToBucket(PoolChunk<T> chunk, int bucket) {
+        PoolChunk<T> first = buckets[bucket];
+        chunk.bucket = bucket;
+        chunk.bucketPrev = null;
+        chunk.bucketNext = first;
+        if (first != null) {
+            first.bucketPrev = chunk;
+        }
+        buckets[bucket] = chunk;
+    }
+
+    private void removeFromBucket(PoolChunk<T> chunk) {
+        PoolChunk<T> prev = chunk.bucketPrev;
+        PoolChunk<T> next = chunk.bucketNext;
+        if (prev == null) {
+            buckets[chunk.bucket] = next;
+        } else {
+            prev.bucketNext = next;
+        }
+        if (next != null) {
+            next.bucketPrev = prev;
+        }
+        chunk.bucketPrev = null;
+        chunk.bucketNext = null;
+        chunk.bucket = -1;
+    }
 
 }
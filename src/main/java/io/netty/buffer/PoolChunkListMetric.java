@@ -1,4 +1,4 @@
 package io.netty.buffer;
 
-public interface PoolChunkListMetric extends Iterable<PoolChunkList> {
+public interface PoolChunkListMetric extends Iterable<PoolChunkMetric> {
 }
@@ -0,0 +1,156 @@
+package io.netty.buffer;
+
+import io.netty.util.internal.MathUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * 同一个 PooledByteBufAllocator 中同类型(Heap/Direct)的 PoolArena 共享的空闲 Chunk 池
+ *
+ * PoolArena 中完全空闲的 Chunk 不直接销毁,而是放入池中,任意 PoolArena 需要新建 Chunk 时优先从池中取出,
+ * 负载在绑定不同 Arena 的线程之间转移时,可以减少 Chunk 的反复创建和销毁。
+ *
+ * 按线程分为多个带锁的分段,放入和取出优先使用当前线程的分段,减少锁竞争。
+ * 每个分段中后放入的 Chunk 先取出,空闲超过 idleNanos 的 Chunk 在访问该分段或 {@link #trim()} 时销毁。
+ */
+final class PoolChunkPool<T> {
+
+    private final Stripe<T>[] stripes;
+
+    private final int stripeMask;
+
+    /**每个分段最多保存的 Chunk 数量*/
+    private final int maxChunksPerStripe;
+
+    /**Chunk 最长的空闲时间*/
+    private final long idleNanos;
+
+    @SuppressWarnings("unchecked")
+    PoolChunkPool(int numStripes, int maxChunks, long idleNanos) {
+        numStripes = MathUtil.safeFindNextPositivePowerOfTwo(numStripes);
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < stripes.length; i ++) {
+            stripes[i] = new Stripe<T>();
+        }
+        stripeMask = numStripes - 1;
+        maxChunksPerStripe = Math.max(1, maxChunks / numStripes);
+        this.idleNanos = idleNanos;
+    }
+
+    /**
+     * 放入完全空闲的 Chunk
+     * @return false 表示当前线程的分段已满,需要由调用者销毁
+     * */
+    boolean offer(PoolChunk<T> chunk) {
+        assert chunk.freeBytes == chunk.chunkSize();
+        final long now = System.nanoTime();
+        final Stripe<T> stripe = stripe();
+        final boolean added;
+        synchronized (stripe) {
+            expire(stripe, now);
+            added = stripe.size() < maxChunksPerStripe && stripe.offer(new Entry<T>(chunk, now));
+        }
+        destroyExpired(stripe);
+        return added;
+    }
+
+    /**
+     * 取出一个空闲的 Chunk 交给 arena,当前线程的分段为空时依次查找其他分段
+     * 不属于 arena 的 Chunk 使用其内存重新创建,属于 arena 的直接复用
+     * @return null 表示池中没有 Chunk
+     * */
+    PoolChunk<T> poll(PoolArena<T> arena) {
+        final long now = System.nanoTime();
+        final int start = stripeIdx();
+        for (int i = 0; i < stripes.length; i ++) {
+            final Stripe<T> stripe = stripes[start + i & stripeMask];
+            final Entry<T> entry;
+            synchronized (stripe) {
+                expire(stripe, now);
+                entry = stripe.pollLast();
+            }
+            destroyExpired(stripe);
+            if (entry != null) {
+                return arena.adoptChunk(entry.chunk);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 销毁所有空闲超时的 Chunk
+     * @return 释放的字节数
+     * */
+    long trim() {
+        final long now = System.nanoTime();
+        long reclaimed = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                expire(stripe, now);
+            }
+            reclaimed += destroyExpired(stripe);
+        }
+        return reclaimed;
+    }
+
+    /**池中 Chunk 的数量*/
+    int size() {
+        int size = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**将空闲超时的 Chunk 移到 expired 中,在分段的锁内调用,最早放入的 Chunk 在队首*/
+    private void expire(Stripe<T> stripe, long now) {
+        Entry<T> entry;
+        while ((entry = stripe.peekFirst()) != null && now - entry.releaseTime >= idleNanos) {
+            stripe.pollFirst();
+            stripe.expired.add(entry.chunk);
+        }
+    }
+
+    /**在锁外销毁空闲超时的 Chunk,返回释放的字节数*/
+    private static <T> long destroyExpired(Stripe<T> stripe) {
+        long reclaimed = 0;
+        for (;;) {
+            final PoolChunk<T> chunk;
+            synchronized (stripe) {
+                chunk = stripe.expired.poll();
+            }
+            if (chunk == null) {
+                return reclaimed;
+            }
+            chunk.arena.destroyChunk(chunk);
+            reclaimed += chunk.chunkSize();
+        }
+    }
+
+    private Stripe<T> stripe() {
+        return stripes[stripeIdx()];
+    }
+
+    private int stripeIdx() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Stripe<T> extends ArrayDeque<Entry<T>> {
+        /**已超时、等待在锁外销毁的 Chunk*/
+        final ArrayDeque<PoolChunk<T>> expired = new ArrayDeque<PoolChunk<T>>();
+    }
+
+    private static final class Entry<T> {
+        final PoolChunk<T> chunk;
+        /**放入池中的时间*/
+        final long releaseTime;
+
+        Entry(PoolChunk<T> chunk, long releaseTime) {
+            this.chunk = chunk;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
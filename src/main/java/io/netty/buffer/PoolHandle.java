@@ -0,0 +1,283 @@
+package io.netty.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 不创建 {@link PooledByteBuf} 对象的池化内存块,以 long 表示,由 {@link PooledByteBufAllocator#allocateHeapHandle(int)}
+ * 和 {@link PooledByteBufAllocator#allocateDirectHandle(int)} 分配,{@link #release(long)} 释放
+ *
+ * handle 的布局:
+ * bit 0 ~ 29    内存块在 Chunk 中的偏移
+ * bit 30 ~ 38   规格下标 sizeIdx,{@link #HUGE_SIZE_IDX} 表示非池化的 Huge Chunk
+ * bit 39 ~ 62   Chunk 的注册 id,Arena 由 Chunk 得到
+ *
+ * 与 ByteBuf 不同,handle 没有引用计数和读写索引,读写按绝对下标进行,多字节数值为大端序;
+ * 释放后继续使用或重复释放的结果未定义。
+ */
+public final class PoolHandle {
+
+    private static final int OFFSET_BITS = 30;
+    private static final int SIZE_IDX_BITS = 9;
+    private static final int CHUNK_ID_BITS = 24;
+
+    private static final int SIZE_IDX_SHIFT = OFFSET_BITS;
+    private static final int CHUNK_ID_SHIFT = OFFSET_BITS + SIZE_IDX_BITS;
+
+    private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+    private static final int SIZE_IDX_MASK = (1 << SIZE_IDX_BITS) - 1;
+
+    /**非池化 Chunk 的规格下标*/
+    static final int HUGE_SIZE_IDX = SIZE_IDX_MASK;
+
+    private static final int MAX_CHUNK_ID = (1 << CHUNK_ID_BITS) - 1;
+
+    /**无效的 handle*/
+    public static final long INVALID = -1;
+
+    /**
+     * 注册的 Chunk,下标为注册 id
+     * 扩容时复制后整体替换,元素在锁内写入,读取时不加锁
+     */
+    private static volatile PoolChunk<?>[] chunks = new PoolChunk[64];
+
+    private static final Object REGISTRY_LOCK = new Object();
+
+    /**已回收可复用的 id,在锁内读写*/
+    private static int[] freeIds = new int[16];
+    private static int numFreeIds;
+    private static int nextId;
+
+    private PoolHandle() {
+    }
+
+    /**
+     * 将 buf 中的内存块编码为 handle,Chunk 第一次分配 handle 时注册
+     * */
+    static long encode(PooledByteBuf<?> buf) {
+        final PoolChunk<?> chunk = buf.chunk;
+        final int sizeIdx = chunk.unpooled ? HUGE_SIZE_IDX : chunk.arena.sizeClasses.size2SizeIdx(buf.maxLength);
+        assert sizeIdx <= HUGE_SIZE_IDX;
+        return (long) register(chunk) << CHUNK_ID_SHIFT | (long) sizeIdx << SIZE_IDX_SHIFT | buf.offset - chunk.offset;
+    }
+
+    private static int register(PoolChunk<?> chunk) {
+        int id = chunk.registryId;
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (REGISTRY_LOCK) {
+            id = chunk.registryId;
+            if (id >= 0) {
+                return id;
+            }
+            if (numFreeIds > 0) {
+                id = freeIds[-- numFreeIds];
+            } else if (nextId <= MAX_CHUNK_ID) {
+                id = nextId ++;
+            } else {
+                throw new IllegalStateException("too many chunks with live handles: " + nextId);
+            }
+            PoolChunk<?>[] registered = chunks;
+            if (id >= registered.length) {
+                registered = Arrays.copyOf(registered, registered.length << 1);
+            }
+            registered[id] = chunk;
+            chunks = registered;
+            chunk.registryId = id;
+            return id;
+        }
+    }
+
+    /**
+     * Chunk 销毁或其内存被其他 Arena 复用时注销,此时 Chunk 中没有未释放的 handle
+     * */
+    static void unregister(PoolChunk<?> chunk) {
+        if (chunk.registryId < 0) {
+            return;
+        }
+        synchronized (REGISTRY_LOCK) {
+            final int id = chunk.registryId;
+            if (id < 0) {
+                return;
+            }
+            chunks[id] = null;
+            chunk.registryId = -1;
+            if (numFreeIds == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, numFreeIds << 1);
+            }
+            freeIds[numFreeIds ++] = id;
+        }
+    }
+
+    /**
+     * 释放 handle 对应的内存块,优先归还到当前线程的缓存
+     * */
+    public static void release(long handle) {
+        release(chunk(handle), handle);
+    }
+
+    private static <T> void release(PoolChunk<T> chunk, long handle) {
+        final PoolArena<T> arena = chunk.arena;
+        final int sizeIdx = sizeIdx(handle);
+        if (sizeIdx == HUGE_SIZE_IDX) {
+            arena.free(chunk, 0, chunk.chunkSize(), null);
+            return;
+        }
+        final int normCapacity = arena.sizeClasses.sizeIdx2size(sizeIdx);
+        // 只能归还到使用同一个 Arena 的缓存
+        PoolThreadCache cache = arena.parent.threadCacheIfExists();
+        if (cache != null && cache.heapArena != arena && cache.directArena != arena) {
+            cache = null;
+        }
+        arena.free(chunk, chunk.handleAt(runOffset(handle), normCapacity), normCapacity, cache);
+    }
+
+    /**内存块的容量,即规格化后的容量*/
+    public static int capacity(long handle) {
+        return capacity(chunk(handle), handle);
+    }
+
+    /**是否为 Direct 内存*/
+    public static boolean isDirect(long handle) {
+        return chunk(handle).arena.isDirect();
+    }
+
+    public static byte getByte(long handle, int index) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 1);
+        final Object memory = chunk.memory;
+        return memory instanceof byte[] ? ((byte[]) memory)[idx] : ((ByteBuffer) memory).get(idx);
+    }
+
+    public static void setByte(long handle, int index, int value) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 1);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            ((byte[]) memory)[idx] = (byte) value;
+        } else {
+            ((ByteBuffer) memory).put(idx, (byte) value);
+        }
+    }
+
+    public static short getShort(long handle, int index) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 2);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            final byte[] array = (byte[]) memory;
+            return (short) (array[idx] << 8 | array[idx + 1] & 0xFF);
+        }
+        return ((ByteBuffer) memory).getShort(idx);
+    }
+
+    public static void setShort(long handle, int index, int value) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 2);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            final byte[] array = (byte[]) memory;
+            array[idx] = (byte) (value >>> 8);
+            array[idx + 1] = (byte) value;
+        } else {
+            ((ByteBuffer) memory).putShort(idx, (short) value);
+        }
+    }
+
+    public static int getInt(long handle, int index) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 4);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            return getInt((byte[]) memory, idx);
+        }
+        return ((ByteBuffer) memory).getInt(idx);
+    }
+
+    public static void setInt(long handle, int index, int value) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 4);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            setInt((byte[]) memory, idx, value);
+        } else {
+            ((ByteBuffer) memory).putInt(idx, value);
+        }
+    }
+
+    public static long getLong(long handle, int index) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 8);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            final byte[] array = (byte[]) memory;
+            return (long) getInt(array, idx) << 32 | getInt(array, idx + 4) & 0xFFFFFFFFL;
+        }
+        return ((ByteBuffer) memory).getLong(idx);
+    }
+
+    public static void setLong(long handle, int index, long value) {
+        final PoolChunk<?> chunk = chunk(handle);
+        final int idx = memoryIndex(chunk, handle, index, 8);
+        final Object memory = chunk.memory;
+        if (memory instanceof byte[]) {
+            final byte[] array = (byte[]) memory;
+            setInt(array, idx, (int) (value >>> 32));
+            setInt(array, idx + 4, (int) value);
+        } else {
+            ((ByteBuffer) memory).putLong(idx, value);
+        }
+    }
+
+    private static int getInt(byte[] array, int idx) {
+        return (array[idx] & 0xFF) << 24 |
+                (array[idx + 1] & 0xFF) << 16 |
+                (array[idx + 2] & 0xFF) << 8 |
+                array[idx + 3] & 0xFF;
+    }
+
+    private static void setInt(byte[] array, int idx, int value) {
+        array[idx] = (byte) (value >>> 24);
+        array[idx + 1] = (byte) (value >>> 16);
+        array[idx + 2] = (byte) (value >>> 8);
+        array[idx + 3] = (byte) value;
+    }
+
+    /**
+     * 检查 [index, index + width) 在内存块内,返回在 Chunk 的 memory 中的下标
+     * */
+    private static int memoryIndex(PoolChunk<?> chunk, long handle, int index, int width) {
+        if (index < 0 || index > capacity(chunk, handle) - width) {
+            throw new IndexOutOfBoundsException(
+                    "index: " + index + ", length: " + width + " (capacity: " + capacity(chunk, handle) + ')');
+        }
+        return chunk.offset + runOffset(handle) + index;
+    }
+
+    private static int capacity(PoolChunk<?> chunk, long handle) {
+        final int sizeIdx = sizeIdx(handle);
+        return sizeIdx == HUGE_SIZE_IDX ? chunk.chunkSize() : chunk.arena.sizeClasses.sizeIdx2size(sizeIdx);
+    }
+
+    private static PoolChunk<?> chunk(long handle) {
+        if (handle < 0) {
+            throw new IllegalArgumentException("invalid handle: " + handle);
+        }
+        final PoolChunk<?>[] registered = chunks;
+        final int id = (int) (handle >>> CHUNK_ID_SHIFT);
+        final PoolChunk<?> chunk = id < registered.length ? registered[id] : null;
+        if (chunk == null) {
+            throw new IllegalArgumentException("invalid handle: " + handle);
+        }
+        return chunk;
+    }
+
+    private static int sizeIdx(long handle) {
+        return (int) (handle >>> SIZE_IDX_SHIFT) & SIZE_IDX_MASK;
+    }
+
+    private static int runOffset(long handle) {
+        return (int) handle & OFFSET_MASK;
+    }
+}
@@ -0,0 +1,158 @@
+package io.netty.buffer;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最近释放的 Huge 内存块(非池化 Chunk)的缓存,每个 PoolArena 一个
+ *
+ * 开启缓存后 Huge 请求的容量按规格向上取整,每次翻倍之间 8 个规格,最多浪费 1/8,
+ * 相同规格的 Chunk 放在同一个桶中,分配时只复用同一规格的 Chunk。
+ *
+ * 缓存的总字节数不超过 maxBytes,超出时按 LRU 销毁最早放入的 Chunk。
+ */
+final class PoolHugeChunkCache<T> {
+
+    /**每次翻倍之间规格数量的 log2*/
+    private static final int LOG2_SIZE_STEPS = 3;
+
+    private final PoolArena<T> arena;
+
+    /**缓存的最大字节数*/
+    private final long maxBytes;
+
+    /**规格化容量 => 该规格的 Chunk,后放入的在队尾*/
+    private final Map<Integer, ArrayDeque<PoolChunk<T>>> buckets = new HashMap<Integer, ArrayDeque<PoolChunk<T>>>();
+
+    /**所有缓存的 Chunk,按放入顺序排列,队首最早放入*/
+    private final ArrayDeque<PoolChunk<T>> lru = new ArrayDeque<PoolChunk<T>>();
+
+    /**缓存的字节数,在锁内修改*/
+    private long cachedBytes;
+
+    private final LongCounter hits = PlatformDependent.newLongCounter();
+    private final LongCounter misses = PlatformDependent.newLongCounter();
+    private final LongCounter evictions = PlatformDependent.newLongCounter();
+
+    PoolHugeChunkCache(PoolArena<T> arena, long maxBytes) {
+        this.arena = arena;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Huge 请求的规格化容量,溢出时不做规格化
+     * */
+    static int normalizeCapacity(int reqCapacity) {
+        int shift = Math.max(0, PoolChunk.log2(reqCapacity - 1) - LOG2_SIZE_STEPS);
+        int mask = (1 << shift) - 1;
+        int normCapacity = reqCapacity + mask & ~mask;
+        return normCapacity > 0 ? normCapacity : reqCapacity;
+    }
+
+    /**
+     * 取出与请求同一规格的最近放入的 Chunk
+     * @return null 表示没有该规格的 Chunk,需要新建容量为 {@link #normalizeCapacity(int)} 的 Chunk
+     * */
+    PoolChunk<T> poll(int reqCapacity) {
+        PoolChunk<T> chunk = null;
+        synchronized (this) {
+            ArrayDeque<PoolChunk<T>> bucket = buckets.get(normalizeCapacity(reqCapacity));
+            if (bucket != null) {
+                chunk = bucket.pollLast();
+            }
+            if (chunk != null) {
+                lru.removeLastOccurrence(chunk);
+                cachedBytes -= chunk.chunkSize();
+            }
+        }
+        if (chunk == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return chunk;
+    }
+
+    /**
+     * 放入释放的 Huge Chunk,超出 maxBytes 时在锁外销毁最早放入的 Chunk
+     * @return false 表示 Chunk 超过 maxBytes 不能缓存,需要由调用者销毁
+     * */
+    boolean offer(PoolChunk<T> chunk) {
+        assert chunk.unpooled;
+        final int capacity = chunk.chunkSize();
+        if (capacity > maxBytes) {
+            return false;
+        }
+        List<PoolChunk<T>> evicted = null;
+        synchronized (this) {
+            ArrayDeque<PoolChunk<T>> bucket = buckets.get(capacity);
+            if (bucket == null) {
+                bucket = new ArrayDeque<PoolChunk<T>>();
+                buckets.put(capacity, bucket);
+            }
+            bucket.offer(chunk);
+            lru.offer(chunk);
+            cachedBytes += capacity;
+
+            while (cachedBytes > maxBytes) {
+                PoolChunk<T> eldest = lru.poll();
+                // 同一规格中最早放入的 Chunk 在桶的队首
+                buckets.get(eldest.chunkSize()).removeFirstOccurrence(eldest);
+                cachedBytes -= eldest.chunkSize();
+                if (evicted == null) {
+                    evicted = new ArrayList<PoolChunk<T>>(2);
+                }
+                evicted.add(eldest);
+            }
+        }
+        if (evicted != null) {
+            evictions.add(evicted.size());
+            for (PoolChunk<T> c : evicted) {
+                arena.destroyChunk(c);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 销毁所有缓存的 Chunk
+     * @return 释放的字节数
+     * */
+    long trim() {
+        List<PoolChunk<T>> chunks;
+        long bytes;
+        synchronized (this) {
+            chunks = new ArrayList<PoolChunk<T>>(lru);
+            bytes = cachedBytes;
+            lru.clear();
+            buckets.clear();
+            cachedBytes = 0;
+        }
+        for (PoolChunk<T> chunk : chunks) {
+            arena.destroyChunk(chunk);
+        }
+        return bytes;
+    }
+
+    long numHits() {
+        return hits.value();
+    }
+
+    long numMisses() {
+        return misses.value();
+    }
+
+    long numEvictions() {
+        return evictions.value();
+    }
+
+    synchronized long cachedBytes() {
+        return cachedBytes;
+    }
+}
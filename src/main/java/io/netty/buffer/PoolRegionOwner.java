@@ -0,0 +1,14 @@
+package io.netty.buffer;
+
+/**
+ * 从 PoolChunk 分配区域后自行管理其中内存的分配器,区域中的 ByteBuf 释放时通知
+ * 见 {@link PooledByteBuf#initRegion}
+ */
+interface PoolRegionOwner {
+
+    /**
+     * 区域中 [offset, offset + maxLength) 的内存已被 ByteBuf 释放
+     * @param offset 在 chunk 的 memory 中的偏移
+     * */
+    void free(PoolChunk<?> chunk, int offset, int maxLength);
+}
@@ -0,0 +1,311 @@
+package io.netty.buffer;
+
+/**
+ * 按 run 分配内存的 Chunk,作为满二叉树(buddy)的替代
+ *
+ * run 是若干个连续的 Page,分配时只占用请求所需的 Page 数量,不再向上取整到 2 的幂次,
+ * 如 40KB 只占用 5 个 Page,而 buddy 需要 8 个 Page。
+ *
+ * 空闲的 run 按 Page 数量所属的 Normal 规格放入不同的 {@link IntPriorityQueue},
+ * 释放时与前后相邻的空闲 run 合并。
+ *
+ * run 的 handle(低 32 位):
+ * +-------------------+-------------------+
+ * | runOffset (15bit) | pages (15bit)     |
+ * +-------------------+-------------------+
+ * runOffset 为 run 的第一个 Page 在 Chunk 中的序号,pages 为 run 的 Page 数量。
+ * Subpage 的 handle 与 buddy 相同,高 32 位为 bitmapIdx,低 32 位为其所在 run 的 handle。
+ */
+final class PoolRunChunk<T> extends PoolChunk<T> {
+
+    private static final int RUN_OFFSET_SHIFT = 15;
+    private static final int RUN_PAGES_MASK = (1 << RUN_OFFSET_SHIFT) - 1;
+
+    /**Chunk 中 Page 的数量*/
+    private final int chunkPages;
+
+    /**
+     * 空闲 run 的优先队列
+     *
+     * 下标为 run 的 Page 数量向下取整后的 Normal 规格序号,
+     * 所以 runsAvail[i] 中的 run 都能满足 Normal 规格 i 的请求
+     */
+    private final IntPriorityQueue[] runsAvail;
+
+    /**
+     * 空闲 run 的首尾 Page => run 的 handle,0 表示不是空闲 run 的首尾
+     *
+     * 释放时通过它找到前后相邻的空闲 run 进行合并
+     */
+    final int[] runsAvailMap;
+
+    /**PoolSubpage 数组,下标为其所在 Page 的序号*/
+    private final PoolSubpage<T>[] subpages;
+
+    PoolRunChunk(PoolArena<T> arena, T memory, int pageSize, int pageShifts, int chunkSize, int offset) {
+        super(arena, memory, pageSize, pageShifts, chunkSize, offset);
+        chunkPages = chunkSize >>> pageShifts;
+        assert chunkPages <= RUN_PAGES_MASK : "chunkPages should be <= " + RUN_PAGES_MASK + ", but is: " + chunkPages;
+
+        int numQueues = arena.sizeClasses.numNormalSizes();
+        runsAvail = new IntPriorityQueue[numQueues];
+        for (int i = 0; i < numQueues; i ++) {
+            runsAvail[i] = new IntPriorityQueue();
+        }
+        runsAvailMap = new int[chunkPages];
+        subpages = newSubpageArray(chunkPages);
+
+        // 初始时整个 Chunk 是一个空闲 run
+        insertAvailRun(toRunHandle(0, chunkPages));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PoolSubpage<T>[] newSubpageArray(int size) {
+        return new PoolSubpage[size];
+    }
+
+    @Override
+    long allocate(int normCapacity) {
+        if (normCapacity >= arena.pageSize) {
+            return allocateRun(normCapacity >>> arena.pageShifts);
+        } else {
+            return allocateSubpage(normCapacity);
+        }
+    }
+
+    /**
+     * 分配 pages 个连续的 Page
+     * 从能满足请求的最小规格的队列开始查找,取出地址最低的 run,多余的 Page 拆分后重新放回队列
+     * */
+    private long allocateRun(int pages) {
+        int queueIdx = arena.sizeClasses.pages2NormalIdx(pages);
+        for (; queueIdx < runsAvail.length; queueIdx ++) {
+            if (!runsAvail[queueIdx].isEmpty()) {
+                break;
+            }
+        }
+        if (queueIdx == runsAvail.length) {
+            return -1;
+        }
+
+        int handle = runsAvail[queueIdx].poll();
+        assert runPages(handle) >= pages;
+        removeAvailRunMap(handle);
+
+        int runOffset = runOffset(handle);
+        int remPages = runPages(handle) - pages;
+        if (remPages > 0) {
+            // 拆分,剩余部分作为新的空闲 run
+            insertAvailRun(toRunHandle(runOffset + pages, remPages));
+        }
+
+        freeBytes -= pages << arena.pageShifts;
+        return toRunHandle(runOffset, pages);
+    }
+
+    private long allocateSubpage(int normCapacity) {
+        PoolSubpage<T> head = arena.findSubpagePoolHead(normCapacity);
+        synchronized (head) {
+            long runHandle = allocateRun(1);
+            if (runHandle < 0) {
+                return -1;
+            }
+
+            int runOffset = runOffset((int) runHandle);
+            PoolSubpage<T> subpage = subpages[runOffset];
+            if (subpage == null) {
+                subpage = new PoolSubpage<T>(head, this, (int) runHandle, runOffset << arena.pageShifts, arena.pageSize,
+                        normCapacity);
+                subpages[runOffset] = subpage;
+            } else {
+                subpage.init(head, normCapacity);
+            }
+            return subpage.concurrent ? subpage.firstHandle() : subpage.allocate();
+        }
+    }
+
+    @Override
+    void initBuf(PooledByteBuf<T> buf, long handle, int reqCapacity, PoolThreadCache threadCache) {
+        int bitmapIdx = bitmapIdx(handle);
+        if (bitmapIdx == 0) {
+            int runHandle = memoryMapIdx(handle);
+            buf.init(this, handle, (runOffset(runHandle) << arena.pageShifts) + offset, reqCapacity,
+                    runPages(runHandle) << arena.pageShifts, threadCache);
+        } else {
+            initBufWithSubpage(buf, handle, reqCapacity, threadCache);
+        }
+    }
+
+    @Override
+    void initBufWithSubpage(PooledByteBuf<T> buf, long handle, int reqCapacity, PoolThreadCache threadCache) {
+        int bitmapIdx = bitmapIdx(handle);
+        assert bitmapIdx != 0;
+
+        int runOffset = runOffset(memoryMapIdx(handle));
+        PoolSubpage<T> subpage = subpages[runOffset];
+        assert subpage.doNotDestroy;
+        assert reqCapacity <= subpage.elemSize;
+
+        buf.init(this, handle,
+                (runOffset << arena.pageShifts) + (bitmapIdx & 0x3FFFFFFF) * subpage.elemSize + offset,
+                reqCapacity, subpage.elemSize, threadCache);
+    }
+
+    /**
+     * 释放 run,并与前后相邻的空闲 run 合并
+     * */
+    @Override
+    void free(long handle) {
+        int runHandle = memoryMapIdx(handle);
+        int bitmapIdx = bitmapIdx(handle);
+
+        if (bitmapIdx != 0) { // free a subpage
+            PoolSubpage<T> subpage = subpages[runOffset(runHandle)];
+            assert subpage != null && subpage.doNotDestroy;
+
+            PoolSubpage<T> head = arena.findSubpagePoolHead(subpage.elemSize);
+            synchronized (head) {
+                if (subpage.free(head, bitmapIdx & 0x3FFFFFFF)) {
+                    return;
+                }
+            }
+        }
+
+        int pages = runPages(runHandle);
+        freeBytes += pages << arena.pageShifts;
+        insertAvailRun(collapseRuns(runHandle));
+    }
+
+    /**
+     * 原地扩容:后一个 Page 是足够大的空闲 run 的开头时,从中拆出需要的 Page 追加到当前 run
+     * */
+    @Override
+    long expand(long handle, int normCapacity) {
+        if (bitmapIdx(handle) != 0) {
+            return -1;
+        }
+        int runHandle = memoryMapIdx(handle);
+        int runOffset = runOffset(runHandle);
+        int pages = runPages(runHandle);
+        int newPages = normCapacity >>> arena.pageShifts;
+        int nextOffset = runOffset + pages;
+        if (newPages <= pages || nextOffset >= chunkPages) {
+            return -1;
+        }
+        int next = runsAvailMap[nextOffset];
+        int needPages = newPages - pages;
+        if (next == 0 || runPages(next) < needPages) {
+            return -1;
+        }
+        assert runOffset(next) == nextOffset;
+
+        removeAvailRun(next);
+        int remPages = runPages(next) - needPages;
+        if (remPages > 0) {
+            insertAvailRun(toRunHandle(nextOffset + needPages, remPages));
+        }
+        freeBytes -= needPages << arena.pageShifts;
+        return toRunHandle(runOffset, newPages);
+    }
+
+    @Override
+    boolean freeSubpageConcurrent(long handle) {
+        int bitmapIdx = bitmapIdx(handle);
+        assert bitmapIdx != 0;
+        PoolSubpage<T> subpage = subpages[runOffset(memoryMapIdx(handle))];
+        assert subpage != null && subpage.concurrent;
+
+        PoolSubpage<T> head = arena.findSubpagePoolHead(subpage.elemSize);
+        return subpage.freeConcurrent(head, bitmapIdx & 0x3FFFFFFF);
+    }
+
+    /**
+     * 最大的非空队列对应的 Normal 规格
+     * 队列中的 run 都不小于该规格,而规格化后更大的请求一定无法满足
+     * */
+    @Override
+    int maxFreeRun() {
+        for (int i = runsAvail.length - 1; i >= 0; i --) {
+            if (!runsAvail[i].isEmpty()) {
+                return arena.sizeClasses.normalIdx2Pages(i) << arena.pageShifts;
+            }
+        }
+        return 0;
+    }
+
+    /**与前后相邻的空闲 run 合并,返回合并后的 run*/
+    private int collapseRuns(int handle) {
+        int runOffset = runOffset(handle);
+        int pages = runPages(handle);
+
+        // 前一个 Page 是空闲 run 的末尾
+        if (runOffset > 0) {
+            int prev = runsAvailMap[runOffset - 1];
+            if (prev != 0) {
+                removeAvailRun(prev);
+                runOffset = runOffset(prev);
+                pages += runPages(prev);
+            }
+        }
+
+        // 后一个 Page 是空闲 run 的开头
+        int nextOffset = runOffset + pages;
+        if (nextOffset < chunkPages) {
+            int next = runsAvailMap[nextOffset];
+            if (next != 0) {
+                removeAvailRun(next);
+                pages += runPages(next);
+            }
+        }
+        return toRunHandle(runOffset, pages);
+    }
+
+    private void insertAvailRun(int handle) {
+        runsAvail[runQueueIdx(runPages(handle))].offer(handle);
+
+        int runOffset = runOffset(handle);
+        runsAvailMap[runOffset] = handle;
+        runsAvailMap[runOffset + runPages(handle) - 1] = handle;
+    }
+
+    private void removeAvailRun(int handle) {
+        runsAvail[runQueueIdx(runPages(handle))].remove(handle);
+        removeAvailRunMap(handle);
+    }
+
+    private void removeAvailRunMap(int handle) {
+        int runOffset = runOffset(handle);
+        runsAvailMap[runOffset] = 0;
+        runsAvailMap[runOffset + runPages(handle) - 1] = 0;
+    }
+
+    /**空闲 run 放入的队列下标,即向下取整后的 Normal 规格序号*/
+    private int runQueueIdx(int pages) {
+        SizeClasses sizeClasses = arena.sizeClasses;
+        int normalIdx = sizeClasses.pages2NormalIdx(pages);
+        return sizeClasses.normalIdx2Pages(normalIdx) > pages ? normalIdx - 1 : normalIdx;
+    }
+
+    @Override
+    long handleAt(int runOffset, int normCapacity) {
+        int page = runOffset >>> arena.pageShifts;
+        if (normCapacity < arena.pageSize) {
+            // Subpage 占用一个 Page 的 run
+            int bitmapIdx = (runOffset & arena.pageSize - 1) / normCapacity;
+            return 0x4000000000000000L | (long) bitmapIdx << 32 | toRunHandle(page, 1);
+        }
+        return toRunHandle(page, normCapacity >>> arena.pageShifts);
+    }
+
+    private static int toRunHandle(int runOffset, int pages) {
+        return runOffset << RUN_OFFSET_SHIFT | pages;
+    }
+
+    static int runOffset(int runHandle) {
+        return runHandle >>> RUN_OFFSET_SHIFT;
+    }
+
+    static int runPages(int runHandle) {
+        return runHandle & RUN_PAGES_MASK;
+    }
+}
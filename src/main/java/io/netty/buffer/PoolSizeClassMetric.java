@@ -0,0 +1,46 @@
+package io.netty.buffer;
+
+/**
+ * 单个内存规格的度量,用于观察内部碎片和线程缓存的命中情况
+ * */
+public interface PoolSizeClassMetric {
+
+    /**内存规格,Tiny/Small/Normal/Huge*/
+    String sizeClass();
+
+    /**规格化后的内存块大小,Huge为0*/
+    int elementSize();
+
+    /**该规格累计的分配次数*/
+    long numAllocations();
+
+    /**该规格累计请求的字节数*/
+    long numRequestedBytes();
+
+    /**该规格累计分配的字节数,即 numAllocations * elementSize*/
+    long numAllocatedBytes();
+
+    /**内部碎片字节数,即分配的字节数与请求的字节数之差*/
+    long internalFragmentationBytes();
+
+    /**内部碎片占分配字节数的百分比*/
+    int internalFragmentation();
+
+    /**Tiny/Small 规格每个Page末尾无法使用的字节数,即 pageSize % elementSize*/
+    int unusedBytesPerPage();
+
+    /**该规格在线程缓存中命中的次数*/
+    long numCacheHits();
+
+    /**该规格在线程缓存中未命中的次数*/
+    long numCacheMisses();
+
+    /**释放时线程缓存已满,或 trim 时被清理出线程缓存的次数*/
+    long numCacheEvictions();
+
+    /**线程缓存命中率的百分比*/
+    int cacheHitRate();
+
+    /**所有线程缓存中该规格当前容量之和*/
+    long cacheCapacity();
+}
@@ -1,7 +1,16 @@
 package io.netty.buffer;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 public class PoolSubpage<T> implements PoolSubpageMetric {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<PoolSubpage> STATE_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(PoolSubpage.class, "state");
+
+    /**并发模式下numAvail为该值表示Subpage已销毁*/
+    private static final int DESTROYED = -1;
 
     final PoolChunk<T> chunk;
     private final int memoryMapIdx;
@@ -9,24 +18,72 @@ public class PoolSubpage<T> implements PoolSubpageMetric {
     private final int pageSize;
     private final long[] bitmap;
 
+    /**
+     * bitmap 的摘要,第 i 位为 1 表示 bitmap[i] 中还有未分配的内存段
+     *
+     * 默认 pageSize 为 8KB 时 bitmap 最多 8 个 long,摘要只需要 1 个 long,查找空闲内存段为常数时间
+     */
+    private final long[] summary;
+
+    /**
+     * 是否为并发模式
+     *
+     * 并发模式下通过 CAS 分配和释放内存段,只有加入或移出 Arena 的 Subpage 双向链表时才需要获取 head 的锁
+     */
+    final boolean concurrent;
+
+    /**并发模式下的 bitmap*/
+    private final AtomicLongArray atomicBitmap;
+
+    /**
+     * 并发模式下的状态,高 32 位为 elemSize,低 32 位为 numAvail
+     *
+     * elemSize 与 numAvail 一起 CAS,Subpage 被销毁后以其他 elemSize 重新初始化时,旧的预占请求会失败
+     */
+    private volatile long state;
+
     PoolSubpage<T> prev;
-    PoolSubpage<T> next;
+    /**并发模式下无锁读取 head.next,所以为 volatile*/
+    volatile PoolSubpage<T> next;
 
     boolean doNotDestroy;
     int elemSize;
     private int maxNumElems;
     private int bitmapLength;
+    private int summaryLength;
     private int nextAvail;
     private int numAvail;
 
 
 
+    /** Special constructor that creates a linked list head */
+    PoolSubpage(int pageSize) {
+        chunk = null;
+        memoryMapIdx = -1;
+        runOffset = -1;
+        elemSize = -1;
+        this.pageSize = pageSize;
+        bitmap = null;
+        summary = null;
+        concurrent = false;
+        atomicBitmap = null;
+    }
+
     PoolSubpage(PoolSubpage<T> head, PoolChunk<T> chunk, int memoryMapIdx, int runOffset, int pageSize, int elemSize) {
         this.chunk = chunk;
         this.memoryMapIdx = memoryMapIdx;
         this.runOffset = runOffset;
         this.pageSize = pageSize;
-        bitmap = new long[pageSize >>> 10]; // pageSize / 16 / 64
+        concurrent = chunk.arena.concurrentSubpage;
+        if (concurrent) {
+            bitmap = null;
+            summary = null;
+            atomicBitmap = new AtomicLongArray(pageSize >>> 10);
+        } else {
+            bitmap = new long[pageSize >>> 10]; // pageSize / 16 / 64
+            summary = new long[bitmap.length + 63 >>> 6];
+            atomicBitmap = null;
+        }
         init(head, elemSize);
     }
 
@@ -46,13 +103,57 @@ public class PoolSubpage<T> implements PoolSubpageMetric {
                 bitmapLength ++;
             }
 
+            if (concurrent) {
+                initConcurrent();
+                if (maxNumElems > 1) {
+                    addToPool(head);
+                }
+                return;
+            }
+
             for (int i = 0; i < bitmapLength; i ++) {
                 bitmap[i] = 0;
             }
+            //最后一个long中超出maxNumElems的位标记为已分配,这样long全为1即表示已满
+            if ((maxNumElems & 63) != 0) {
+                bitmap[bitmapLength - 1] = -1L << (maxNumElems & 63);
+            }
+
+            //所有long都有未分配的内存段
+            summaryLength = bitmapLength + 63 >>> 6;
+            for (int i = 0; i < summaryLength; i ++) {
+                summary[i] = -1L;
+            }
+            if ((bitmapLength & 63) != 0) {
+                summary[summaryLength - 1] = ~(-1L << (bitmapLength & 63));
+            }
         }
         addToPool(head);
     }
 
+    /**
+     * 并发模式下的初始化,在 head 的锁内调用
+     * 第 0 个内存段预留给初始化它的调用者,通过 {@link #firstHandle()} 获取,
+     * 否则加入链表后可能被其他线程无锁分配完,调用者反而分配失败
+     * 最后写入 state,使 bitmap 的修改对无锁分配的线程可见
+     * */
+    private void initConcurrent() {
+        for (int i = 0; i < bitmapLength; i ++) {
+            atomicBitmap.set(i, 0);
+        }
+        if ((maxNumElems & 63) != 0) {
+            atomicBitmap.set(bitmapLength - 1, -1L << (maxNumElems & 63));
+        }
+        atomicBitmap.set(0, atomicBitmap.get(0) | 1);
+        state = (long) elemSize << 32 | maxNumElems - 1;
+    }
+
+    /**并发模式下初始化时预留的第 0 个内存段*/
+    long firstHandle() {
+        assert concurrent;
+        return toHandle(0);
+    }
+
     private void addToPool(PoolSubpage<T> head) {
         assert prev == null && next == null;
         prev = head;
@@ -75,7 +176,10 @@ public class PoolSubpage<T> implements PoolSubpageMetric {
         int q = bitmapIdx >>> 6;
         int r = bitmapIdx & 63;
         assert (bitmap[q] >>> r & 1) == 0;
-        bitmap[q] |= 1L << r;
+        //long已满,从摘要中移除
+        if ((bitmap[q] |= 1L << r) == -1L) {
+            summary[q >>> 6] &= ~(1L << q);
+        }
 
         if (-- numAvail == 0) {
             removeFromPool();
@@ -103,37 +207,160 @@ public class PoolSubpage<T> implements PoolSubpageMetric {
     }
 
     /**
-     * 1、~bits != 0说明这个long所描述的64个内存段还有未分配的；
-     * 2、(bits & 1) == 0 用来判断该位置是否未分配，否则bits又移一位，从左到右遍历值为0的位置；
+     * 通过摘要找到第一个未满的long,再通过 Long.numberOfTrailingZeros(~bits) 找到其中第一个为0的位
+     * init时已将超出maxNumElems的位标记为已分配,所以找到的位一定小于maxNumElems
      * */
     private int findNextAvail() {
-        final long[] bitmap = this.bitmap;
-        final int bitmapLength = this.bitmapLength;
-        for (int i = 0; i < bitmapLength; i ++) {
-            long bits = bitmap[i];
-            if (~bits != 0) {
-                return findNextAvail0(i, bits);
+        final long[] summary = this.summary;
+        final int summaryLength = this.summaryLength;
+        for (int s = 0; s < summaryLength; s ++) {
+            long sum = summary[s];
+            if (sum != 0) {
+                int i = s << 6 | Long.numberOfTrailingZeros(sum);
+                int val = i << 6 | Long.numberOfTrailingZeros(~bitmap[i]);
+                assert val < maxNumElems;
+                return val;
             }
         }
         return -1;
     }
 
-    private int findNextAvail0(int i, long bits) {
-        final int maxNumElems = this.maxNumElems;
-        final int baseVal = i << 6;
+    /**
+     * 释放内存段
+     * @return true 表示Subpage仍在使用中,false 表示Subpage已经完全空闲,可以释放其Page
+     * */
+    boolean free(PoolSubpage<T> head, int bitmapIdx) {
+        if (elemSize == 0) {
+            return true;
+        }
+        int q = bitmapIdx >>> 6;
+        int r = bitmapIdx & 63;
+        assert (bitmap[q] >>> r & 1) != 0;
+        //long之前已满,重新加入摘要
+        if (bitmap[q] == -1L) {
+            summary[q >>> 6] |= 1L << q;
+        }
+        bitmap[q] ^= 1L << r;
+
+        setNextAvail(bitmapIdx);
+
+        // 之前没有可用的内存段,重新加入到Arena的Subpage双向链表中
+        if (numAvail ++ == 0) {
+            addToPool(head);
+            return true;
+        }
+
+        if (numAvail != maxNumElems) {
+            return true;
+        } else {
+            // Subpage not in use (numAvail == maxNumElems)
+            if (prev == next) {
+                // Do not remove if this subpage is the only one left in the pool.
+                return true;
+            }
+
+            // Remove this subpage from the pool if there are other subpages left in the pool.
+            doNotDestroy = false;
+            removeFromPool();
+            return false;
+        }
+    }
+
+    /**
+     * 并发模式下无锁分配内存段
+     * 1、CAS 将 numAvail 减 1,预占一个内存段,elemSize 不匹配或没有可用内存段时返回 -1
+     * 2、预占成功后一定存在为 0 的位,CAS 将其置为 1
+     * 预占了最后一个内存段时,获取 head 的锁将其移出双向链表
+     * */
+    long allocateConcurrent(PoolSubpage<T> head, int elemSize) {
+        for (;;) {
+            final long state = this.state;
+            final int numAvail = (int) state;
+            if ((int) (state >>> 32) != elemSize || numAvail <= 0) {
+                return -1;
+            }
+            if (STATE_UPDATER.compareAndSet(this, state, state - 1)) {
+                if (numAvail == 1) {
+                    synchronized (head) {
+                        updatePoolMembership(head);
+                    }
+                }
+                break;
+            }
+        }
 
-        for (int j = 0; j < 64; j ++) {
-            if ((bits & 1) == 0) {
-                int val = baseVal | j;
-                if (val < maxNumElems) {
-                    return val;
-                } else {
-                    break;
+        final AtomicLongArray bitmap = atomicBitmap;
+        final int bitmapLength = this.bitmapLength;
+        for (;;) {
+            for (int i = 0; i < bitmapLength; i ++) {
+                long bits = bitmap.get(i);
+                while (~bits != 0) {
+                    long bit = Long.lowestOneBit(~bits);
+                    if (bitmap.compareAndSet(i, bits, bits | bit)) {
+                        return toHandle(i << 6 | Long.numberOfTrailingZeros(bit));
+                    }
+                    bits = bitmap.get(i);
                 }
             }
-            bits >>>= 1;
         }
-        return -1;
+    }
+
+    /**
+     * 并发模式下无锁释放内存段
+     * numAvail 从 0 变为 1 时重新加入双向链表,所有内存段都空闲时尝试销毁,这两种情况才获取 head 的锁
+     * @return true 表示Subpage仍在使用中,false 表示Subpage已经销毁,需要释放其Page
+     * */
+    boolean freeConcurrent(PoolSubpage<T> head, int bitmapIdx) {
+        final int q = bitmapIdx >>> 6;
+        final long bit = 1L << (bitmapIdx & 63);
+        for (;;) {
+            long bits = atomicBitmap.get(q);
+            assert (bits & bit) != 0;
+            if (atomicBitmap.compareAndSet(q, bits, bits ^ bit)) {
+                break;
+            }
+        }
+
+        final int numAvail = (int) STATE_UPDATER.incrementAndGet(this);
+        if (numAvail != 1 && numAvail != maxNumElems) {
+            return true;
+        }
+
+        synchronized (head) {
+            updatePoolMembership(head);
+
+            final long state = this.state;
+            if ((int) state != maxNumElems || prev == next) {
+                // Do not remove if this subpage is the only one left in the pool.
+                return true;
+            }
+            // CAS 为已销毁状态,之后的预占请求都会失败
+            if (!STATE_UPDATER.compareAndSet(this, state, state & 0xFFFFFFFF00000000L | DESTROYED & 0xFFFFFFFFL)) {
+                return true;
+            }
+            doNotDestroy = false;
+            removeFromPool();
+            return false;
+        }
+    }
+
+    /**
+     * 根据当前的 numAvail 调整是否在双向链表中,在 head 的锁内调用
+     * 有可用内存段时在链表中,没有时移出链表
+     * */
+    private void updatePoolMembership(PoolSubpage<T> head) {
+        final int numAvail = (int) state;
+        if (numAvail > 0) {
+            if (prev == null && doNotDestroy) {
+                addToPool(head);
+            }
+        } else if (numAvail == 0 && prev != null) {
+            removeFromPool();
+        }
+    }
+
+    private void setNextAvail(int bitmapIdx) {
+        nextAvail = bitmapIdx;
     }
 
     private void removeFromPool() {
@@ -144,4 +371,26 @@ public class PoolSubpage<T> implements PoolSubpageMetric {
         prev = null;
     }
 
+    @Override
+    public int maxNumElements() {
+        return maxNumElems;
+    }
+
+    /**并发模式下为 state 的低 32 位*/
+    @Override
+    public int numAvailable() {
+        return concurrent ? (int) state : numAvail;
+    }
+
+    /**并发模式下为 state 的高 32 位*/
+    @Override
+    public int elementSize() {
+        return concurrent ? (int) (state >>> 32) : elemSize;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
 }
@@ -2,7 +2,15 @@ package io.netty.buffer;
 
 public interface PoolSubpageMetric {
 
+    /**Subpage 中内存段的数量*/
+    int maxNumElements();
 
+    /**还未分配的内存段的数量*/
+    int numAvailable();
 
+    /**内存段的大小*/
+    int elementSize();
 
+    /**Page 大小*/
+    int pageSize();
 }
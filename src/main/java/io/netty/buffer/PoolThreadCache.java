@@ -1,12 +1,17 @@
 package io.netty.buffer;
 
-import io.netty.util.Recycler;
-import io.netty.util.Recycler.Handle;
+import io.netty.buffer.PoolArena.SizeClass;
+import io.netty.util.internal.MathUtil;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 /**
@@ -17,13 +22,26 @@ final class PoolThreadCache {
     private static final InternalLogger logger = InternalLoggerFactory.getInstance(PoolThreadCache.class);
 
     /**
-     * 对应的 Heap PoolArena 对象
+     * 对应的 Heap PoolArena 对象,再平衡时由所属线程修改,见 {@link #moveTo}
      */
-    final PoolArena<byte[]> heapArena;
+    PoolArena<byte[]> heapArena;
     /**
      * 对应的 Direct PoolArena 对象
      */
-    final PoolArena<ByteBuffer> directArena;
+    PoolArena<ByteBuffer> directArena;
+
+    /**按线程槽位选择 Arena 时分配的槽位,-1 表示没有*/
+    int workerSlot = -1;
+
+    /**
+     * 多个线程共享时使用的锁,为 null 表示只有所属线程使用
+     * 只尝试获取一次,获取失败时不使用缓存
+     */
+    private final AtomicBoolean sharedLock;
+
+    /**trim() 使用的 FreeBatch,flush 后清空,避免每次 trim 创建新的数组*/
+    private final FreeBatch<ByteBuffer> trimDirectBatch = new FreeBatch<ByteBuffer>();
+    private final FreeBatch<byte[]> trimHeapBatch = new FreeBatch<byte[]>();
 
     // Hold the caches for the different size classes, which are tiny, small and normal.
     /**
@@ -51,20 +69,6 @@ final class PoolThreadCache {
      */
     private final MemoryRegionCache<ByteBuffer>[] normalDirectCaches;
 
-    // Used for bitshifting when calculate the index of normal caches later
-    /**
-     * 用于计算请求分配的 normal 类型的内存块，在 {@link #normalDirectCaches} 数组中的位置
-     *
-     * 默认为 log2(pageSize) = log2(8192) = 13
-     */
-    private final int numShiftsNormalDirect;
-    /**
-     * 用于计算请求分配的 normal 类型的内存块，在 {@link #normalHeapCaches} 数组中的位置
-     *
-     * 默认为 log2(pageSize) = log2(8192) = 13
-     */
-    private final int numShiftsNormalHeap;
-
     /**
      * 分配次数
      */
@@ -72,80 +76,756 @@ final class PoolThreadCache {
 
     private final int freeSweepAllocationThreshold;
 
+    /**是否已经释放,释放后其他线程归还的内存块不再放入缓存*/
+    private final AtomicBoolean freed = new AtomicBoolean();
+
+    /**所属线程,线程结束后由 {@link #trimIfIdle()} 释放缓存*/
+    private final WeakReference<Thread> ownerThread = new WeakReference<Thread>(Thread.currentThread());
+
+    /**距离上一次 {@link #trimIfIdle()} 是否分配过内存,只在由 false 变为 true 时写入*/
+    private volatile boolean active = true;
+
     PoolThreadCache(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena,
                     int tinyCacheSize, int smallCacheSize, int normalCacheSize,
-                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold) {
+                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold, int cacheSizeScale,
+                    boolean shared) {
 
         if (maxCachedBufferCapacity < 0) {
             throw new IllegalArgumentException("maxCachedBufferCapacity: "
                     + maxCachedBufferCapacity + " (expected: >= 0)");
         }
+        if (cacheSizeScale < 1) {
+            throw new IllegalArgumentException("cacheSizeScale: " + cacheSizeScale + " (expected: >= 1)");
+        }
         this.freeSweepAllocationThreshold = freeSweepAllocationThreshold;
+        sharedLock = shared ? new AtomicBoolean() : null;
         this.heapArena = heapArena;
         this.directArena = directArena;
 
+        if (directArena != null) {
+            tinySubPageDirectCaches = createSubPageCaches(
+                    tinyCacheSize, cacheSizeScale, PoolArena.numTinySubpagePools, SizeClass.Tiny, directArena);
+            smallSubPageDirectCaches = createSubPageCaches(
+                    smallCacheSize, cacheSizeScale, directArena.numSmallSubpagePools, SizeClass.Small, directArena);
+            normalDirectCaches = createNormalCaches(
+                    normalCacheSize, cacheSizeScale, maxCachedBufferCapacity, directArena);
+
+            directArena.numThreadCaches.getAndIncrement();
+        } else {
+            // No directArea is configured so just null out all caches
+            tinySubPageDirectCaches = null;
+            smallSubPageDirectCaches = null;
+            normalDirectCaches = null;
+        }
+        if (heapArena != null) {
+            // Create the caches for the heap allocations
+            tinySubPageHeapCaches = createSubPageCaches(
+                    tinyCacheSize, cacheSizeScale, PoolArena.numTinySubpagePools, SizeClass.Tiny, heapArena);
+            smallSubPageHeapCaches = createSubPageCaches(
+                    smallCacheSize, cacheSizeScale, heapArena.numSmallSubpagePools, SizeClass.Small, heapArena);
+            normalHeapCaches = createNormalCaches(
+                    normalCacheSize, cacheSizeScale, maxCachedBufferCapacity, heapArena);
+
+            heapArena.numThreadCaches.getAndIncrement();
+        } else {
+            // No heapArea is configured so just null out all caches
+            tinySubPageHeapCaches = null;
+            smallSubPageHeapCaches = null;
+            normalHeapCaches = null;
+        }
 
+        // Only check if there are caches in use.
+        if ((tinySubPageDirectCaches != null || smallSubPageDirectCaches != null || normalDirectCaches != null
+                || tinySubPageHeapCaches != null || smallSubPageHeapCaches != null || normalHeapCaches != null)
+                && freeSweepAllocationThreshold < 1) {
+            throw new IllegalArgumentException("freeSweepAllocationThreshold: "
+                    + freeSweepAllocationThreshold + " (expected: > 0)");
+        }
+    }
 
+    /**
+     * 创建 Subpage 内存块缓存数组,下标为规格对应的缓存下标
+     * */
+    private static <T> MemoryRegionCache<T>[] createSubPageCaches(
+            int cacheSize, int cacheSizeScale, int numCaches, SizeClass sizeClass, PoolArena<T> area) {
+        if (cacheSize > 0 && numCaches > 0) {
+            @SuppressWarnings("unchecked")
+            MemoryRegionCache<T>[] cache = new MemoryRegionCache[numCaches];
+            for (int i = 0; i < cache.length; i++) {
+                int sizeIdx = area.sizeClasses.cacheIdx2SizeIdx(sizeClass, i);
+                if (sizeIdx >= 0) {
+                    cache[i] = new SubPageMemoryRegionCache<T>(
+                            cacheSize, cacheSizeScale, sizeClass, area.sizeClassMetric(sizeIdx));
+                }
+            }
+            return cache;
+        } else {
+            return null;
+        }
     }
 
+    /**
+     * 创建 Normal 内存块缓存数组,只缓存不超过 maxCachedBufferCapacity 和 chunkSize 的 Normal 规格
+     * */
+    private static <T> MemoryRegionCache<T>[] createNormalCaches(
+            int cacheSize, int cacheSizeScale, int maxCachedBufferCapacity, PoolArena<T> area) {
+        if (cacheSize > 0 && maxCachedBufferCapacity > 0) {
+            int max = Math.min(area.chunkSize, maxCachedBufferCapacity);
+            SizeClasses sizeClasses = area.sizeClasses;
+            int arraySize = 0;
+            while (arraySize < sizeClasses.numNormalSizes()
+                    && sizeClasses.normalIdx2Pages(arraySize) << area.pageShifts <= max) {
+                arraySize ++;
+            }
+            if (arraySize == 0) {
+                return null;
+            }
+
+            @SuppressWarnings("unchecked")
+            MemoryRegionCache<T>[] cache = new MemoryRegionCache[arraySize];
+            for (int i = 0; i < cache.length; i++) {
+                cache[i] = new NormalMemoryRegionCache<T>(cacheSize, cacheSizeScale,
+                        area.sizeClassMetric(sizeClasses.cacheIdx2SizeIdx(SizeClass.Normal, i)));
+            }
+            return cache;
+        } else {
+            return null;
+        }
+    }
 
-    private static <T> MemoryRegionCache<T>[] createSubPageCaches(int cacheSize, int numCaches, PoolArena.SizeClass sizeClass){
+    /**
+     * 从缓存中分配内存块给 PooledByteBuf,sizeIdx 为请求容量对应的规格下标
+     * @return false 表示没有对应的缓存或缓存为空
+     * */
+    boolean allocate(PoolArena<?> area, PooledByteBuf<?> buf, int reqCapacity, int sizeIdx) {
+        return allocate(cache(area, sizeIdx), buf, reqCapacity);
+    }
 
-        if(cacheSize>0&&numCaches>0){
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean allocate(MemoryRegionCache<?> cache, PooledByteBuf buf, int reqCapacity) {
+        if (cache == null) {
+            // no cache found so just return false here
+            return false;
+        }
+        if (sharedLock == null) {
+            return allocate0(cache, buf, reqCapacity);
+        }
+        if (!sharedLock.compareAndSet(false, true)) {
+            // 同一条带的其他线程正在使用缓存,直接从 Arena 分配
+            return false;
+        }
+        try {
+            return allocate0(cache, buf, reqCapacity);
+        } finally {
+            sharedLock.set(false);
+        }
+    }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean allocate0(MemoryRegionCache<?> cache, PooledByteBuf buf, int reqCapacity) {
+        if (!active) {
+            active = true;
         }
+        boolean allocated = cache.allocate(buf, reqCapacity, this);
+        // 分配次数达到阈值,清理不常使用的缓存
+        if (++ allocations >= freeSweepAllocationThreshold) {
+            allocations = 0;
+            trim();
+            rebalance();
+        }
+        return allocated;
     }
 
-    private static <T> MemoryRegionCache
+    /**
+     * 将内存块放入缓存,可以在任意线程调用,不需要获取 Arena 的锁
+     * @return false 表示没有对应的缓存、缓存已满或已经释放,需要交还给 Arena
+     * */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    boolean add(PoolArena<?> area, PoolChunk chunk, long handle, int sizeIdx) {
+        if (freed.get()) {
+            return false;
+        }
+        MemoryRegionCache<?> cache = cache(area, sizeIdx);
+        if (cache == null) {
+            return false;
+        }
+        if (!cache.add(chunk, handle)) {
+            return false;
+        }
+        // 放入的同时所属线程释放了缓存,由当前线程清空,避免内存块泄露
+        if (freed.get()) {
+            freeNow(cache);
+        }
+        return true;
+    }
 
-    private abstract static class MemoryRegionCache<T>{
-        /**队列大小*/
-        private final int size;
+    private static <T> void freeNow(MemoryRegionCache<T> cache) {
+        FreeBatch<T> batch = new FreeBatch<T>();
+        cache.free(batch);
+        batch.flush();
+    }
+
+    /**
+     *  Should be called if the Thread that uses this cache is about to exist to release resources out of the cache
+     */
+    void free() {
+        // As free() may be called either by the finalizer or by FastThreadLocal.onRemoval(...) we need to ensure
+        // we only call this one time.
+        if (freed.compareAndSet(false, true)) {
+            // 同一个 Arena 的内存块一起归还,只获取一次锁
+            FreeBatch<ByteBuffer> directBatch = new FreeBatch<ByteBuffer>();
+            FreeBatch<byte[]> heapBatch = new FreeBatch<byte[]>();
+            int numFreed = free(tinySubPageDirectCaches, directBatch) +
+                    free(smallSubPageDirectCaches, directBatch) +
+                    free(normalDirectCaches, directBatch) +
+                    free(tinySubPageHeapCaches, heapBatch) +
+                    free(smallSubPageHeapCaches, heapBatch) +
+                    free(normalHeapCaches, heapBatch);
+            directBatch.flush();
+            heapBatch.flush();
+
+            if (numFreed > 0 && logger.isDebugEnabled()) {
+                logger.debug("Freed {} thread-local buffer(s) from thread: {}", numFreed,
+                        Thread.currentThread().getName());
+            }
+
+            if (directArena != null) {
+                directArena.numThreadCaches.getAndDecrement();
+            }
+
+            if (heapArena != null) {
+                heapArena.numThreadCaches.getAndDecrement();
+            }
+        }
+    }
+
+    private static <T> int free(MemoryRegionCache<T>[] caches, FreeBatch<T> batch) {
+        if (caches == null) {
+            return 0;
+        }
+
+        int numFreed = 0;
+        for (MemoryRegionCache<T> c: caches) {
+            numFreed += free(c, batch);
+        }
+        return numFreed;
+    }
+
+    private static <T> int free(MemoryRegionCache<T> cache, FreeBatch<T> batch) {
+        if (cache == null) {
+            return 0;
+        }
+        return cache.free(batch);
+    }
 
-        private final Queue<Entry<>>
+    /**
+     * 释放空闲的线程缓存,可以在任意线程调用
+     * 距离上一次调用没有分配过内存时清空所有缓存的内存块,所属线程已经结束时释放整个缓存
+     * 清空时逐个 CAS 取出内存块,所属线程同时分配也不需要等待
+     * @return 清空的内存块的字节数
+     * */
+    long trimIfIdle() {
+        if (freed.get()) {
+            return 0;
+        }
+        Thread owner = ownerThread.get();
+        // 共享的缓存不属于任何线程
+        boolean ownerAlive = sharedLock != null || owner != null && owner.isAlive();
+        if (ownerAlive && active) {
+            active = false;
+            return 0;
+        }
+        long trimmed = drain();
+        if (!ownerAlive) {
+            free();
+        }
+        return trimmed;
+    }
+
+    /**清空所有缓存的内存块但保留容量,返回清空的字节数*/
+    private long drain() {
+        FreeBatch<ByteBuffer> directBatch = new FreeBatch<ByteBuffer>();
+        FreeBatch<byte[]> heapBatch = new FreeBatch<byte[]>();
+        long drained = drain(tinySubPageDirectCaches, directBatch) +
+                drain(smallSubPageDirectCaches, directBatch) +
+                drain(normalDirectCaches, directBatch) +
+                drain(tinySubPageHeapCaches, heapBatch) +
+                drain(smallSubPageHeapCaches, heapBatch) +
+                drain(normalHeapCaches, heapBatch);
+        directBatch.flush();
+        heapBatch.flush();
+        return drained;
+    }
+
+    /**清理缓存后由分配器检查所属 Arena 是否过载,共享的缓存不迁移*/
+    private void rebalance() {
+        if (sharedLock != null) {
+            return;
+        }
+        PoolArena<?> arena = heapArena != null ? heapArena : directArena;
+        arena.parent.rebalance(this);
     }
 
     /**
-     * 采用代理模式,来对对象进行回收
+     * 清空缓存后迁移到其他 Arena,只在所属线程调用
+     * 缓存的度量仍然记录在创建缓存时的 Arena 中
      * */
-    static final class Entry<T>{
-        /**用于回收Entry对象*/
-        final Handle<Entry<?>> recyclerHandle;
+    void moveTo(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena) {
+        drain();
+        if (heapArena != this.heapArena) {
+            this.heapArena.numThreadCaches.getAndDecrement();
+            heapArena.numThreadCaches.getAndIncrement();
+            this.heapArena = heapArena;
+        }
+        if (directArena != this.directArena) {
+            this.directArena.numThreadCaches.getAndDecrement();
+            directArena.numThreadCaches.getAndIncrement();
+            this.directArena = directArena;
+        }
+    }
+
+    /**是否已经释放*/
+    boolean isFreed() {
+        return freed.get();
+    }
+
+    private static <T> long drain(MemoryRegionCache<T>[] caches, FreeBatch<T> batch) {
+        if (caches == null) {
+            return 0;
+        }
+        long drained = 0;
+        for (MemoryRegionCache<T> c: caches) {
+            if (c != null) {
+                drained += c.drain(batch);
+            }
+        }
+        return drained;
+    }
 
-        PoolChunk<T> chunk;
+    /**清理不常使用的缓存,只在分配时调用,复用 trimDirectBatch 和 trimHeapBatch*/
+    void trim() {
+        final FreeBatch<ByteBuffer> directBatch = trimDirectBatch;
+        final FreeBatch<byte[]> heapBatch = trimHeapBatch;
+        trim(tinySubPageDirectCaches, directBatch);
+        trim(smallSubPageDirectCaches, directBatch);
+        trim(normalDirectCaches, directBatch);
+        trim(tinySubPageHeapCaches, heapBatch);
+        trim(smallSubPageHeapCaches, heapBatch);
+        trim(normalHeapCaches, heapBatch);
+        directBatch.flush();
+        heapBatch.flush();
+    }
+
+    private static <T> void trim(MemoryRegionCache<T>[] caches, FreeBatch<T> batch) {
+        if (caches == null) {
+            return;
+        }
+        for (MemoryRegionCache<T> c: caches) {
+            trim(c, batch);
+        }
+    }
 
-        long handle = -1;
+    private static <T> void trim(MemoryRegionCache<T> cache, FreeBatch<T> batch) {
+        if (cache == null) {
+            return;
+        }
+        cache.trim(batch);
+    }
+
+    /**根据规格下标找到对应的缓存,Huge 及超过 maxCachedBufferCapacity 的 Normal 规格没有缓存*/
+    private MemoryRegionCache<?> cache(PoolArena<?> area, int sizeIdx) {
+        int cacheIdx = area.sizeClasses.cacheIdx(sizeIdx);
+        switch (area.sizeClasses.sizeClass(sizeIdx)) {
+            case Tiny:
+                return cacheForTiny(area, cacheIdx);
+            case Small:
+                return cacheForSmall(area, cacheIdx);
+            case Normal:
+                return cacheForNormal(area, cacheIdx);
+            default:
+                return null;
+        }
+    }
 
-        Entry(Handle<Entry<?>> recyclerHandle){
-            this.recyclerHandle = recyclerHandle;
+    private MemoryRegionCache<?> cacheForTiny(PoolArena<?> area, int cacheIdx) {
+        if (area.isDirect()) {
+            return cache(tinySubPageDirectCaches, cacheIdx);
         }
+        return cache(tinySubPageHeapCaches, cacheIdx);
+    }
 
-        void recycle(){
-            chunk = null;
-            handle = -1;
-            recyclerHandle.recycle(this);
+    private MemoryRegionCache<?> cacheForSmall(PoolArena<?> area, int cacheIdx) {
+        if (area.isDirect()) {
+            return cache(smallSubPageDirectCaches, cacheIdx);
         }
+        return cache(smallSubPageHeapCaches, cacheIdx);
     }
 
+    private MemoryRegionCache<?> cacheForNormal(PoolArena<?> area, int cacheIdx) {
+        if (area.isDirect()) {
+            return cache(normalDirectCaches, cacheIdx);
+        }
+        return cache(normalHeapCaches, cacheIdx);
+    }
 
-    @SuppressWarnings("rawtypes")
-    private static Entry newEntry(PoolChunk<?> chunk, long handle) {
-        // 从 Recycler 对象中，获得 Entry 对象
-        Entry entry = RECYCLER.get();
-        // 初始化属性
-        entry.chunk = chunk;
-        entry.handle = handle;
-        return entry;
+    private static <T> MemoryRegionCache<T> cache(MemoryRegionCache<T>[] cache, int idx) {
+        if (cache == null || idx > cache.length - 1) {
+            return null;
+        }
+        return cache[idx];
     }
 
-    @SuppressWarnings("rawtypes")
-    private static final Recycler<Entry> RECYCLER = new Recycler<Entry>() {
+    /**
+     * Cache used for buffers which are backed by TINY or SMALL size.
+     */
+    private static final class SubPageMemoryRegionCache<T> extends MemoryRegionCache<T> {
+        SubPageMemoryRegionCache(int size, int scale, SizeClass sizeClass, PoolArena.SizeClassMetric metric) {
+            super(size, scale, sizeClass, metric);
+        }
 
-        @SuppressWarnings("unchecked")
         @Override
-        protected Entry newObject(Handle<Entry> handle) {
-            return new Entry(handle); // 创建 Entry 对象
+        protected void initBuf(PoolChunk<T> chunk, long handle, PooledByteBuf<T> buf, int reqCapacity,
+                               PoolThreadCache threadCache) {
+            chunk.initBufWithSubpage(buf, handle, reqCapacity, threadCache);
         }
+    }
 
-    };
+    /**
+     * Cache used for buffers which are backed by NORMAL size.
+     */
+    private static final class NormalMemoryRegionCache<T> extends MemoryRegionCache<T> {
+        NormalMemoryRegionCache(int size, int scale, PoolArena.SizeClassMetric metric) {
+            super(size, scale, SizeClass.Normal, metric);
+        }
+
+        @Override
+        protected void initBuf(PoolChunk<T> chunk, long handle, PooledByteBuf<T> buf, int reqCapacity,
+                               PoolThreadCache threadCache) {
+            chunk.initBuf(buf, handle, reqCapacity, threadCache);
+        }
+    }
+
+    /**
+     * 某个规格的内存块缓存
+     *
+     * 队列为有界的无锁环形数组:所属线程从中分配,任意线程都可以向其中归还内存块,空闲时其他线程也可以清空。
+     * 每个槽位有一个序号,生产者和消费者分别 CAS 递增 producerIndex 和 consumerIndex 抢占槽位,
+     * 读写 chunks 和 handles 后更新槽位的序号交给对方,不需要加锁,也不需要为每个内存块创建 Entry 对象
+     *
+     * 记录命中、未命中、驱逐的次数,scale 大于 1 时在每次 trim 根据这些次数调整容量:
+     * 同时有未命中和驱逐说明容量不足,翻倍;命中次数不到容量的 1/4 说明缓存空闲,减半
+     */
+    private abstract static class MemoryRegionCache<T> {
+        /**初始容量*/
+        private final int size;
+
+        /**容量的上下限,scale 为 1 时都等于 size*/
+        private final int minCapacity;
+        private final int maxCapacity;
+
+        /**当前容量,其他线程归还内存块时读取*/
+        private volatile int capacity;
+
+        /**
+         * 缓存的内存块,按 maxCapacity 创建的环形数组,放入时按 capacity 限制
+         * chunks 和 handles 下标一一对应,只由抢占到该槽位的线程读写
+         */
+        private final PoolChunk<T>[] chunks;
+        private final long[] handles;
+        private final int mask;
+
+        /**
+         * 每个槽位的序号,等于 index 表示序号为 index 的内存块可以写入,等于 index + 1 表示已写入可以取出
+         * 取出后设置为 index + 数组长度,即下一轮写入的序号
+         */
+        private final AtomicLongArray sequences;
+
+        /**下一个写入的序号,生产者 CAS 递增*/
+        private final AtomicLong producerIndex = new AtomicLong();
+
+        /**下一个取出的序号,所属线程分配和其他线程清空时 CAS 递增*/
+        private final AtomicLong consumerIndex = new AtomicLong();
+
+        private final SizeClass sizeClass;
+
+        private final PoolArena.SizeClassMetric metric;
+
+        /**距离上一次 trim 的分配次数,即命中次数*/
+        private int allocations;
+
+        /**距离上一次 trim 的未命中次数*/
+        private int misses;
+
+        /**距离上一次 trim 的驱逐次数,其他线程也会修改*/
+        private final AtomicInteger evictions = new AtomicInteger();
+
+        MemoryRegionCache(int size, int scale, SizeClass sizeClass, PoolArena.SizeClassMetric metric) {
+            this.size = MathUtil.safeFindNextPositivePowerOfTwo(size);
+            minCapacity = Math.max(1, this.size / scale);
+            maxCapacity = MathUtil.safeFindNextPositivePowerOfTwo(this.size * scale);
+            capacity = this.size;
+            chunks = newChunkArray(maxCapacity);
+            handles = new long[maxCapacity];
+            mask = maxCapacity - 1;
+            sequences = new AtomicLongArray(maxCapacity);
+            for (int i = 0; i < maxCapacity; i ++) {
+                sequences.set(i, i);
+            }
+            this.sizeClass = sizeClass;
+            this.metric = metric;
+            metric.recordCacheCapacity(capacity);
+        }
+
+        /**
+         * Init the {@link PooledByteBuf} using the provided chunk and handle with the capacity restrictions.
+         */
+        protected abstract void initBuf(PoolChunk<T> chunk, long handle,
+                                        PooledByteBuf<T> buf, int reqCapacity, PoolThreadCache threadCache);
+
+        /**
+         * Add to cache if not already full.
+         */
+        public final boolean add(PoolChunk<T> chunk, long handle) {
+            if (!offer(chunk, handle)) {
+                evict(1);
+                return false;
+            }
+            return true;
+        }
+
+        /**任意线程都可能放入,CAS 抢占 producerIndex 对应的槽位后写入*/
+        private boolean offer(PoolChunk<T> chunk, long handle) {
+            for (;;) {
+                final long index = producerIndex.get();
+                final int offset = (int) index & mask;
+                final long seq = sequences.get(offset);
+                if (seq == index) {
+                    if (index - consumerIndex.get() >= capacity) {
+                        return false;
+                    }
+                    if (producerIndex.compareAndSet(index, index + 1)) {
+                        chunks[offset] = chunk;
+                        handles[offset] = handle;
+                        sequences.lazySet(offset, index + 1);
+                        return true;
+                    }
+                } else if (seq < index) {
+                    // 槽位中上一轮的内存块还未取出,队列已满
+                    return false;
+                }
+                // 其他生产者已抢占该槽位,重试
+            }
+        }
+
+        /**
+         * Allocate something out of the cache if possible and remove the entry from the cache.
+         */
+        public final boolean allocate(PooledByteBuf<T> buf, int reqCapacity, PoolThreadCache threadCache) {
+            if (!poll(buf, reqCapacity, threadCache)) {
+                ++ misses;
+                metric.recordCacheMiss();
+                return false;
+            }
+            metric.recordCacheHit();
+
+            // allocations is not thread-safe which is fine as this is only called from the same thread all time.
+            ++ allocations;
+            return true;
+        }
+
+        /**
+         * 取出最早放入的内存块初始化 buf,所属线程分配的同时其他线程可能放入或通过 {@link #drain} 清空
+         * 没有竞争时只有一次 CAS
+         * */
+        private boolean poll(PooledByteBuf<T> buf, int reqCapacity, PoolThreadCache threadCache) {
+            final long index = claim();
+            if (index < 0) {
+                return false;
+            }
+            final int offset = (int) index & mask;
+            final PoolChunk<T> chunk = chunks[offset];
+            final long handle = handles[offset];
+            release(index);
+            initBuf(chunk, handle, buf, reqCapacity, threadCache);
+            return true;
+        }
+
+        /**
+         * CAS 抢占最早放入的内存块所在的槽位,返回其序号
+         * @return -1 表示为空,或生产者已抢占槽位但还未写入
+         * */
+        private long claim() {
+            for (;;) {
+                final long index = consumerIndex.get();
+                final long seq = sequences.get((int) index & mask);
+                if (seq == index + 1) {
+                    if (consumerIndex.compareAndSet(index, index + 1)) {
+                        return index;
+                    }
+                } else if (seq <= index) {
+                    return -1;
+                }
+                // 其他消费者已取出该槽位,重试
+            }
+        }
+
+        /**读取抢占的槽位后释放,供下一轮写入*/
+        private void release(long index) {
+            final int offset = (int) index & mask;
+            // 不再引用 PoolChunk,使其可以被 GC
+            chunks[offset] = null;
+            sequences.lazySet(offset, index + mask + 1);
+        }
+
+        private int size() {
+            // 先读 consumerIndex,保证结果不为负数
+            final long consumer = consumerIndex.get();
+            return (int) Math.min(producerIndex.get() - consumer, mask + 1);
+        }
+
+        /**
+         * 清空缓存的内存块但保留容量,返回清空的字节数
+         * 最多取出开始时缓存的数量,其他线程同时归还内存块时不会一直循环
+         * */
+        final long drain(FreeBatch<T> batch) {
+            int numFreed = free(size(), batch);
+            if (numFreed > 0) {
+                metric.recordCacheEvictions(numFreed);
+            }
+            return (long) numFreed * metric.elementSize();
+        }
+
+        /**
+         * Clear out this cache and free up all previous cached {@link PoolChunk}s and {@code handle}s.
+         */
+        public final int free(FreeBatch<T> batch) {
+            int numFreed = free(Integer.MAX_VALUE, batch);
+            metric.recordCacheCapacity(-capacity);
+            capacity = 0;
+            return numFreed;
+        }
+
+        /**
+         * 所属线程、归还内存块的线程和 trim 的线程可能同时清空队列,每个内存块都通过 CAS 抢占,不会被取出两次
+         * */
+        private int free(int max, FreeBatch<T> batch) {
+            int numFreed = 0;
+            while (numFreed < max) {
+                final long index = claim();
+                if (index < 0) {
+                    break;
+                }
+                final int offset = (int) index & mask;
+                batch.add(chunks[offset], handles[offset]);
+                release(index);
+                numFreed ++;
+            }
+            return numFreed;
+        }
+
+        /**
+         * Free up cached {@link PoolChunk}s if not allocated frequently enough.
+         */
+        public final void trim(FreeBatch<T> batch) {
+            int hits = allocations;
+            allocations = 0;
+            int misses = this.misses;
+            this.misses = 0;
+            int evictions = this.evictions.getAndSet(0);
+
+            if (minCapacity != maxCapacity) {
+                adjustCapacity(hits, misses, evictions);
+            }
+
+            // We not even allocated all the number that are, or the capacity was just reduced
+            int free = Math.max(capacity - hits, size() - capacity);
+            if (free > 0) {
+                int numFreed = free(free, batch);
+                metric.recordCacheEvictions(numFreed);
+            }
+        }
+
+        private void adjustCapacity(int hits, int misses, int evictions) {
+            final int capacity = this.capacity;
+            int newCapacity = capacity;
+            if (misses > 0 && evictions > 0) {
+                newCapacity = Math.min(maxCapacity, capacity << 1);
+            } else if (hits < capacity >>> 2) {
+                newCapacity = Math.max(minCapacity, capacity >>> 1);
+            }
+            if (newCapacity != capacity) {
+                this.capacity = newCapacity;
+                metric.recordCacheCapacity(newCapacity - capacity);
+            }
+        }
+
+        private void evict(int num) {
+            evictions.addAndGet(num);
+            metric.recordCacheEvictions(num);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PoolChunk<T>[] newChunkArray(int size) {
+        return new PoolChunk[size];
+    }
+
+    /**
+     * 待归还给 Arena 的内存块
+     *
+     * 释放和 trim 时先收集内存块,再按所属的 Arena 分组通过 {@link PoolArena#freeChunks} 每组一次获取锁全部归还,
+     * 避免每个内存块都获取一次 Arena 的锁
+     */
+    static final class FreeBatch<T> {
+
+        private PoolChunk<T>[] chunks = newChunkArray(16);
+
+        private long[] handles = new long[16];
+
+        private int size;
+
+        void add(PoolChunk<T> chunk, long handle) {
+            if (size == handles.length) {
+                chunks = Arrays.copyOf(chunks, size << 1);
+                handles = Arrays.copyOf(handles, size << 1);
+            }
+            chunks[size] = chunk;
+            handles[size] = handle;
+            size ++;
+        }
+
+        /**
+         * 归还所有内存块,按所属的 Arena 分组,每组在对应 Arena 的锁内归还
+         * 通常只有一个 Arena,只需遍历一次
+         * */
+        void flush() {
+            while (size > 0) {
+                final PoolArena<T> arena = chunks[0].arena;
+                // 属于 arena 的内存块交换到前部
+                int n = 1;
+                for (int i = 1; i < size; i ++) {
+                    if (chunks[i].arena == arena) {
+                        swap(i, n ++);
+                    }
+                }
+                arena.freeChunks(chunks, handles, n);
+                // 剩余其他 Arena 的内存块移到开头
+                final int remaining = size - n;
+                System.arraycopy(chunks, n, chunks, 0, remaining);
+                System.arraycopy(handles, n, handles, 0, remaining);
+                Arrays.fill(chunks, remaining, size, null);
+                size = remaining;
+            }
+        }
+
+        private void swap(int i, int j) {
+            final PoolChunk<T> chunk = chunks[i];
+            chunks[i] = chunks[j];
+            chunks[j] = chunk;
+            final long handle = handles[i];
+            handles[i] = handles[j];
+            handles[j] = handle;
+        }
+
+    }
 }
@@ -6,12 +6,138 @@ public abstract class PooledByteBuf<T> extends AbstractReferenceCountedByteBuf
 
     private final Recycler.Handle<PooledByteBuf<T>> recyclerHandle;
 
+    /**所属的Chunk*/
+    protected PoolChunk<T> chunk;
+
+    /**在Chunk中的内存块位置*/
+    protected long handle;
+
+    /**内存空间,即Chunk的memory*/
+    protected T memory;
+
+    /**在memory中的偏移量*/
+    protected int offset;
+
+    /**容量,即请求的容量*/
+    protected int length;
+
+    /**占用的内存块大小,即规格化后的容量*/
+    int maxLength;
+
+    /**分配时所在线程的缓存,释放时优先归还到该缓存*/
+    PoolThreadCache cache;
+
+    /**内存不直接属于 PoolChunk 时的持有者,释放时通知,为 null 表示不需要通知*/
+    PoolRegionOwner regionOwner;
+
     @SuppressWarnings("unchecked")
     protected PooledByteBuf(Recycler.Handle<? extends PooledByteBuf<T>> recyclerHandle, int maxCapacity) {
         super(maxCapacity);
         this.recyclerHandle = (Recycler.Handle<PooledByteBuf<T>>) recyclerHandle;
     }
 
+    void init(PoolChunk<T> chunk, long handle, int offset, int length, int maxLength, PoolThreadCache cache) {
+        init0(chunk, handle, offset, length, maxLength, cache);
+    }
+
+    /**非池化的Chunk,整个Chunk都属于当前PooledByteBuf*/
+    void initUnpooled(PoolChunk<T> chunk, int length) {
+        init0(chunk, 0, chunk.offset, length, length, null);
+    }
+
+    /**
+     * 内存属于从 PoolChunk 分配的区域中的一段,如 {@link ScopedByteBufAllocator} 和 {@link SlabByteBufAllocator},
+     * handle 为 -1,释放时不归还给 Chunk,只通知 owner
+     * */
+    void initRegion(PoolChunk<T> chunk, int offset, int length, int maxLength, PoolRegionOwner owner) {
+        this.chunk = chunk;
+        memory = chunk.memory;
+        handle = -1;
+        this.offset = offset;
+        this.length = length;
+        this.maxLength = maxLength;
+        cache = null;
+        regionOwner = owner;
+    }
+
+    private void init0(PoolChunk<T> chunk, long handle, int offset, int length, int maxLength,
+                       PoolThreadCache cache) {
+        assert handle >= 0;
+        assert chunk != null;
+
+        this.chunk = chunk;
+        memory = chunk.memory;
+        this.handle = handle;
+        this.offset = offset;
+        this.length = length;
+        this.maxLength = maxLength;
+        this.cache = cache;
+    }
+
+    /**在 Chunk 中原地扩容后更新内存块,offset 不变*/
+    void initExpanded(long handle, int length, int maxLength) {
+        this.handle = handle;
+        this.length = length;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 调整容量
+     * 不超过 maxLength 时只修改 length;超过时交给 {@link PoolArena#reallocate},优先在 Chunk 中原地扩容,否则重新分配并复制。
+     * 缩小到 maxLength 的一半以下时重新分配较小的内存块,区域中的内存块只能在原地缩小
+     * */
+    @Override
+    public final ByteBuf capacity(int newCapacity) {
+        if (newCapacity == length) {
+            return this;
+        }
+        checkNewCapacity(newCapacity);
+        if (!chunk.unpooled) {
+            if (newCapacity > length) {
+                if (newCapacity <= maxLength) {
+                    length = newCapacity;
+                    return this;
+                }
+            } else if (handle < 0 ||
+                    newCapacity > maxLength >>> 1 && (maxLength > 512 || newCapacity > maxLength - 16)) {
+                length = newCapacity;
+                trimIndicesToCapacity(newCapacity);
+                return this;
+            }
+        }
+        chunk.arena.reallocate(this, newCapacity);
+        return this;
+    }
+
+    /**
+     * 释放内存块,交还给所属的PoolArena,并回收当前对象
+     * */
+    protected final void deallocate() {
+        if (handle >= 0) {
+            final long handle = this.handle;
+            this.handle = -1;
+            memory = null;
+            chunk.arena.free(chunk, handle, maxLength, cache);
+            chunk = null;
+            cache = null;
+            recycle();
+        } else if (chunk != null) {
+            // 内存属于区域中的一段,由区域的持有者回收
+            final PoolRegionOwner owner = regionOwner;
+            if (owner != null) {
+                regionOwner = null;
+                owner.free(chunk, offset, maxLength);
+            }
+            memory = null;
+            chunk = null;
+            recycle();
+        }
+    }
+
+    private void recycle() {
+        recyclerHandle.recycle(this);
+    }
+
     final void reuse(int maxCapacity) {
         // 设置最大容量
         maxCapacity(maxCapacity);
@@ -3,18 +3,47 @@ package io.netty.buffer;
 import io.netty.util.NettyRuntime;
 import io.netty.util.concurrent.FastThreadLocal;
 import io.netty.util.concurrent.FastThreadLocalThread;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.MathUtil;
+import io.netty.util.internal.ObjectUtil;
 import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.SystemPropertyUtil;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements ByteBufAllocatorMetricProvider {
 
+    /**
+     * 线程选择 Arena 的策略
+     */
+    public enum ArenaSelection {
+        /**选择线程缓存最少的 Arena,选定后不再改变*/
+        LeastUsed,
+        /**
+         * 为每个线程分配最小的空闲槽位,使用槽位对 Arena 数量取模的 Arena,线程结束后槽位被复用,
+         * 线程池大小变化后仍然均匀;清理线程缓存时所属 Arena 过载则迁移到线程缓存最少的 Arena
+         */
+        WorkerSlot
+    }
+
 
     private static final InternalLogger logger = InternalLoggerFactory.getInstance(PooledByteBufAllocator.class);
     private static final int DEFAULT_NUM_HEAP_ARENA;
@@ -31,6 +60,21 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
     private static final int DEFAULT_CACHE_TRIM_INTERVAL;
     private static final boolean DEFAULT_USE_CACHE_FOR_ALL_THREADS;
     private static final int DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT;
+    private static final boolean DEFAULT_USE_RUN_CHUNK;
+    private static final boolean DEFAULT_CONCURRENT_SUBPAGE;
+    private static final int DEFAULT_CACHE_SIZE_SCALE;
+    private static final int DEFAULT_REMOTE_FREE_QUEUE_CAPACITY;
+    private static final PoolArena.PlacementPolicy DEFAULT_PLACEMENT_POLICY;
+    private static final int DEFAULT_SPARE_CHUNKS;
+    private static final int DEFAULT_SPARE_CHUNK_WATERMARK;
+    private static final int DEFAULT_FREE_CHUNK_POOL_SIZE;
+    private static final long DEFAULT_FREE_CHUNK_IDLE_MILLIS;
+    private static final long DEFAULT_TRIM_INTERVAL_MILLIS;
+    private static final long DEFAULT_HUGE_CACHE_BYTES;
+    private static final int DEFAULT_INITIAL_CHUNK_SIZE;
+    private static final boolean DEFAULT_LAZY_ARENAS;
+    private static final ArenaSelection DEFAULT_ARENA_SELECTION;
+    private static final int DEFAULT_CACHE_STRIPES;
 
     private static final int MIN_PAGE_SIZE = 4096;
     private static final int MAX_CHUNK_SIZE = (int) (((long) Integer.MAX_VALUE + 1) / 2);
@@ -96,6 +140,14 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
 
         DEFAULT_MAX_CACHED_BUFFER_CAPACITY = SystemPropertyUtil.getInt("io.netty.allocator.maxCachedBufferCapacity", 32 * 1024);
 
+        // 初始化 DEFAULT_CACHE_SIZE_SCALE,开启自适应后每个缓存的容量在 [cacheSize / scale, cacheSize * scale] 之间调整
+        // 为 1 表示缓存容量固定
+        if (SystemPropertyUtil.getBoolean("io.netty.allocator.adaptiveCacheSize", false)) {
+            DEFAULT_CACHE_SIZE_SCALE = Math.max(1, SystemPropertyUtil.getInt("io.netty.allocator.adaptiveCacheScale", 4));
+        } else {
+            DEFAULT_CACHE_SIZE_SCALE = 1;
+        }
+
         // 初始化 DEFAULT_CACHE_TRIM_INTERVAL
         // the number of threshold of allocations when cached entries will be freed up if not frequently used
         DEFAULT_CACHE_TRIM_INTERVAL = SystemPropertyUtil.getInt("io.netty.allocator.cacheTrimInterval", 8192);
@@ -106,6 +158,66 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
         // 初始化 DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT
         DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT = SystemPropertyUtil.getInt("io.netty.allocator.directMemoryCacheAlignment", 0);
 
+        // 初始化 DEFAULT_USE_RUN_CHUNK,默认使用满二叉树的 PoolChunk
+        DEFAULT_USE_RUN_CHUNK = SystemPropertyUtil.getBoolean("io.netty.allocator.useRunChunk", false);
+
+        // 初始化 DEFAULT_REMOTE_FREE_QUEUE_CAPACITY,每个 Arena 中其他线程归还内存块的队列容量,0 表示不开启
+        DEFAULT_REMOTE_FREE_QUEUE_CAPACITY = Math.max(0,
+                SystemPropertyUtil.getInt("io.netty.allocator.remoteFreeQueueCapacity", 0));
+
+        // 初始化 DEFAULT_PLACEMENT_POLICY,Normal 内存块在 PoolChunkList 之间的放置策略
+        // default / bestFit / memorySaving,不区分大小写
+        String placementPolicy = SystemPropertyUtil.get("io.netty.allocator.placementPolicy", "default");
+        PoolArena.PlacementPolicy defaultPlacementPolicy = PoolArena.PlacementPolicy.Default;
+        for (PoolArena.PlacementPolicy policy : PoolArena.PlacementPolicy.values()) {
+            if (policy.name().equalsIgnoreCase(placementPolicy)) {
+                defaultPlacementPolicy = policy;
+            }
+        }
+        DEFAULT_PLACEMENT_POLICY = defaultPlacementPolicy;
+
+        // 初始化 DEFAULT_SPARE_CHUNKS,每个 Arena 由后台线程预先分配的空闲 Chunk 数量,0 表示不开启
+        DEFAULT_SPARE_CHUNKS = Math.max(0, SystemPropertyUtil.getInt("io.netty.allocator.spareChunks", 0));
+        // 初始化 DEFAULT_SPARE_CHUNK_WATERMARK,Chunk 的内存利用率达到该百分比时开始补充空闲 Chunk
+        DEFAULT_SPARE_CHUNK_WATERMARK = SystemPropertyUtil.getInt("io.netty.allocator.spareChunkWatermark", 75);
+
+        // 初始化 DEFAULT_FREE_CHUNK_POOL_SIZE,同类型 Arena 共享的空闲 Chunk 池的容量,0 表示不开启
+        DEFAULT_FREE_CHUNK_POOL_SIZE = Math.max(0, SystemPropertyUtil.getInt("io.netty.allocator.freeChunkPoolSize", 0));
+        // 初始化 DEFAULT_FREE_CHUNK_IDLE_MILLIS,空闲 Chunk 在池中保留的最长时间
+        DEFAULT_FREE_CHUNK_IDLE_MILLIS = Math.max(0,
+                SystemPropertyUtil.getLong("io.netty.allocator.freeChunkIdleMillis", 30000));
+
+        // 初始化 DEFAULT_TRIM_INTERVAL_MILLIS,定时调用 trim() 的间隔,0 表示不开启
+        DEFAULT_TRIM_INTERVAL_MILLIS = Math.max(0,
+                SystemPropertyUtil.getLong("io.netty.allocator.trimIntervalMillis", 0));
+
+        // 初始化 DEFAULT_HUGE_CACHE_BYTES,每个 Arena 缓存最近释放的 Huge 内存块的最大字节数,0 表示不开启
+        DEFAULT_HUGE_CACHE_BYTES = Math.max(0, SystemPropertyUtil.getLong("io.netty.allocator.hugeCacheBytes", 0));
+
+        // 初始化 DEFAULT_INITIAL_CHUNK_SIZE,每个 Arena 第一个 Chunk 的大小,之后翻倍直到 chunkSize,0 表示固定为 chunkSize
+        int initialChunkSize = SystemPropertyUtil.getInt("io.netty.allocator.initialChunkSize", 0);
+        DEFAULT_INITIAL_CHUNK_SIZE = initialChunkSize > 0 ? MathUtil.safeFindNextPositivePowerOfTwo(initialChunkSize) : 0;
+
+        // 初始化 DEFAULT_LAZY_ARENAS,Arena 是否在第一次被线程缓存选中时才创建
+        DEFAULT_LAZY_ARENAS = SystemPropertyUtil.getBoolean("io.netty.allocator.lazyArenas", true);
+
+        // 初始化 DEFAULT_ARENA_SELECTION,线程选择 Arena 的策略,默认选择线程最少的 Arena
+        String arenaSelection = SystemPropertyUtil.get("io.netty.allocator.arenaSelection", "leastUsed");
+        ArenaSelection defaultArenaSelection = ArenaSelection.LeastUsed;
+        for (ArenaSelection selection : ArenaSelection.values()) {
+            if (selection.name().equalsIgnoreCase(arenaSelection)) {
+                defaultArenaSelection = selection;
+            }
+        }
+        DEFAULT_ARENA_SELECTION = defaultArenaSelection;
+
+        // 初始化 DEFAULT_CACHE_STRIPES,按线程 id 分条带共享的 PoolThreadCache 数量,0 表示每个线程一个 PoolThreadCache
+        int cacheStripes = SystemPropertyUtil.getInt("io.netty.allocator.cacheStripes", 0);
+        DEFAULT_CACHE_STRIPES = cacheStripes > 0 ? MathUtil.safeFindNextPositivePowerOfTwo(cacheStripes) : 0;
+
+        // 初始化 DEFAULT_CONCURRENT_SUBPAGE,默认在 Subpage 池的锁内分配内存段
+        DEFAULT_CONCURRENT_SUBPAGE = SystemPropertyUtil.getBoolean("io.netty.allocator.concurrentSubpage", false);
+
     }
 
 
@@ -147,13 +259,84 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
 
     private final int chunkSize;
 
-    private final List<PoolArenaMetric> heapArenaMetrics;
+    /**Subpage 是否通过 CAS 无锁分配和释放内存段*/
+    final boolean concurrentSubpage;
+
+    /**Normal 内存块在 PoolChunkList 之间的放置策略*/
+    final PoolArena.PlacementPolicy placementPolicy;
+
+    /**每个 Arena 预先分配的空闲 Chunk 数量,0 表示不开启*/
+    final int spareChunks;
 
-    private final List<PoolArenaMetric> directArenaMetrics;
+    /**Chunk 的内存利用率达到该百分比时开始补充空闲 Chunk*/
+    final int spareChunkWatermark;
+
+    /**补充空闲 Chunk 的后台线程,所有 Arena 共用,未指定时创建空闲 60 秒后退出的单个线程*/
+    final Executor spareChunkExecutor;
+
+    /**每个 Arena 第一个 Chunk 的大小,之后翻倍直到 chunkSize,0 表示固定为 chunkSize*/
+    final int initialChunkSize;
+
+    /**每个 Arena 缓存最近释放的 Huge 内存块的最大字节数,0 表示不开启*/
+    final long hugeCacheBytes;
+
+    /**每个 Arena 中其他线程归还内存块的队列容量,0 表示不开启*/
+    final int remoteFreeQueueCapacity;
+
+    /**Heap/Direct Arena 共享的空闲 Chunk 池,为 null 表示不开启*/
+    final PoolChunkPool<byte[]> heapChunkPool;
+    final PoolChunkPool<ByteBuffer> directChunkPool;
+
+    /**线程选择 Arena 的策略*/
+    final ArenaSelection arenaSelection;
+
+    /**
+     * 按线程 id 分条带共享的 PoolThreadCache,为 null 表示每个线程一个 PoolThreadCache
+     *
+     * 用于虚拟线程或频繁创建短生命周期线程的场景,避免每个线程创建和释放缓存以及 initialValue() 的全局锁,
+     * 同一条带的线程同时分配时只有一个线程使用缓存,其他线程直接从 Arena 分配
+     */
+    private final AtomicReferenceArray<PoolThreadCache> stripedCaches;
+
+    /**线程缓存迁移到其他 Arena 的次数*/
+    private final LongCounter numRebalances = PlatformDependent.newLongCounter();
+
+    /**开启缓存的 PoolThreadCache,trim 时释放空闲线程的缓存,按槽位选择 Arena 时包括所有 PoolThreadCache*/
+    private final Set<PoolThreadCache> threadCaches =
+            Collections.newSetFromMap(PlatformDependent.<PoolThreadCache, Boolean>newConcurrentHashMap());
+
+    /**trim 从空闲线程缓存中清空的字节数,以及销毁空闲 Chunk 释放的字节数*/
+    private final LongCounter trimmedCacheBytes = PlatformDependent.newLongCounter();
+    private final LongCounter trimmedChunkBytes = PlatformDependent.newLongCounter();
+
+    /**已创建的 Arena 的度量,创建 Arena 时替换*/
+    private volatile List<PoolArenaMetric> heapArenaMetrics;
+
+    private volatile List<PoolArenaMetric> directArenaMetrics;
+
+    /**已创建的 Arena 数量,已创建的 Arena 总是数组的前缀*/
+    private volatile int numHeapArenasCreated;
+
+    private volatile int numDirectArenasCreated;
+
+    /**延迟创建 Arena 所需的参数*/
+    private final int pageSize;
+    private final int maxOrder;
+    private final int pageShifts;
+    private final int directMemoryCacheAlignment;
+    private final boolean useRunChunk;
 
     /**创建内存分配的度量*/
     private final PooledByteBufAllocatorMetric metric;
 
+    public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
+                                  int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, DEFAULT_USE_RUN_CHUNK);
+    }
+
     /**
      *@param preferDirect 表示是否倾向于使用堆外内存
      *@param nHeapArena   堆的arena的数目
@@ -165,16 +348,59 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
      *@param normalCacheSize
      *@param useCacheForAllThreads
      *@param directMemoryCacheAlignment
+     *@param useRunChunk  Chunk是否按run分配连续的Page,否则使用满二叉树按2的幂次分配
      * */
     public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
                                   int tinyCacheSize, int smallCacheSize, int normalCacheSize,
-                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment) {
+                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment,
+                                  boolean useRunChunk) {
+        this(builder().preferDirect(preferDirect).nHeapArena(nHeapArena).nDirectArena(nDirectArena)
+                .pageSize(pageSize).maxOrder(maxOrder)
+                .tinyCacheSize(tinyCacheSize).smallCacheSize(smallCacheSize).normalCacheSize(normalCacheSize)
+                .useCacheForAllThreads(useCacheForAllThreads).directMemoryCacheAlignment(directMemoryCacheAlignment)
+                .useRunChunk(useRunChunk));
+    }
+
+    private PooledByteBufAllocator(Builder builder) {
         //主要设置是否支持堆外内存
-        super(preferDirect);
-        threadCache = new PoolThreadLocalCache(useCacheForAllThreads);
-        this.tinyCacheSize = tinyCacheSize;
-        this.smallCacheSize = smallCacheSize;
-        this.normalCacheSize = normalCacheSize;
+        super(builder.preferDirect);
+        final int nHeapArena = builder.nHeapArena;
+        final int nDirectArena = builder.nDirectArena;
+        final int pageSize = builder.pageSize;
+        final int maxOrder = builder.maxOrder;
+        final int directMemoryCacheAlignment = builder.directMemoryCacheAlignment;
+        threadCache = new PoolThreadLocalCache(builder.useCacheForAllThreads);
+        this.tinyCacheSize = builder.tinyCacheSize;
+        this.smallCacheSize = builder.smallCacheSize;
+        this.normalCacheSize = builder.normalCacheSize;
+        if (builder.cacheSizeScale < 1) {
+            throw new IllegalArgumentException("cacheSizeScale: " + builder.cacheSizeScale + " (expected: >= 1)");
+        }
+        this.cacheSizeScale = builder.cacheSizeScale;
+        concurrentSubpage = builder.concurrentSubpage;
+        if (builder.remoteFreeQueueCapacity < 0) {
+            throw new IllegalArgumentException("remoteFreeQueueCapacity: "
+                    + builder.remoteFreeQueueCapacity + " (expected: >= 0)");
+        }
+        remoteFreeQueueCapacity = builder.remoteFreeQueueCapacity;
+        placementPolicy = ObjectUtil.checkNotNull(builder.placementPolicy, "placementPolicy");
+        arenaSelection = ObjectUtil.checkNotNull(builder.arenaSelection, "arenaSelection");
+        if (builder.cacheStripes < 0) {
+            throw new IllegalArgumentException("cacheStripes: " + builder.cacheStripes + " (expected: >= 0)");
+        }
+        stripedCaches = builder.cacheStripes > 0 ? new AtomicReferenceArray<PoolThreadCache>(
+                MathUtil.safeFindNextPositivePowerOfTwo(builder.cacheStripes)) : null;
+        if (builder.spareChunks < 0) {
+            throw new IllegalArgumentException("spareChunks: " + builder.spareChunks + " (expected: >= 0)");
+        }
+        spareChunks = builder.spareChunks;
+        spareChunkWatermark = builder.spareChunkWatermark;
+        if (spareChunks > 0) {
+            spareChunkExecutor = builder.spareChunkExecutor != null ?
+                    builder.spareChunkExecutor : newSpareChunkExecutor();
+        } else {
+            spareChunkExecutor = null;
+        }
 
         //计算chunk的大小 如 pageSize是8KB=8192B maxOrder为11  8KB<11=16MB
         chunkSize = validateAndCalculateChunkSize(pageSize, maxOrder);
@@ -202,44 +428,341 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
         //根据pageSize计算位  8192==》2的13次 所以结果是13
         int pageShifts = validateAndCalculatePageShifts(pageSize);
 
-        if(nDirectArena>0){
-            //创建相应的堆arena块数
-            heapArenas =newArenaArray(nHeapArena);
-            //创建PoolArenaMetric相应的度量
-            List<PoolArenaMetric> metrics = new ArrayList<PoolArenaMetric>(heapArenas.length);
+        // 空闲 Chunk 池需要在 Arena 之前创建,每个 Arena 对应一个分段
+        if (builder.hugeCacheBytes < 0) {
+            throw new IllegalArgumentException("hugeCacheBytes: " + builder.hugeCacheBytes + " (expected: >= 0)");
+        }
+        hugeCacheBytes = builder.hugeCacheBytes;
+        if (builder.initialChunkSize < 0) {
+            throw new IllegalArgumentException("initialChunkSize: " + builder.initialChunkSize + " (expected: >= 0)");
+        }
+        initialChunkSize = builder.initialChunkSize > 0 ?
+                MathUtil.safeFindNextPositivePowerOfTwo(builder.initialChunkSize) : 0;
 
-            for (int i = 0; i < heapArenas.length; i ++) {
-                // 创建 HeapArena 对象
-                PoolArena.HeapArena arena = new PoolArena.HeapArena(this,
-                        pageSize, maxOrder, pageShifts, chunkSize,
-                        directMemoryCacheAlignment);
-                heapArenas[i] = arena;
-                metrics.add(arena);
+        final int freeChunkPoolSize = builder.freeChunkPoolSize;
+        if (freeChunkPoolSize < 0) {
+            throw new IllegalArgumentException("freeChunkPoolSize: " + freeChunkPoolSize + " (expected: >= 0)");
+        }
+        if (builder.freeChunkIdleMillis < 0) {
+            throw new IllegalArgumentException("freeChunkIdleMillis: "
+                    + builder.freeChunkIdleMillis + " (expected: >= 0)");
+        }
+        if (builder.trimIntervalMillis < 0) {
+            throw new IllegalArgumentException("trimIntervalMillis: "
+                    + builder.trimIntervalMillis + " (expected: >= 0)");
+        }
+        if (freeChunkPoolSize > 0) {
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(builder.freeChunkIdleMillis);
+            heapChunkPool = new PoolChunkPool<byte[]>(Math.max(1, nHeapArena), freeChunkPoolSize, idleNanos);
+            directChunkPool = new PoolChunkPool<ByteBuffer>(
+                    Math.max(1, nDirectArena), freeChunkPoolSize, idleNanos);
+        } else {
+            heapChunkPool = null;
+            directChunkPool = null;
+        }
 
-            }
-            heapArenaMetrics = Collections.unmodifiableList(metrics);
+        this.pageSize = pageSize;
+        this.maxOrder = maxOrder;
+        this.pageShifts = pageShifts;
+        this.directMemoryCacheAlignment = directMemoryCacheAlignment;
+        this.useRunChunk = builder.useRunChunk;
+
+        // 只创建数组,Arena 在第一次被线程缓存选中时创建,见 PoolThreadLocalCache#initialValue()
+        if (nHeapArena > 0) {
+            //创建相应的堆arena块数
+            heapArenas =newArenaArray(nHeapArena);
         }else{
             heapArenas = null;
-            heapArenaMetrics = Collections.emptyList();
         }
+        heapArenaMetrics = Collections.emptyList();
 
         if (nDirectArena > 0) {
             directArenas = newArenaArray(nDirectArena);
-            List<PoolArenaMetric> metrics = new ArrayList<PoolArenaMetric>(directArenas.length);
-            for (int i = 0; i < directArenas.length; i ++) {
-                PoolArena.DirectArena arena = new PoolArena.DirectArena(
-                        this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment);
-                directArenas[i] = arena;
-                metrics.add(arena);
-            }
-            directArenaMetrics = Collections.unmodifiableList(metrics);
         } else {
             directArenas = null;
-            directArenaMetrics = Collections.emptyList();
+        }
+        directArenaMetrics = Collections.emptyList();
+
+        if (!builder.lazyArenas) {
+            for (int i = 0; heapArenas != null && i < heapArenas.length; i ++) {
+                heapArena(i);
+            }
+            for (int i = 0; directArenas != null && i < directArenas.length; i ++) {
+                directArena(i);
+            }
         }
 
         // 创建 PooledByteBufAllocatorMetric
         metric = new PooledByteBufAllocatorMetric(this);
+
+        if (builder.trimIntervalMillis > 0) {
+            TrimTask.schedule(this, builder.trimIntervalMillis);
+        }
+    }
+
+    /**
+     * 创建构建器,未设置的选项使用默认值,即对应的 io.netty.allocator.* 系统属性
+     *
+     * 系统属性在类加载时读取一次,只作为默认值;需要不同配置的分配器共存时通过构建器设置
+     * */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * {@link PooledByteBufAllocator} 的构建器
+     */
+    public static final class Builder {
+
+        private boolean preferDirect;
+        private int nHeapArena = DEFAULT_NUM_HEAP_ARENA;
+        private int nDirectArena = DEFAULT_NUM_DIRECT_ARENA;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int maxOrder = DEFAULT_MAX_ORDER;
+        private int tinyCacheSize = DEFAULT_TINY_CACHE_SIZE;
+        private int smallCacheSize = DEFAULT_SMALL_CACHE_SIZE;
+        private int normalCacheSize = DEFAULT_NORMAL_CACHE_SIZE;
+        private int cacheSizeScale = DEFAULT_CACHE_SIZE_SCALE;
+        private boolean useCacheForAllThreads = DEFAULT_USE_CACHE_FOR_ALL_THREADS;
+        private int directMemoryCacheAlignment = DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT;
+        private boolean useRunChunk = DEFAULT_USE_RUN_CHUNK;
+        private boolean concurrentSubpage = DEFAULT_CONCURRENT_SUBPAGE;
+        private int remoteFreeQueueCapacity = DEFAULT_REMOTE_FREE_QUEUE_CAPACITY;
+        private PoolArena.PlacementPolicy placementPolicy = DEFAULT_PLACEMENT_POLICY;
+        private int spareChunks = DEFAULT_SPARE_CHUNKS;
+        private int spareChunkWatermark = DEFAULT_SPARE_CHUNK_WATERMARK;
+        private Executor spareChunkExecutor;
+        private int freeChunkPoolSize = DEFAULT_FREE_CHUNK_POOL_SIZE;
+        private long freeChunkIdleMillis = DEFAULT_FREE_CHUNK_IDLE_MILLIS;
+        private long trimIntervalMillis = DEFAULT_TRIM_INTERVAL_MILLIS;
+        private long hugeCacheBytes = DEFAULT_HUGE_CACHE_BYTES;
+        private int initialChunkSize = DEFAULT_INITIAL_CHUNK_SIZE;
+        private boolean lazyArenas = DEFAULT_LAZY_ARENAS;
+        private ArenaSelection arenaSelection = DEFAULT_ARENA_SELECTION;
+        private int cacheStripes = DEFAULT_CACHE_STRIPES;
+
+        private Builder() {
+        }
+
+        /**是否倾向于使用堆外内存,默认 false*/
+        public Builder preferDirect(boolean preferDirect) {
+            this.preferDirect = preferDirect;
+            return this;
+        }
+
+        /**Heap Arena 的数量,0 表示不池化 Heap 内存*/
+        public Builder nHeapArena(int nHeapArena) {
+            this.nHeapArena = nHeapArena;
+            return this;
+        }
+
+        /**Direct Arena 的数量,0 表示不池化 Direct 内存*/
+        public Builder nDirectArena(int nDirectArena) {
+            this.nDirectArena = nDirectArena;
+            return this;
+        }
+
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**chunkSize 为 pageSize << maxOrder*/
+        public Builder maxOrder(int maxOrder) {
+            this.maxOrder = maxOrder;
+            return this;
+        }
+
+        public Builder tinyCacheSize(int tinyCacheSize) {
+            this.tinyCacheSize = tinyCacheSize;
+            return this;
+        }
+
+        public Builder smallCacheSize(int smallCacheSize) {
+            this.smallCacheSize = smallCacheSize;
+            return this;
+        }
+
+        public Builder normalCacheSize(int normalCacheSize) {
+            this.normalCacheSize = normalCacheSize;
+            return this;
+        }
+
+        /**
+         * 线程缓存容量的自适应倍数,每个缓存的容量在 [cacheSize / scale, cacheSize * scale] 之间调整,
+         * 为 1 表示缓存容量固定
+         * */
+        public Builder cacheSizeScale(int cacheSizeScale) {
+            this.cacheSizeScale = cacheSizeScale;
+            return this;
+        }
+
+        /**为 false 时只有 FastThreadLocalThread 使用线程缓存*/
+        public Builder useCacheForAllThreads(boolean useCacheForAllThreads) {
+            this.useCacheForAllThreads = useCacheForAllThreads;
+            return this;
+        }
+
+        public Builder directMemoryCacheAlignment(int directMemoryCacheAlignment) {
+            this.directMemoryCacheAlignment = directMemoryCacheAlignment;
+            return this;
+        }
+
+        /**Chunk是否按run分配连续的Page,否则使用满二叉树按2的幂次分配*/
+        public Builder useRunChunk(boolean useRunChunk) {
+            this.useRunChunk = useRunChunk;
+            return this;
+        }
+
+        /**Subpage 是否通过 CAS 无锁分配和释放内存段,否则在 Subpage 池的锁内分配*/
+        public Builder concurrentSubpage(boolean concurrentSubpage) {
+            this.concurrentSubpage = concurrentSubpage;
+            return this;
+        }
+
+        /**每个 Arena 中其他线程归还内存块的队列容量,0 表示不开启,其他线程在 Arena 的锁内释放*/
+        public Builder remoteFreeQueueCapacity(int remoteFreeQueueCapacity) {
+            this.remoteFreeQueueCapacity = remoteFreeQueueCapacity;
+            return this;
+        }
+
+        /**Normal 内存块在 PoolChunkList 之间的放置策略*/
+        public Builder placementPolicy(PoolArena.PlacementPolicy placementPolicy) {
+            this.placementPolicy = placementPolicy;
+            return this;
+        }
+
+        /**每个 Arena 由后台线程预先分配的空闲 Chunk 数量,0 表示不开启*/
+        public Builder spareChunks(int spareChunks) {
+            this.spareChunks = spareChunks;
+            return this;
+        }
+
+        /**Chunk 的内存利用率达到该百分比时开始补充空闲 Chunk*/
+        public Builder spareChunkWatermark(int spareChunkWatermark) {
+            this.spareChunkWatermark = spareChunkWatermark;
+            return this;
+        }
+
+        /**
+         * 补充空闲 Chunk 的线程池,多个分配器可以共用,为 null 时每个分配器创建一个后台线程
+         * 只在 spareChunks 大于 0 时使用
+         * */
+        public Builder spareChunkExecutor(Executor spareChunkExecutor) {
+            this.spareChunkExecutor = spareChunkExecutor;
+            return this;
+        }
+
+        /**同类型 Arena 共享的空闲 Chunk 池的容量,0 表示不开启*/
+        public Builder freeChunkPoolSize(int freeChunkPoolSize) {
+            this.freeChunkPoolSize = freeChunkPoolSize;
+            return this;
+        }
+
+        /**空闲 Chunk 在池中保留的最长时间,超过后在访问所在分段或 trim 时销毁*/
+        public Builder freeChunkIdleMillis(long freeChunkIdleMillis) {
+            this.freeChunkIdleMillis = freeChunkIdleMillis;
+            return this;
+        }
+
+        /**定时调用 {@link PooledByteBufAllocator#trim()} 的间隔,0 表示不开启*/
+        public Builder trimIntervalMillis(long trimIntervalMillis) {
+            this.trimIntervalMillis = trimIntervalMillis;
+            return this;
+        }
+
+        /**每个 Arena 缓存最近释放的 Huge 内存块的最大字节数,0 表示不开启*/
+        public Builder hugeCacheBytes(long hugeCacheBytes) {
+            this.hugeCacheBytes = hugeCacheBytes;
+            return this;
+        }
+
+        /**
+         * 每个 Arena 第一个 Chunk 的大小,向上取整为 2 的幂次,之后翻倍直到 chunkSize,
+         * 0 表示固定为 chunkSize
+         * */
+        public Builder initialChunkSize(int initialChunkSize) {
+            this.initialChunkSize = initialChunkSize;
+            return this;
+        }
+
+        /**Arena 是否在第一次被线程缓存选中时才创建,为 false 时在构造方法中创建所有 Arena*/
+        public Builder lazyArenas(boolean lazyArenas) {
+            this.lazyArenas = lazyArenas;
+            return this;
+        }
+
+        /**线程选择 Arena 的策略*/
+        public Builder arenaSelection(ArenaSelection arenaSelection) {
+            this.arenaSelection = arenaSelection;
+            return this;
+        }
+
+        /**
+         * 按线程 id 分条带共享的 PoolThreadCache 数量,向上取整为 2 的幂次,0 表示每个线程一个 PoolThreadCache
+         * 用于虚拟线程或频繁创建短生命周期线程的场景
+         *
+         * 开启后 PooledByteBuf 不通过 Recycler 复用,线程不创建 InternalThreadLocalMap 和 Recycler 的 Stack,
+         * 每次分配多创建一个 PooledByteBuf 对象
+         * */
+        public Builder cacheStripes(int cacheStripes) {
+            this.cacheStripes = cacheStripes;
+            return this;
+        }
+
+        public PooledByteBufAllocator build() {
+            return new PooledByteBufAllocator(this);
+        }
+    }
+
+    private static Executor newSpareChunkExecutor() {
+        return new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new FastThreadLocalThread(r, "pooledByteBufAllocator-spareChunk");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * 下标为 idx 的 Heap Arena,还未创建时创建
+     * 在构造方法或 PoolThreadLocalCache#initialValue() 的锁内调用
+     * */
+    private PoolArena<byte[]> heapArena(int idx) {
+        PoolArena<byte[]> arena = heapArenas[idx];
+        if (arena == null) {
+            assert idx == numHeapArenasCreated;
+            arena = new PoolArena.HeapArena(this, pageSize, maxOrder, pageShifts, chunkSize,
+                    directMemoryCacheAlignment, useRunChunk);
+            heapArenas[idx] = arena;
+            heapArenaMetrics = appendMetric(heapArenaMetrics, arena);
+            numHeapArenasCreated = idx + 1;
+        }
+        return arena;
+    }
+
+    /**下标为 idx 的 Direct Arena,还未创建时创建*/
+    private PoolArena<ByteBuffer> directArena(int idx) {
+        PoolArena<ByteBuffer> arena = directArenas[idx];
+        if (arena == null) {
+            assert idx == numDirectArenasCreated;
+            arena = new PoolArena.DirectArena(this, pageSize, maxOrder, pageShifts, chunkSize,
+                    directMemoryCacheAlignment, useRunChunk);
+            directArenas[idx] = arena;
+            directArenaMetrics = appendMetric(directArenaMetrics, arena);
+            numDirectArenasCreated = idx + 1;
+        }
+        return arena;
+    }
+
+    private static List<PoolArenaMetric> appendMetric(List<PoolArenaMetric> metrics, PoolArenaMetric metric) {
+        List<PoolArenaMetric> newMetrics = new ArrayList<PoolArenaMetric>(metrics.size() + 1);
+        newMetrics.addAll(metrics);
+        newMetrics.add(metric);
+        return Collections.unmodifiableList(newMetrics);
     }
 
     @SuppressWarnings("unchecked")
@@ -267,6 +790,9 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
      */
     private final int normalCacheSize;
 
+    /**自适应缓存容量的调整倍数,为 1 表示缓存容量固定*/
+    private final int cacheSizeScale;
+
     public static boolean isDirectMemoryCacheAlignmentSupported() {
         return PlatformDependent.hasUnsafe();
     }
@@ -305,6 +831,118 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
         return chunkSize;
     }
 
+    /**
+     * Return a {@link List} of all heap {@link PoolArenaMetric}s that are provided by this pool.
+     * Arenas that are not created yet are not included.
+     */
+    public List<PoolArenaMetric> heapArenas() {
+        return heapArenaMetrics;
+    }
+
+    /**
+     * Return a {@link List} of all direct {@link PoolArenaMetric}s that are provided by this pool.
+     * Arenas that are not created yet are not included.
+     */
+    public List<PoolArenaMetric> directArenas() {
+        return directArenaMetrics;
+    }
+
+    /**
+     * 释放空闲的内存,可以在任意线程调用
+     *
+     * 1. 清空距离上一次 trim 没有分配过内存的线程缓存,释放已结束线程的缓存
+     * 2. 销毁各个 Arena 中 qInit 和 q000 完全空闲的 Chunk,以及 Huge 缓存中的 Chunk
+     * 3. 销毁空闲 Chunk 池中超时的 Chunk
+     *
+     * 线程缓存在连续两次 trim 之间没有分配才会被清空,所以定时 trim 时一个间隔内的空闲不影响缓存
+     * @return 销毁 Chunk 释放的字节数
+     */
+    public long trim() {
+        long cacheBytes = 0;
+        for (Iterator<PoolThreadCache> i = threadCaches.iterator(); i.hasNext();) {
+            PoolThreadCache cache = i.next();
+            cacheBytes += cache.trimIfIdle();
+            if (cache.isFreed()) {
+                i.remove();
+                threadCache.releaseWorkerSlot(cache);
+            }
+        }
+
+        long chunkBytes = trimArenas(heapArenas, numHeapArenasCreated) +
+                trimArenas(directArenas, numDirectArenasCreated);
+        if (heapChunkPool != null) {
+            chunkBytes += heapChunkPool.trim();
+        }
+        if (directChunkPool != null) {
+            chunkBytes += directChunkPool.trim();
+        }
+
+        trimmedCacheBytes.add(cacheBytes);
+        trimmedChunkBytes.add(chunkBytes);
+        if (logger.isDebugEnabled() && (cacheBytes > 0 || chunkBytes > 0)) {
+            logger.debug("Trimmed {} byte(s) from thread caches and released {} byte(s) of chunks",
+                    cacheBytes, chunkBytes);
+        }
+        return chunkBytes;
+    }
+
+    private static <T> long trimArenas(PoolArena<T>[] arenas, int numCreated) {
+        long trimmed = 0;
+        for (int i = 0; i < numCreated; i ++) {
+            trimmed += arenas[i].trim();
+        }
+        return trimmed;
+    }
+
+    /**
+     * 线程缓存清理后调用,按槽位选择 Arena 时检查所属 Arena 是否过载
+     * */
+    final void rebalance(PoolThreadCache cache) {
+        if (arenaSelection == ArenaSelection.WorkerSlot && threadCache.rebalance(cache)) {
+            numRebalances.increment();
+        }
+    }
+
+    final long numRebalances() {
+        return numRebalances.value();
+    }
+
+    final long trimmedCacheBytes() {
+        return trimmedCacheBytes.value();
+    }
+
+    final long trimmedChunkBytes() {
+        return trimmedChunkBytes.value();
+    }
+
+    /**配置的 Heap Arena 数量,包括还未创建的*/
+    final int numHeapArenas() {
+        return heapArenas == null ? 0 : heapArenas.length;
+    }
+
+    final int numCreatedHeapArenas() {
+        return numHeapArenasCreated;
+    }
+
+    /**配置的 Direct Arena 数量,包括还未创建的*/
+    final int numDirectArenas() {
+        return directArenas == null ? 0 : directArenas.length;
+    }
+
+    final int numCreatedDirectArenas() {
+        return numDirectArenasCreated;
+    }
+
+    /**Heap Arena 共享的空闲 Chunk 池中的 Chunk 数量*/
+    final int numHeapFreeChunks() {
+        return heapChunkPool == null ? 0 : heapChunkPool.size();
+    }
+
+    /**Direct Arena 共享的空闲 Chunk 池中的 Chunk 数量*/
+    final int numDirectFreeChunks() {
+        return directChunkPool == null ? 0 : directChunkPool.size();
+    }
+
     /**获取池化内存分配器的度量*/
     @Override
     public PooledByteBufAllocatorMetric metric() {
@@ -314,18 +952,142 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
     @Override
     protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
         //获取相应的PoolThreadCache对象
-        PoolThreadCache cache = threadCache.get();
+        PoolThreadCache cache = threadCache();
 
         /**获取当前线程对应的heapArena*/
         PoolArena<byte[]> heapArena = cache.heapArena;
 
         final ByteBuf buf;
         if(heapArena!=null){
-            //如果
+            //从 Arena 中分配池化内存
             buf=heapArena.allocate(cache,initialCapacity,maxCapacity);
         }else{
-            //TODO:为什么heapArena为空,则采用非池化的方式？
+            //nHeapArena 为 0 时不池化 Heap 内存,直接创建非池化的 ByteBuf
+            buf=new UnpooledHeapByteBuf(this,initialCapacity,maxCapacity);
+        }
+        return buf;
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        PoolThreadCache cache = threadCache();
+        PoolArena<ByteBuffer> directArena = cache.directArena;
+
+        final ByteBuf buf;
+        if (directArena != null) {
+            buf = directArena.allocate(cache, initialCapacity, maxCapacity);
+        } else {
+            //nDirectArena 为 0 时不池化 Direct 内存
+            buf = new UnpooledDirectByteBuf(this, initialCapacity, maxCapacity);
         }
+        return buf;
+    }
+
+    /**
+     * 分配 Heap 内存块,返回 {@link PoolHandle} 表示的 handle,不创建 ByteBuf 对象
+     * 通过 {@link PoolHandle} 的静态方法读写,{@link PoolHandle#release(long)} 释放
+     * @throws IllegalStateException 分配器没有 Heap Arena,即 nHeapArena 为 0
+     * */
+    public long allocateHeapHandle(int capacity) {
+        PoolThreadCache cache = threadCache();
+        PoolArena<byte[]> heapArena = cache.heapArena;
+        if (heapArena == null) {
+            throw new IllegalStateException("no heap arenas (nHeapArena: 0)");
+        }
+        return allocateHandle(heapArena, cache, capacity, 0);
+    }
+
+    /**
+     * 分配 Direct 内存块,返回 {@link PoolHandle} 表示的 handle,不创建 ByteBuf 对象
+     * @throws IllegalStateException 分配器没有 Direct Arena,即 nDirectArena 为 0
+     * */
+    public long allocateDirectHandle(int capacity) {
+        PoolThreadCache cache = threadCache();
+        PoolArena<ByteBuffer> directArena = cache.directArena;
+        if (directArena == null) {
+            throw new IllegalStateException("no direct arenas (nDirectArena: 0)");
+        }
+        return allocateHandle(directArena, cache, capacity, 1);
+    }
+
+    /**
+     * 通过 Arena 的正常路径(线程缓存、Subpage、Chunk、Huge)分配到当前线程的 scratch 中,编码后清空 scratch
+     * */
+    private static <T> long allocateHandle(PoolArena<T> arena, PoolThreadCache cache, int capacity, int scratchIdx) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: >= 0)");
+        }
+        PooledByteBuf<?>[] scratch = HANDLE_SCRATCH.get();
+        @SuppressWarnings("unchecked")
+        PooledByteBuf<T> buf = (PooledByteBuf<T>) scratch[scratchIdx];
+        if (buf == null) {
+            buf = arena.newByteBuf(Integer.MAX_VALUE);
+            scratch[scratchIdx] = buf;
+        }
+        arena.allocate(cache, buf, capacity);
+        try {
+            return PoolHandle.encode(buf);
+        } finally {
+            buf.chunk = null;
+            buf.memory = null;
+            buf.cache = null;
+            buf.handle = -1;
+        }
+    }
+
+    /**
+     * 分配 handle 时接收分配结果的 PooledByteBuf,每个线程 Heap 和 Direct 各一个,不会被回收
+     */
+    private static final FastThreadLocal<PooledByteBuf<?>[]> HANDLE_SCRATCH =
+            new FastThreadLocal<PooledByteBuf<?>[]>() {
+                @Override
+                protected PooledByteBuf<?>[] initialValue() {
+                    return new PooledByteBuf<?>[2];
+                }
+            };
+
+    final int pageSize() {
+        return pageSize;
+    }
+
+    /**获取当前线程的 PoolThreadCache,条带模式下为当前线程所在条带的 PoolThreadCache*/
+    final PoolThreadCache threadCache() {
+        if (stripedCaches != null) {
+            return stripedCache();
+        }
+        PoolThreadCache cache = threadCache.get();
+        assert cache != null;
+        return cache;
+    }
+
+    /**当前线程已有的 PoolThreadCache,没有时返回 null,不会创建*/
+    final PoolThreadCache threadCacheIfExists() {
+        if (stripedCaches != null) {
+            return stripedCaches.get(stripeIdx());
+        }
+        return threadCache.isSet() ? threadCache.get() : null;
+    }
+
+    /**
+     * 当前线程所在条带的 PoolThreadCache,还未创建时创建
+     * 条带由线程 id 决定,不需要线程局部变量
+     * */
+    /**是否按线程 id 分条带共享 PoolThreadCache*/
+    boolean hasStripedCaches() {
+        return stripedCaches != null;
+    }
+
+    private PoolThreadCache stripedCache() {
+        final int idx = stripeIdx();
+        PoolThreadCache cache = stripedCaches.get(idx);
+        if (cache == null) {
+            cache = threadCache.newStripedCache(idx);
+        }
+        return cache;
+    }
+
+    private int stripeIdx() {
+        return (int) Thread.currentThread().getId() & stripedCaches.length() - 1;
     }
 
     /**
@@ -336,53 +1098,185 @@ public class PooledByteBufAllocator  extends AbstractByteBufAllocator implements
         /**是否支持缓存*/
         private final boolean useCacheForAllThreads;
 
+        /**按槽位选择 Arena 时已分配的槽位*/
+        private final BitSet workerSlots = new BitSet();
+
         PoolThreadLocalCache(boolean useCacheForAllThreads) {
             this.useCacheForAllThreads = useCacheForAllThreads;
         }
 
         @Override
         protected synchronized PoolThreadCache initialValue() {
-            final PoolArena<byte[]> heapArena =leastUsedArena(heapArenas);
-            final PoolArena<ByteBuffer> directArena = leastUsedArena(directArenas);
+            final int slot = arenaSelection == ArenaSelection.WorkerSlot ? workerSlots.nextClearBit(0) : -1;
+            final int heapIdx = slot < 0 ? leastUsedArena(heapArenas) : slotArena(heapArenas, slot);
+            final int directIdx = slot < 0 ? leastUsedArena(directArenas) : slotArena(directArenas, slot);
+            final PoolArena<byte[]> heapArena = heapIdx < 0 ? null : heapArena(heapIdx);
+            final PoolArena<ByteBuffer> directArena = directIdx < 0 ? null : directArena(directIdx);
 
             //创建开启缓存的PoolThreadCache
             Thread current = Thread.currentThread();
+            final PoolThreadCache cache;
             if (useCacheForAllThreads || current instanceof FastThreadLocalThread) {
-                return new PoolThreadCache(
+                cache = new PoolThreadCache(
                         heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize,
-                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL);
+                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL, cacheSizeScale, false);
+                threadCaches.add(cache);
+            } else {
+                // 创建不进行缓存的 PoolThreadCache 对象
+                cache = new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0, 1, false);
             }
+            if (slot >= 0) {
+                // 槽位需要在线程结束后归还,不缓存的线程也要在 trim 时检查
+                workerSlots.set(slot);
+                cache.workerSlot = slot;
+                threadCaches.add(cache);
+            }
+            return cache;
+        }
 
-            // 创建不进行缓存的 PoolThreadCache 对象
-            return new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0);
+        /**
+         * 创建下标为 idx 的条带的 PoolThreadCache,条带按线程最少的 Arena 选择
+         * 多个线程同时创建时只有第一个生效
+         * */
+        synchronized PoolThreadCache newStripedCache(int idx) {
+            PoolThreadCache cache = stripedCaches.get(idx);
+            if (cache != null) {
+                return cache;
+            }
+            final int heapIdx = leastUsedArena(heapArenas);
+            final int directIdx = leastUsedArena(directArenas);
+            cache = new PoolThreadCache(
+                    heapIdx < 0 ? null : heapArena(heapIdx), directIdx < 0 ? null : directArena(directIdx),
+                    tinyCacheSize, smallCacheSize, normalCacheSize,
+                    DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL, cacheSizeScale, true);
+            threadCaches.add(cache);
+            stripedCaches.set(idx, cache);
+            return cache;
         }
 
         @Override
         protected void onRemoval(PoolThreadCache threadCache) {
             // 释放缓存
+            threadCaches.remove(threadCache);
             threadCache.free();
+            releaseWorkerSlot(threadCache);
+        }
+
+        /**归还线程缓存的槽位,线程缓存释放后调用*/
+        synchronized void releaseWorkerSlot(PoolThreadCache cache) {
+            if (cache.workerSlot >= 0) {
+                workerSlots.clear(cache.workerSlot);
+                cache.workerSlot = -1;
+            }
         }
 
         /**
-         * 选择线程使用最少的PoolArena
+         * 所属 Arena 的线程缓存比最少的 Arena 多 2 个以上时视为过载,清空缓存并迁移到最少的 Arena
+         * 在所属线程调用
+         * @return 是否发生迁移
          * */
-        private <T> PoolArena<T> leastUsedArena(PoolArena<T>[] arenas){
+        synchronized boolean rebalance(PoolThreadCache cache) {
+            final int heapIdx = overloaded(heapArenas, cache.heapArena) ? leastUsedArena(heapArenas) : -1;
+            final int directIdx = overloaded(directArenas, cache.directArena) ? leastUsedArena(directArenas) : -1;
+            if (heapIdx < 0 && directIdx < 0) {
+                return false;
+            }
+            cache.moveTo(heapIdx < 0 ? cache.heapArena : heapArena(heapIdx),
+                    directIdx < 0 ? cache.directArena : directArena(directIdx));
+            return true;
+        }
+
+        private boolean overloaded(PoolArena<?>[] arenas, PoolArena<?> arena) {
+            if (arena == null) {
+                return false;
+            }
+            int idx = leastUsedArena(arenas);
+            return arena.numThreadCaches.get() - numThreadCaches(arenas[idx]) >= 2;
+        }
+
+        /**槽位对应的 Arena 下标,没有Arena时返回-1*/
+        private int slotArena(PoolArena<?>[] arenas, int slot) {
             if (arenas == null || arenas.length == 0) {
-                return null;
+                return -1;
             }
+            return slot % arenas.length;
+        }
 
-            /**获取第一个PoolArena*/
-            PoolArena<T> minArena = arenas[0];
+        /**
+         * 选择线程使用最少的PoolArena,返回其下标,没有Arena时返回-1
+         * 未创建的Arena没有线程使用,只有已创建的Arena都被使用时才会选中第一个未创建的Arena,
+         * 所以已创建的Arena总是数组的前缀
+         * */
+        private int leastUsedArena(PoolArena<?>[] arenas){
+            if (arenas == null || arenas.length == 0) {
+                return -1;
+            }
 
-            for (int i = 1; i < arenas.length; i++) {
-                PoolArena<T> arena = arenas[i];
-                if (arena.numThreadCaches.get() < minArena.numThreadCaches.get()) {
-                    minArena = arena;
+            int minIdx = 0;
+            int minThreadCaches = numThreadCaches(arenas[0]);
+            for (int i = 1; i < arenas.length && minThreadCaches > 0; i++) {
+                int threadCaches = numThreadCaches(arenas[i]);
+                if (threadCaches < minThreadCaches) {
+                    minIdx = i;
+                    minThreadCaches = threadCaches;
                 }
             }
-            return minArena;
+            return minIdx;
+        }
+
+        private int numThreadCaches(PoolArena<?> arena) {
+            return arena == null ? 0 : arena.numThreadCaches.get();
+        }
+
+    }
+
+    /**
+     * 定时调用 {@link #trim()} 的任务,所有分配器共用一个后台线程
+     * 只持有分配器的弱引用,分配器被回收后取消
+     */
+    private static final class TrimTask implements Runnable {
+
+        private static final ScheduledExecutorService EXECUTOR;
+
+        static {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new FastThreadLocalThread(r, "pooledByteBufAllocator-trimmer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            EXECUTOR = executor;
+        }
+
+        private final WeakReference<PooledByteBufAllocator> allocatorRef;
+
+        private volatile ScheduledFuture<?> future;
+
+        private TrimTask(PooledByteBufAllocator allocator) {
+            allocatorRef = new WeakReference<PooledByteBufAllocator>(allocator);
+        }
+
+        static void schedule(PooledByteBufAllocator allocator, long intervalMillis) {
+            TrimTask task = new TrimTask(allocator);
+            task.future = EXECUTOR.scheduleWithFixedDelay(task, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
         }
 
+        @Override
+        public void run() {
+            PooledByteBufAllocator allocator = allocatorRef.get();
+            if (allocator == null) {
+                future.cancel(false);
+                return;
+            }
+            try {
+                allocator.trim();
+            } catch (Throwable t) {
+                logger.warn("Failed to trim the allocator", t);
+            }
+        }
     }
 
 }
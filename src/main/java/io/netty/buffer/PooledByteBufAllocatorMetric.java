@@ -1,5 +1,7 @@
 package io.netty.buffer;
 
+import java.util.List;
+
 public final class PooledByteBufAllocatorMetric implements ByteBufAllocatorMetric{
 
     /**池化内存分配*/
@@ -9,6 +11,158 @@ public final class PooledByteBufAllocatorMetric implements ByteBufAllocatorMetri
         this.allocator = allocator;
     }
 
+    /**
+     * Return a {@link List} of all heap {@link PoolArenaMetric}s that are provided by this pool.
+     */
+    public List<PoolArenaMetric> heapArenas() {
+        return allocator.heapArenas();
+    }
+
+    /**
+     * Return a {@link List} of all direct {@link PoolArenaMetric}s that are provided by this pool.
+     */
+    public List<PoolArenaMetric> directArenas() {
+        return allocator.directArenas();
+    }
+
+    /**
+     * Return the number of heap arenas that have been created. Arenas are created lazily on first use by a
+     * thread cache unless {@code io.netty.allocator.lazyArenas} is {@code false}.
+     */
+    public int numCreatedHeapArenas() {
+        return allocator.numCreatedHeapArenas();
+    }
+
+    /**
+     * Return the number of heap arenas that are configured but not created yet.
+     */
+    public int numLazyHeapArenas() {
+        return allocator.numHeapArenas() - allocator.numCreatedHeapArenas();
+    }
+
+    /**
+     * Return the number of direct arenas that have been created.
+     */
+    public int numCreatedDirectArenas() {
+        return allocator.numCreatedDirectArenas();
+    }
+
+    /**
+     * Return the number of direct arenas that are configured but not created yet.
+     */
+    public int numLazyDirectArenas() {
+        return allocator.numDirectArenas() - allocator.numCreatedDirectArenas();
+    }
+
+    /**
+     * Return the number of times a thread cache was moved to a less used arena. This only happens when arenas
+     * are selected by worker slot.
+     */
+    public long numRebalances() {
+        return allocator.numRebalances();
+    }
+
+    /**
+     * Return the number of huge allocations served from the huge chunk caches of all arenas.
+     */
+    public long numHugeCacheHits() {
+        long hits = 0;
+        for (PoolArenaMetric arena : heapArenas()) {
+            hits += arena.numHugeCacheHits();
+        }
+        for (PoolArenaMetric arena : directArenas()) {
+            hits += arena.numHugeCacheHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Return the number of huge allocations that missed the huge chunk caches of all arenas.
+     */
+    public long numHugeCacheMisses() {
+        long misses = 0;
+        for (PoolArenaMetric arena : heapArenas()) {
+            misses += arena.numHugeCacheMisses();
+        }
+        for (PoolArenaMetric arena : directArenas()) {
+            misses += arena.numHugeCacheMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Return the number of buffer expansions that grew in place within their chunk, summed over all arenas.
+     */
+    public long numInPlaceExpansions() {
+        long expansions = 0;
+        for (PoolArenaMetric arena : heapArenas()) {
+            expansions += arena.numInPlaceExpansions();
+        }
+        for (PoolArenaMetric arena : directArenas()) {
+            expansions += arena.numInPlaceExpansions();
+        }
+        return expansions;
+    }
+
+    /**
+     * Return the number of buffer expansions that had to allocate new memory and copy, summed over all arenas.
+     */
+    public long numCopiedExpansions() {
+        long expansions = 0;
+        for (PoolArenaMetric arena : heapArenas()) {
+            expansions += arena.numCopiedExpansions();
+        }
+        for (PoolArenaMetric arena : directArenas()) {
+            expansions += arena.numCopiedExpansions();
+        }
+        return expansions;
+    }
+
+    /**
+     * Return the number of bytes that {@link PooledByteBufAllocator#trim()} drained from idle thread caches.
+     */
+    public long trimmedCacheBytes() {
+        return allocator.trimmedCacheBytes();
+    }
+
+    /**
+     * Return the number of bytes of chunks that {@link PooledByteBufAllocator#trim()} released.
+     */
+    public long trimmedChunkBytes() {
+        return allocator.trimmedChunkBytes();
+    }
+
+    /**
+     * Return the number of idle chunks kept in the heap chunk pool that is shared by all heap arenas.
+     */
+    public int numHeapFreeChunks() {
+        return allocator.numHeapFreeChunks();
+    }
+
+    /**
+     * Return the number of idle chunks kept in the direct chunk pool that is shared by all direct arenas.
+     */
+    public int numDirectFreeChunks() {
+        return allocator.numDirectFreeChunks();
+    }
+
+    /**
+     * Arenas do not track the bytes of live buffers, so this returns {@code -1} as allowed by
+     * {@link ByteBufAllocatorMetric#usedHeapMemory()}.
+     */
+    @Override
+    public long usedHeapMemory() {
+        return -1;
+    }
+
+    /**
+     * Arenas do not track the bytes of live buffers, so this returns {@code -1}.
+     */
+    @Override
+    public long usedDirectMemory() {
+        return -1;
+    }
+
 
 
 
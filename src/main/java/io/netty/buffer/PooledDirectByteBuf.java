@@ -0,0 +1,37 @@
+package io.netty.buffer;
+
+import io.netty.util.Recycler;
+
+import java.nio.ByteBuffer;
+
+class PooledDirectByteBuf extends PooledByteBuf<ByteBuffer> {
+
+    private static final Recycler<PooledDirectByteBuf> RECYCLER = new Recycler<PooledDirectByteBuf>() {
+        @Override
+        protected PooledDirectByteBuf newObject(Handle<PooledDirectByteBuf> handle) {
+            return new PooledDirectByteBuf(handle, 0); // 真正创建 PooledDirectByteBuf 对象
+        }
+    };
+
+    static PooledDirectByteBuf newInstance(int maxCapacity) {
+        return newInstance(maxCapacity, true);
+    }
+
+    /**recycle 为 false 时不经过当前线程的 Recycler,释放后由 GC 回收*/
+    static PooledDirectByteBuf newInstance(int maxCapacity, boolean recycle) {
+        // 从 Recycler 的对象池中获得 PooledDirectByteBuf 对象
+        PooledDirectByteBuf buf = recycle ? RECYCLER.get() : RECYCLER.getUnpooled();
+        // 重置 PooledDirectByteBuf 的属性
+        buf.reuse(maxCapacity);
+        return buf;
+    }
+
+    PooledDirectByteBuf(Recycler.Handle<? extends PooledDirectByteBuf> recyclerHandle, int maxCapacity) {
+        super(recyclerHandle, maxCapacity);
+    }
+
+    @Override
+    public int capacity() {
+        return length;
+    }
+}
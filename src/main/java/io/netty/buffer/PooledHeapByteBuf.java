@@ -12,8 +12,13 @@ class PooledHeapByteBuf extends PooledByteBuf<byte[]> {
     };
 
     static PooledHeapByteBuf newInstance(int maxCapacity) {
+        return newInstance(maxCapacity, true);
+    }
+
+    /**recycle 为 false 时不经过当前线程的 Recycler,释放后由 GC 回收*/
+    static PooledHeapByteBuf newInstance(int maxCapacity, boolean recycle) {
         // 从 Recycler 的对象池中获得 PooledHeapByteBuf 对象
-        PooledHeapByteBuf buf = RECYCLER.get();
+        PooledHeapByteBuf buf = recycle ? RECYCLER.get() : RECYCLER.getUnpooled();
         // 重置 PooledDirectByteBuf 的属性
         buf.reuse(maxCapacity);
         return buf;
@@ -26,11 +31,6 @@ class PooledHeapByteBuf extends PooledByteBuf<byte[]> {
 
     @Override
     public int capacity() {
-        return 0;
-    }
-
-    @Override
-    public ByteBuf capacity(int newCapacity) {
-        return null;
+        return length;
     }
 }
@@ -0,0 +1,33 @@
+package io.netty.buffer;
+
+import io.netty.util.Recycler;
+
+/**
+ * 通过Unsafe的方式访问堆外内存
+ * */
+final class PooledUnsafeDirectByteBuf extends PooledDirectByteBuf {
+
+    private static final Recycler<PooledUnsafeDirectByteBuf> RECYCLER = new Recycler<PooledUnsafeDirectByteBuf>() {
+        @Override
+        protected PooledUnsafeDirectByteBuf newObject(Handle<PooledUnsafeDirectByteBuf> handle) {
+            return new PooledUnsafeDirectByteBuf(handle, 0); // 真正创建 PooledUnsafeDirectByteBuf 对象
+        }
+    };
+
+    static PooledUnsafeDirectByteBuf newInstance(int maxCapacity) {
+        return newInstance(maxCapacity, true);
+    }
+
+    /**recycle 为 false 时不经过当前线程的 Recycler,释放后由 GC 回收*/
+    static PooledUnsafeDirectByteBuf newInstance(int maxCapacity, boolean recycle) {
+        // 从 Recycler 的对象池中获得 PooledUnsafeDirectByteBuf 对象,如果没有则进行创建
+        PooledUnsafeDirectByteBuf buf = recycle ? RECYCLER.get() : RECYCLER.getUnpooled();
+        // 重置 PooledUnsafeDirectByteBuf 的属性
+        buf.reuse(maxCapacity);
+        return buf;
+    }
+
+    private PooledUnsafeDirectByteBuf(Recycler.Handle<PooledUnsafeDirectByteBuf> recyclerHandle, int maxCapacity) {
+        super(recyclerHandle, maxCapacity);
+    }
+}
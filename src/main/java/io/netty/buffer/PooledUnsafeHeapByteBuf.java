@@ -17,8 +17,13 @@ public class PooledUnsafeHeapByteBuf extends PooledHeapByteBuf{
 
 
     static PooledUnsafeHeapByteBuf newUnsafeInstance(int maxCapacity) {
+        return newUnsafeInstance(maxCapacity, true);
+    }
+
+    /**recycle 为 false 时不经过当前线程的 Recycler,释放后由 GC 回收*/
+    static PooledUnsafeHeapByteBuf newUnsafeInstance(int maxCapacity, boolean recycle) {
         // 从 Recycler 的对象池中获得 PooledUnsafeHeapByteBuf 对象,如果没有则进行创建
-        PooledUnsafeHeapByteBuf buf = RECYCLER.get();
+        PooledUnsafeHeapByteBuf buf = recycle ? RECYCLER.get() : RECYCLER.getUnpooled();
         // 重置 PooledUnsafeHeapByteBuf 的属性
         buf.reuse(maxCapacity);
         return buf;
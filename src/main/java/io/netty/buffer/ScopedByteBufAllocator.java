@@ -0,0 +1,189 @@
+package io.netty.buffer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 请求级别的区域分配器
+ *
+ * 从 {@link PooledByteBufAllocator} 的 Arena 申请连续的 Page 作为区域,在区域内移动指针分配 ByteBuf,
+ * ByteBuf 释放时不归还内存,{@link #reset()} 或 {@link #close()} 时一次归还所有区域,
+ * 省去每个 ByteBuf 单独释放时 PoolChunk 的查找和合并。
+ *
+ * 大于区域大小的请求直接从 PooledByteBufAllocator 分配普通的池化 ByteBuf,由调用者按引用计数释放,不属于 scope;
+ * parent 没有对应类型的 Arena 时同样直接由 parent 分配。
+ *
+ * scope 关闭后其分配的 ByteBuf 不能再使用。不是线程安全的,同一时间只能在一个线程中使用。
+ */
+public final class ScopedByteBufAllocator extends AbstractByteBufAllocator implements Closeable {
+
+    /**默认的区域大小,以 Page 为单位*/
+    private static final int DEFAULT_REGION_PAGES = 8;
+
+    /**区域内分配的对齐粒度*/
+    private static final int ALIGNMENT = 8;
+
+    private final PooledByteBufAllocator parent;
+
+    /**区域大小,为 0 时按 Arena 的 pageSize 计算*/
+    private final int regionSize;
+
+    private final Region<byte[]> heapRegion = new Region<byte[]>();
+    private final Region<ByteBuffer> directRegion = new Region<ByteBuffer>();
+
+    /**申请的所有区域,归还时释放*/
+    private final List<PooledByteBuf<?>> regions = new ArrayList<PooledByteBuf<?>>();
+
+    /**当前已分配的字节数,包括对齐浪费的字节,reset 后清零*/
+    private long usedBytes;
+
+    /**usedBytes 的最大值*/
+    private long peakUsedBytes;
+
+    /**申请的区域字节数,reset 后清零*/
+    private long regionBytes;
+
+    /**usedBytes 的最大值对应的区域字节数*/
+    private long peakRegionBytes;
+
+    /**超出区域大小、直接从 PooledByteBufAllocator 分配的次数*/
+    private long numFallbackAllocations;
+
+    private boolean closed;
+
+    public ScopedByteBufAllocator(PooledByteBufAllocator parent) {
+        this(parent, 0);
+    }
+
+    /**
+     * @param regionSize 每次从 Arena 申请的区域大小,向上取整为规格化容量,0 表示 {@value #DEFAULT_REGION_PAGES} 个 Page
+     * */
+    public ScopedByteBufAllocator(PooledByteBufAllocator parent, int regionSize) {
+        super(false);
+        if (parent == null) {
+            throw new NullPointerException("parent");
+        }
+        if (regionSize < 0) {
+            throw new IllegalArgumentException("regionSize: " + regionSize + " (expected: >= 0)");
+        }
+        this.parent = parent;
+        this.regionSize = regionSize;
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+        PoolThreadCache cache = parent.threadCache();
+        if (cache.heapArena == null) {
+            // 没有 Heap Arena 时没有可以切分的区域,直接由 parent 分配
+            return parent.heapBuffer(initialCapacity, maxCapacity);
+        }
+        return allocate(cache.heapArena, cache, heapRegion, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        PoolThreadCache cache = parent.threadCache();
+        if (cache.directArena == null) {
+            return parent.directBuffer(initialCapacity, maxCapacity);
+        }
+        return allocate(cache.directArena, cache, directRegion, initialCapacity, maxCapacity);
+    }
+
+    private <T> ByteBuf allocate(PoolArena<T> arena, PoolThreadCache cache, Region<T> region,
+                                 int initialCapacity, int maxCapacity) {
+        if (closed) {
+            throw new IllegalStateException("scope closed");
+        }
+        final int regionSize = regionSize(arena);
+        final int size = initialCapacity + ALIGNMENT - 1 & -ALIGNMENT;
+        if (size > regionSize || size < 0) {
+            numFallbackAllocations ++;
+            return arena.allocate(cache, initialCapacity, maxCapacity);
+        }
+        if (region.buf == null || region.position + size > region.buf.maxLength) {
+            // 当前区域剩余的空间不足,剩余部分浪费掉
+            PooledByteBuf<T> regionBuf = arena.allocate(cache, regionSize, regionSize);
+            regions.add(regionBuf);
+            regionBytes += regionBuf.maxLength;
+            region.buf = regionBuf;
+            region.position = 0;
+        }
+
+        PooledByteBuf<T> buf = arena.newByteBuf(maxCapacity);
+        buf.initRegion(region.buf.chunk, region.buf.offset + region.position, initialCapacity, size, null);
+        region.position += size;
+        usedBytes += size;
+        if (usedBytes > peakUsedBytes) {
+            peakUsedBytes = usedBytes;
+            peakRegionBytes = regionBytes;
+        }
+        return buf;
+    }
+
+    private int regionSize(PoolArena<?> arena) {
+        return regionSize == 0 ? arena.pageSize * DEFAULT_REGION_PAGES : regionSize;
+    }
+
+    /**
+     * 一次归还所有区域,之后可以继续分配
+     * */
+    public void reset() {
+        for (PooledByteBuf<?> region : regions) {
+            region.deallocate();
+        }
+        regions.clear();
+        heapRegion.buf = null;
+        directRegion.buf = null;
+        usedBytes = 0;
+        regionBytes = 0;
+    }
+
+    /**
+     * 归还所有区域,之后不能再分配
+     * */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            reset();
+        }
+    }
+
+    /**当前已分配的字节数,包括对齐浪费的字节*/
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    /**{@link #usedBytes()} 的最大值,跨越多次 {@link #reset()}*/
+    public long peakUsedBytes() {
+        return peakUsedBytes;
+    }
+
+    /**当前从 Arena 申请的区域字节数*/
+    public long regionBytes() {
+        return regionBytes;
+    }
+
+    /**达到 {@link #peakUsedBytes()} 时申请的区域字节数*/
+    public long peakRegionBytes() {
+        return peakRegionBytes;
+    }
+
+    /**当前持有的区域数量*/
+    public int numRegions() {
+        return regions.size();
+    }
+
+    /**超出区域大小、直接从 PooledByteBufAllocator 分配的次数*/
+    public long numFallbackAllocations() {
+        return numFallbackAllocations;
+    }
+
+    /**当前用于分配的区域及其中下一次分配的位置*/
+    private static final class Region<T> {
+        PooledByteBuf<T> buf;
+        int position;
+    }
+}
@@ -0,0 +1,243 @@
+package io.netty.buffer;
+
+import io.netty.buffer.PoolArena.SizeClass;
+
+/**
+ * 预计算的内存规格表
+ *
+ * 每个 PoolArena 根据 pageSize 和 maxOrder 构建一次,之后把请求容量映射到
+ * 规格化容量、内存规格(Tiny/Small/Normal/Huge)、Subpage 池下标、线程缓存下标都只需查表,为 O(1)。
+ *
+ * 规格下标 sizeIdx 的排列:
+ * [0, numTiny)                     Tiny   16B ~ 496B,步长 16B
+ * [numTiny, numTiny+numSmall)      Small  512B ~ pageSize/2,每次翻倍之间 4 个规格,如 1024 1280 1536 1792
+ * [normalBaseIdx, hugeIdx)         Normal pageSize ~ chunkSize,以 Page 为单位
+ *                                         buddy 模式下为 2 的幂次个 Page
+ *                                         run 模式下每次翻倍之间 4 个规格,如 4 5 6 7 8 10 12 14 个 Page
+ * 最后一个                          Huge   大于 chunkSize
+ */
+final class SizeClasses {
+
+    /**Tiny 内存块的对齐粒度 16B*/
+    static final int LOG2_QUANTUM = 4;
+
+    private static final int QUANTUM = 1 << LOG2_QUANTUM;
+
+    /**Small 内存块的起始大小 512B*/
+    private static final int LOG2_SMALL_MIN = 9;
+
+    /**Small 内存块每次翻倍之间的规格数量,以 log2 表示,即 4 个*/
+    private static final int LOG2_SMALL_GROUP = 2;
+
+    private final int pageShifts;
+
+    private final int chunkSize;
+
+    /**Normal 规格的数量*/
+    private final int numNormal;
+
+    /**查表能覆盖的最大容量,即 pageSize*/
+    private final int lookupMaxSize;
+
+    /**Normal 规格的起始下标*/
+    private final int normalBaseIdx;
+
+    /**Huge 规格的下标*/
+    private final int hugeIdx;
+
+    /**
+     * 请求容量 => 规格下标
+     *
+     * 数组下标为 (reqCapacity + 15) >>> 4,覆盖 0 ~ pageSize
+     */
+    private final short[] size2idxTab;
+
+    /**
+     * Page 数量 => 规格下标,向上取整
+     *
+     * 数组下标为 (reqCapacity + pageSize - 1) >>> pageShifts,覆盖 0 ~ chunkSize
+     */
+    private final short[] pages2idxTab;
+
+    /**规格下标 => 规格化容量*/
+    private final int[] normSizeTab;
+
+    /**规格下标 => 内存规格*/
+    private final SizeClass[] sizeClassTab;
+
+    /**规格下标 => tinySubpagePools / smallSubpagePools 的下标,Normal/Huge 为 -1*/
+    private final int[] poolIdxTab;
+
+    /**规格下标 => PoolThreadCache 中对应缓存数组的下标,Huge 为 -1*/
+    private final int[] cacheIdxTab;
+
+    /**
+     * @param fineNormal 是否对 Normal 规格细分,run 模式的 Chunk 可以分配任意 Page 数量,
+     *                   细分后 40KB 只占用 5 个 Page,而不是 8 个
+     */
+    SizeClasses(int pageSize, int pageShifts, int maxOrder, int chunkSize, boolean fineNormal) {
+        this.pageShifts = pageShifts;
+        this.chunkSize = chunkSize;
+        lookupMaxSize = pageSize;
+
+        int numTiny = PoolArena.numTinySubpagePools - 1;
+        int numSmall = numSmallSizes(pageShifts);
+        int chunkPages = 1 << maxOrder;
+        numNormal = fineNormal ? numFineNormalSizes(chunkPages) : maxOrder + 1;
+        normalBaseIdx = numTiny + numSmall;
+        hugeIdx = normalBaseIdx + numNormal;
+
+        int numSizes = hugeIdx + 1;
+        normSizeTab = new int[numSizes];
+        sizeClassTab = new SizeClass[numSizes];
+        poolIdxTab = new int[numSizes];
+        cacheIdxTab = new int[numSizes];
+
+        int idx = 0;
+        // Tiny : 16B ~ 496B,pool 下标与缓存下标都是 size >>> 4
+        for (int size = QUANTUM; size < 512; size += QUANTUM, idx ++) {
+            setSize(idx, size, SizeClass.Tiny, size >>> LOG2_QUANTUM, size >>> LOG2_QUANTUM);
+        }
+        // Small : 512B ~ pageSize/2,[2^k, 2^(k+1)) 之间按 2^(k-2) 递增,如 512 640 768 896 1024 ...
+        for (int i = 0; i < numSmall; i ++, idx ++) {
+            setSize(idx, smallSize(i), SizeClass.Small, i, i);
+        }
+        // Normal : pageSize ~ chunkSize,缓存下标为 Normal 规格的序号
+        for (int i = 0, pages = 1; i < numNormal; i ++, idx ++) {
+            setSize(idx, pages << pageShifts, SizeClass.Normal, -1, i);
+            pages = fineNormal ? nextFineNormalPages(pages) : pages << 1;
+        }
+        // Huge : 不做规格化
+        setSize(idx, 0, SizeClass.Huge, -1, -1);
+
+        // 构建 请求容量 => 规格下标 的查找表,0 与 1~16 都映射到 16B
+        size2idxTab = new short[(lookupMaxSize >>> LOG2_QUANTUM) + 1];
+        int sizeIdx = 0;
+        for (int i = 0; i < size2idxTab.length; i ++) {
+            int size = i << LOG2_QUANTUM;
+            while (normSizeTab[sizeIdx] < size) {
+                sizeIdx ++;
+            }
+            size2idxTab[i] = (short) sizeIdx;
+        }
+
+        // 构建 Page 数量 => 规格下标 的查找表
+        pages2idxTab = new short[chunkPages + 1];
+        sizeIdx = normalBaseIdx;
+        for (int pages = 0; pages <= chunkPages; pages ++) {
+            while (normSizeTab[sizeIdx] < pages << pageShifts) {
+                sizeIdx ++;
+            }
+            pages2idxTab[pages] = (short) sizeIdx;
+        }
+    }
+
+    /**细分 Normal 规格时下一个规格的 Page 数量,1~4 逐个递增,之后每次翻倍之间 4 个规格*/
+    private static int nextFineNormalPages(int pages) {
+        return pages < 1 << LOG2_SMALL_GROUP ? pages + 1 : pages + (Integer.highestOneBit(pages) >>> LOG2_SMALL_GROUP);
+    }
+
+    private static int numFineNormalSizes(int chunkPages) {
+        int num = 0;
+        for (int pages = 1; pages <= chunkPages; pages = nextFineNormalPages(pages)) {
+            num ++;
+        }
+        return num;
+    }
+
+    /**
+     * Small 规格的数量
+     * 512B ~ pageSize/4 每次翻倍 4 个规格,再加上 pageSize/2 本身,默认 pageSize 为 8KB 时为 13 个
+     */
+    static int numSmallSizes(int pageShifts) {
+        return (pageShifts - 1 - LOG2_SMALL_MIN << LOG2_SMALL_GROUP) + 1;
+    }
+
+    /**第 i 个 Small 规格的大小*/
+    private static int smallSize(int i) {
+        int log2Group = LOG2_SMALL_MIN + (i >>> LOG2_SMALL_GROUP);
+        int nDelta = i & (1 << LOG2_SMALL_GROUP) - 1;
+        return (1 << log2Group) + (nDelta << log2Group - LOG2_SMALL_GROUP);
+    }
+
+    private void setSize(int idx, int normSize, SizeClass sizeClass, int poolIdx, int cacheIdx) {
+        normSizeTab[idx] = normSize;
+        sizeClassTab[idx] = sizeClass;
+        poolIdxTab[idx] = poolIdx;
+        cacheIdxTab[idx] = cacheIdx;
+    }
+
+    /**
+     * 请求容量 => 规格下标
+     *
+     * 小于等于 pageSize 按 16B 查表,Normal 按 Page 数量查表,无循环
+     */
+    int size2SizeIdx(int reqCapacity) {
+        if (reqCapacity <= lookupMaxSize) {
+            return size2idxTab[reqCapacity + QUANTUM - 1 >>> LOG2_QUANTUM];
+        }
+        if (reqCapacity > chunkSize) {
+            return hugeIdx;
+        }
+        // 按 Page 数量查表,如 8193 => 2 个 Page
+        return pages2idxTab[reqCapacity + (1 << pageShifts) - 1 >>> pageShifts];
+    }
+
+    /**Page 数量 => Normal 规格序号,向上取整*/
+    int pages2NormalIdx(int pages) {
+        return pages2idxTab[pages] - normalBaseIdx;
+    }
+
+    /**Normal 规格序号 => Page 数量*/
+    int normalIdx2Pages(int normalIdx) {
+        return normSizeTab[normalBaseIdx + normalIdx] >>> pageShifts;
+    }
+
+    int numNormalSizes() {
+        return numNormal;
+    }
+
+    /**规格化容量,Huge 返回请求容量本身*/
+    int normalizeCapacity(int reqCapacity) {
+        int sizeIdx = size2SizeIdx(reqCapacity);
+        return sizeIdx == hugeIdx ? reqCapacity : normSizeTab[sizeIdx];
+    }
+
+    int sizeIdx2size(int sizeIdx) {
+        return normSizeTab[sizeIdx];
+    }
+
+    SizeClass sizeClass(int sizeIdx) {
+        return sizeClassTab[sizeIdx];
+    }
+
+    int poolIdx(int sizeIdx) {
+        return poolIdxTab[sizeIdx];
+    }
+
+    int cacheIdx(int sizeIdx) {
+        return cacheIdxTab[sizeIdx];
+    }
+
+    /**
+     * 缓存下标 => 规格下标,与 {@link #cacheIdx(int)} 相反
+     * Tiny 的缓存下标 0 对应 0B,没有规格,返回 -1
+     */
+    int cacheIdx2SizeIdx(SizeClass sizeClass, int cacheIdx) {
+        switch (sizeClass) {
+            case Tiny:
+                return cacheIdx - 1;
+            case Small:
+                return PoolArena.numTinySubpagePools - 1 + cacheIdx;
+            case Normal:
+                return normalBaseIdx + cacheIdx;
+            default:
+                return -1;
+        }
+    }
+
+    /**规格的总数量,包括 Huge*/
+    int numSizes() {
+        return normSizeTab.length;
+    }
+}
@@ -0,0 +1,345 @@
+package io.netty.buffer;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.internal.InternalThreadLocalMap;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 固定大小的 Slab 分配器,用于大小统一的小消息,如固定的协议头
+ *
+ * 使用者指定一组准确的大小,每个大小为一种 Slot。从 {@link PooledByteBufAllocator} 的 Arena 申请 Page 作为 Slab,
+ * 按 Slot 大小切分后放入当前线程的空闲链表。分配时查表得到 Slot 大小并从当前线程的空闲链表弹出,
+ * 没有规格化和位图查找;释放时压入当前线程的空闲链表,为 O(1)。
+ *
+ * 线程的空闲 Slot 超过上限时一半转移到共享链表,线程结束时全部转移到共享链表,其他线程的空闲链表为空时从共享链表批量取出。
+ * Slab 在 {@link #close()} 时一次归还给 Arena,之后不能再使用该分配器分配的 ByteBuf。
+ * 关闭时清空共享链表,其他线程的空闲链表在该线程下次访问本分配器或结束时丢弃,在此之前仍引用已归还的 Chunk。
+ * 每个实例占用 {@link InternalThreadLocalMap} 中的一个下标,关闭后也不会回收,实例应长期使用,不要频繁创建。
+ *
+ * 大于最大 Slot 的请求直接从 PooledByteBufAllocator 分配普通的池化 ByteBuf,parent 没有对应类型的 Arena 时同样直接由 parent 分配。
+ */
+public final class SlabByteBufAllocator extends AbstractByteBufAllocator implements PoolRegionOwner, Closeable {
+
+    /**Slot 的最大数量*/
+    private static final int MAX_SLOT_SIZES = 64;
+
+    private final PooledByteBufAllocator parent;
+
+    /**从小到大排列的 Slot 大小*/
+    private final int[] slotSizes;
+
+    /**请求容量 => Slot 下标,-1 表示大于最大的 Slot*/
+    private final byte[] capacity2SlotIdx;
+
+    /**每个 Slab 的 Page 数量*/
+    private final int slabPages;
+
+    /**每个线程每种 Slot 最多保留的空闲数量,0 表示按每个 Slab 的 Slot 数量的 2 倍计算*/
+    private final int maxLocalSlots;
+
+    /**线程结束或空闲 Slot 过多时转移到的共享链表,下标 0 为 Heap,1 为 Direct*/
+    private final SlotList[][] sharedSlots;
+
+    /**申请的所有 Slab,关闭时归还*/
+    private final List<PooledByteBuf<?>> slabs = new ArrayList<PooledByteBuf<?>>();
+
+    private final LongCounter numFallbackAllocations = PlatformDependent.newLongCounter();
+
+    private volatile boolean closed;
+
+    private final FastThreadLocal<SlotList[][]> localSlots = new FastThreadLocal<SlotList[][]>() {
+        @Override
+        protected SlotList[][] initialValue() {
+            return newSlotLists();
+        }
+
+        @Override
+        protected void onRemoval(SlotList[][] value) {
+            // 线程结束,空闲 Slot 交给其他线程,关闭后直接丢弃
+            for (int type = 0; type < value.length; type ++) {
+                for (int i = 0; i < slotSizes.length; i ++) {
+                    SlotList shared = sharedSlots[type][i];
+                    synchronized (shared) {
+                        if (!closed) {
+                            value[type][i].moveTo(shared, value[type][i].size);
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param slotSizes 准确的 Slot 大小,每个都不能超过 pageSize
+     * */
+    public SlabByteBufAllocator(PooledByteBufAllocator parent, int... slotSizes) {
+        this(parent, 1, 0, slotSizes);
+    }
+
+    /**
+     * @param slabPages     每个 Slab 的 Page 数量
+     * @param maxLocalSlots 每个线程每种 Slot 最多保留的空闲数量,0 表示每个 Slab 的 Slot 数量的 2 倍
+     * @param slotSizes     准确的 Slot 大小,每个都不能超过 Slab 的大小
+     * */
+    public SlabByteBufAllocator(PooledByteBufAllocator parent, int slabPages, int maxLocalSlots, int[] slotSizes) {
+        super(false);
+        if (parent == null) {
+            throw new NullPointerException("parent");
+        }
+        if (slabPages <= 0) {
+            throw new IllegalArgumentException("slabPages: " + slabPages + " (expected: > 0)");
+        }
+        if (maxLocalSlots < 0) {
+            throw new IllegalArgumentException("maxLocalSlots: " + maxLocalSlots + " (expected: >= 0)");
+        }
+        if (slotSizes == null || slotSizes.length == 0 || slotSizes.length > MAX_SLOT_SIZES) {
+            throw new IllegalArgumentException("slotSizes: expected 1 ~ " + MAX_SLOT_SIZES + " sizes");
+        }
+        int[] sizes = slotSizes.clone();
+        Arrays.sort(sizes);
+        for (int i = 0; i < sizes.length; i ++) {
+            if (sizes[i] <= 0 || sizes[i] > parent.pageSize() * slabPages) {
+                throw new IllegalArgumentException("slotSize: " + sizes[i] + " (expected: 1 ~ slab size)");
+            }
+            if (i > 0 && sizes[i] == sizes[i - 1]) {
+                throw new IllegalArgumentException("duplicate slotSize: " + sizes[i]);
+            }
+        }
+        this.parent = parent;
+        this.slotSizes = sizes;
+        this.slabPages = slabPages;
+        this.maxLocalSlots = maxLocalSlots;
+
+        // 每个容量对应能放下它的最小的 Slot
+        capacity2SlotIdx = new byte[sizes[sizes.length - 1] + 1];
+        for (int capacity = 0, idx = 0; capacity < capacity2SlotIdx.length; capacity ++) {
+            if (capacity > sizes[idx]) {
+                idx ++;
+            }
+            capacity2SlotIdx[capacity] = (byte) idx;
+        }
+        sharedSlots = newSlotLists();
+    }
+
+    private SlotList[][] newSlotLists() {
+        SlotList[][] lists = new SlotList[2][slotSizes.length];
+        for (SlotList[] typeLists : lists) {
+            for (int i = 0; i < typeLists.length; i ++) {
+                typeLists[i] = new SlotList();
+            }
+        }
+        return lists;
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+        PoolThreadCache cache = parent.threadCache();
+        if (cache.heapArena == null) {
+            // 没有 Heap Arena 时没有可以切分的 Slab,直接由 parent 分配
+            return parent.heapBuffer(initialCapacity, maxCapacity);
+        }
+        return allocate(cache.heapArena, cache, 0, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        PoolThreadCache cache = parent.threadCache();
+        if (cache.directArena == null) {
+            return parent.directBuffer(initialCapacity, maxCapacity);
+        }
+        return allocate(cache.directArena, cache, 1, initialCapacity, maxCapacity);
+    }
+
+    private <T> ByteBuf allocate(PoolArena<T> arena, PoolThreadCache cache, int type,
+                                 int initialCapacity, int maxCapacity) {
+        if (closed) {
+            localSlots.remove();
+            throw new IllegalStateException("allocator closed");
+        }
+        if (initialCapacity >= capacity2SlotIdx.length) {
+            numFallbackAllocations.increment();
+            return arena.allocate(cache, initialCapacity, maxCapacity);
+        }
+        final int slotIdx = capacity2SlotIdx[initialCapacity];
+        final SlotList local = localSlots.get()[type][slotIdx];
+        if (local.size == 0) {
+            refill(arena, cache, type, slotIdx, local);
+        }
+
+        final int last = -- local.size;
+        @SuppressWarnings("unchecked")
+        final PoolChunk<T> chunk = (PoolChunk<T>) local.chunks[last];
+        local.chunks[last] = null;
+
+        PooledByteBuf<T> buf = arena.newByteBuf(maxCapacity);
+        buf.initRegion(chunk, local.offsets[last], initialCapacity, slotSizes[slotIdx], this);
+        return buf;
+    }
+
+    /**
+     * 当前线程的空闲链表为空,优先从共享链表批量取出,共享链表也为空时申请新的 Slab
+     * */
+    private <T> void refill(PoolArena<T> arena, PoolThreadCache cache, int type, int slotIdx, SlotList local) {
+        final int slotsPerSlab = slotsPerSlab(arena, slotIdx);
+        final SlotList shared = sharedSlots[type][slotIdx];
+        synchronized (shared) {
+            // 一次最多取出一个 Slab 的 Slot 数量
+            shared.moveTo(local, slotsPerSlab);
+        }
+        if (local.size > 0) {
+            return;
+        }
+
+        final int slabSize = arena.pageSize * slabPages;
+        PooledByteBuf<T> slab = arena.allocate(cache, slabSize, slabSize);
+        final boolean added;
+        synchronized (slabs) {
+            // close() 先设置 closed 再在锁内取出所有 Slab,这里检查后加入的 Slab 一定会被 close() 归还
+            added = !closed;
+            if (added) {
+                slabs.add(slab);
+            }
+        }
+        if (!added) {
+            slab.deallocate();
+            localSlots.remove();
+            throw new IllegalStateException("allocator closed");
+        }
+        final int slotSize = slotSizes[slotIdx];
+        // 倒序放入,先分配低地址的 Slot
+        for (int i = slotsPerSlab - 1; i >= 0; i --) {
+            local.push(slab.chunk, slab.offset + i * slotSize);
+        }
+    }
+
+    private int slotsPerSlab(PoolArena<?> arena, int slotIdx) {
+        return arena.pageSize * slabPages / slotSizes[slotIdx];
+    }
+
+    /**
+     * ByteBuf 释放时压入当前线程的空闲链表,超过上限时一半转移到共享链表
+     * */
+    @Override
+    public void free(PoolChunk<?> chunk, int offset, int maxLength) {
+        if (closed) {
+            // 丢弃当前线程的空闲链表,不再引用已归还的 Chunk
+            localSlots.remove();
+            return;
+        }
+        final int slotIdx = capacity2SlotIdx[maxLength];
+        assert slotSizes[slotIdx] == maxLength;
+        final int type = chunk.arena.isDirect() ? 1 : 0;
+        final SlotList local = localSlots.get()[type][slotIdx];
+        local.push(chunk, offset);
+
+        final int maxLocal = maxLocalSlots == 0 ? slotsPerSlab(chunk.arena, slotIdx) << 1 : maxLocalSlots;
+        if (local.size > maxLocal) {
+            final SlotList shared = sharedSlots[type][slotIdx];
+            synchronized (shared) {
+                // close() 在锁内清空共享链表,关闭后不能再放入
+                if (!closed) {
+                    local.moveTo(shared, local.size >>> 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次归还所有 Slab,之后不能再分配,已分配的 ByteBuf 不能再使用
+     * 共享链表和当前线程的空闲链表在这里清空,其他线程的在其下次访问或结束时丢弃
+     * */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        localSlots.remove();
+        for (SlotList[] typeLists : sharedSlots) {
+            for (SlotList shared : typeLists) {
+                synchronized (shared) {
+                    shared.clear();
+                }
+            }
+        }
+        final PooledByteBuf<?>[] toFree;
+        synchronized (slabs) {
+            toFree = slabs.toArray(new PooledByteBuf<?>[0]);
+            slabs.clear();
+        }
+        for (PooledByteBuf<?> slab : toFree) {
+            slab.deallocate();
+        }
+    }
+
+    /**Slot 大小,从小到大排列*/
+    public int[] slotSizes() {
+        return slotSizes.clone();
+    }
+
+    /**申请的 Slab 数量*/
+    public int numSlabs() {
+        synchronized (slabs) {
+            return slabs.size();
+        }
+    }
+
+    /**大于最大 Slot、直接从 PooledByteBufAllocator 分配的次数*/
+    public long numFallbackAllocations() {
+        return numFallbackAllocations.value();
+    }
+
+    /**共享链表中空闲 Slot 的数量*/
+    int numSharedSlots(boolean direct, int slotIdx) {
+        SlotList shared = sharedSlots[direct ? 1 : 0][slotIdx];
+        synchronized (shared) {
+            return shared.size;
+        }
+    }
+
+    /**当前线程是否持有空闲链表*/
+    boolean hasLocalSlots() {
+        return localSlots.isSet();
+    }
+
+    /**
+     * 空闲 Slot 的栈,chunks 和 offsets 下标一一对应
+     * 线程的链表只由所属线程访问,共享链表在其锁内访问
+     */
+    private static final class SlotList {
+        PoolChunk<?>[] chunks = new PoolChunk[64];
+        int[] offsets = new int[64];
+        int size;
+
+        void push(PoolChunk<?> chunk, int offset) {
+            if (size == offsets.length) {
+                chunks = Arrays.copyOf(chunks, size << 1);
+                offsets = Arrays.copyOf(offsets, size << 1);
+            }
+            chunks[size] = chunk;
+            offsets[size] = offset;
+            size ++;
+        }
+
+        /**从栈顶移出最多 n 个 Slot 到 dst*/
+        void moveTo(SlotList dst, int n) {
+            n = Math.min(n, size);
+            for (int i = 0; i < n; i ++) {
+                size --;
+                dst.push(chunks[size], offsets[size]);
+                chunks[size] = null;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(chunks, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -16,6 +16,38 @@ public class UnpooledByteBufAllocator extends AbstractByteBufAllocator implement
     public static final UnpooledByteBufAllocator DEFAULT =
             new UnpooledByteBufAllocator(PlatformDependent.directBufferPreferred());
 
+    public UnpooledByteBufAllocator(boolean preferDirect) {
+        this(preferDirect, false);
+    }
+
+    public UnpooledByteBufAllocator(boolean preferDirect, boolean disableLeakDetector) {
+        this(preferDirect, disableLeakDetector, PlatformDependent.useDirectBufferNoCleaner());
+    }
+
+    /**
+     * @param tryNoCleaner 是否尝试不使用 Cleaner 释放堆外内存,需要 Unsafe 支持
+     * */
+    public UnpooledByteBufAllocator(boolean preferDirect, boolean disableLeakDetector, boolean tryNoCleaner) {
+        super(preferDirect);
+        this.disableLeakDetector = disableLeakDetector;
+        noCleaner = tryNoCleaner && PlatformDependent.hasUnsafe()
+                && PlatformDependent.hasDirectBufferNoCleanerConstructor();
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+        return new UnpooledHeapByteBuf(this, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        return new UnpooledDirectByteBuf(this, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public ByteBufAllocatorMetric metric() {
+        return metric;
+    }
 
 
     private static final class UnpooledByteBufAllocatorMetric implements ByteBufAllocatorMetric{
@@ -0,0 +1,52 @@
+package io.netty.buffer;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 非池化的堆外内存ByteBuf,容量变化时重新分配ByteBuffer并复制,旧的ByteBuffer立即释放
+ * */
+class UnpooledDirectByteBuf extends AbstractReferenceCountedByteBuf {
+
+    private final ByteBufAllocator alloc;
+
+    ByteBuffer buffer;
+
+    UnpooledDirectByteBuf(ByteBufAllocator alloc, int initialCapacity, int maxCapacity) {
+        super(maxCapacity);
+        if (alloc == null) {
+            throw new NullPointerException("alloc");
+        }
+        if (initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException(String.format(
+                    "initialCapacity(%d) > maxCapacity(%d)", initialCapacity, maxCapacity));
+        }
+        this.alloc = alloc;
+        maxCapacity(maxCapacity);
+        buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public ByteBuf capacity(int newCapacity) {
+        checkNewCapacity(newCapacity);
+        int oldCapacity = buffer.capacity();
+        if (newCapacity == oldCapacity) {
+            return this;
+        }
+        ByteBuffer oldBuffer = buffer;
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        oldBuffer.position(0).limit(Math.min(oldCapacity, newCapacity));
+        newBuffer.put(oldBuffer);
+        newBuffer.clear();
+        trimIndicesToCapacity(newCapacity);
+        buffer = newBuffer;
+        PlatformDependent.freeDirectBuffer(oldBuffer);
+        return this;
+    }
+}
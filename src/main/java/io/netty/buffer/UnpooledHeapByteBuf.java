@@ -0,0 +1,44 @@
+package io.netty.buffer;
+
+/**
+ * 非池化的堆内存ByteBuf,容量变化时重新创建数组并复制
+ * */
+class UnpooledHeapByteBuf extends AbstractReferenceCountedByteBuf {
+
+    private final ByteBufAllocator alloc;
+
+    byte[] array;
+
+    UnpooledHeapByteBuf(ByteBufAllocator alloc, int initialCapacity, int maxCapacity) {
+        super(maxCapacity);
+        if (alloc == null) {
+            throw new NullPointerException("alloc");
+        }
+        if (initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException(String.format(
+                    "initialCapacity(%d) > maxCapacity(%d)", initialCapacity, maxCapacity));
+        }
+        this.alloc = alloc;
+        maxCapacity(maxCapacity);
+        array = new byte[initialCapacity];
+    }
+
+    @Override
+    public int capacity() {
+        return array.length;
+    }
+
+    @Override
+    public ByteBuf capacity(int newCapacity) {
+        checkNewCapacity(newCapacity);
+        int oldCapacity = array.length;
+        if (newCapacity == oldCapacity) {
+            return this;
+        }
+        byte[] newArray = new byte[newCapacity];
+        System.arraycopy(array, 0, newArray, 0, Math.min(oldCapacity, newCapacity));
+        trimIndicesToCapacity(newCapacity);
+        array = newArray;
+        return this;
+    }
+}
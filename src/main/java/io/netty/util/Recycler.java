@@ -1,11 +1,13 @@
 package io.netty.util;
 
 import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.internal.ObjectCleaner;
 import io.netty.util.internal.SystemPropertyUtil;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -18,6 +20,11 @@ public abstract class Recycler<T> {
 
     private static final InternalLogger logger = InternalLoggerFactory.getInstance(Recycler.class);
 
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger(Integer.MIN_VALUE);
+
+    /**所属线程回收对象时使用的 id*/
+    private static final int OWN_THREAD_ID = ID_GENERATOR.getAndIncrement();
+
     private static final int DEFAULT_INITIAL_MAX_CAPACITY_PER_THREAD = 4 * 1024;
 
     private static final int DEFAULT_MAX_CAPACITY_PER_THREAD;
@@ -131,8 +138,9 @@ public abstract class Recycler<T> {
                 }
             }
         }
-    }
+    };
 
+    @SuppressWarnings("unchecked")
     public final T get(){
         //如果线程容量为0 直接创建处理回收过程为空的对象句柄
         if(maxCapacityPerThread==0){
@@ -140,6 +148,23 @@ public abstract class Recycler<T> {
         }
 
         Stack<T> stack = threadLocal.get();
+        //优先复用当前线程回收的对象,没有时创建新对象
+        DefaultHandle<T> handle = stack.pop();
+        if (handle == null) {
+            handle = stack.newHandle();
+            handle.value = newObject(handle);
+        }
+        return (T) handle.value;
+    }
+
+    /**
+     * 创建回收过程为空的对象,与线程容量为 0 时的 {@link #get()} 相同,不访问当前线程的 Stack
+     *
+     * 用于不希望为每个线程创建 InternalThreadLocalMap 和 Stack 的场景,如大量短生命周期的线程
+     * */
+    @SuppressWarnings("unchecked")
+    public final T getUnpooled() {
+        return newObject((Handle<T>) NOOP_HANDLE);
     }
 
     public static int safeFindNextPositivePowerOfTwo(final int value) {
@@ -182,23 +207,207 @@ public abstract class Recycler<T> {
             this.maxDelayedQueues = maxDelayedQueues;
         }
 
+        /**由其他线程在 WeakOrderQueue.newQueue 中调用,把新的 WeakOrderQueue 放到链表头部*/
+        synchronized void setHead(WeakOrderQueue queue) {
+            queue.setNext(head);
+            head = queue;
+        }
+
+        /**扩容到不小于 expectedCapacity,不超过 maxCapacity,返回扩容后的容量*/
+        int increaseCapacity(int expectedCapacity) {
+            int newCapacity = elements.length;
+            int maxCapacity = this.maxCapacity;
+            do {
+                newCapacity <<= 1;
+            } while (newCapacity < expectedCapacity && newCapacity < maxCapacity);
+
+            newCapacity = min(newCapacity, maxCapacity);
+            if (newCapacity != elements.length) {
+                elements = Arrays.copyOf(elements, newCapacity);
+            }
+
+            return newCapacity;
+        }
+
+        /**取出最近回收的对象,为空时先从其他线程的 WeakOrderQueue 转移,仍然没有时返回 null*/
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        DefaultHandle<T> pop() {
+            int size = this.size;
+            if (size == 0) {
+                if (!scavenge()) {
+                    return null;
+                }
+                size = this.size;
+            }
+            size --;
+            DefaultHandle ret = elements[size];
+            elements[size] = null;
+            if (ret.lastRecycledId != ret.recycleId) {
+                throw new IllegalStateException("recycled multiple times");
+            }
+            ret.recycleId = 0;
+            ret.lastRecycledId = 0;
+            this.size = size;
+            return ret;
+        }
+
+        /**从其他线程的 WeakOrderQueue 中转移对象,没有可转移的对象时重置游标,下一次从头开始*/
+        boolean scavenge() {
+            // continue an existing scavenge, if any
+            if (scavengeSome()) {
+                return true;
+            }
+
+            // reset our scavenge cursor
+            prev = null;
+            cursor = head;
+            return false;
+        }
+
+        /**
+         * 从 cursor 开始依次尝试转移,转移到一个 WeakOrderQueue 的对象后停止
+         * 所属线程已经结束的 WeakOrderQueue 转移完剩余的对象后从链表中移除,链表头部除外
+         * */
+        boolean scavengeSome() {
+            WeakOrderQueue prev;
+            WeakOrderQueue cursor = this.cursor;
+            if (cursor == null) {
+                prev = null;
+                cursor = head;
+                if (cursor == null) {
+                    return false;
+                }
+            } else {
+                prev = this.prev;
+            }
+
+            boolean success = false;
+            do {
+                if (cursor.transfer(this)) {
+                    success = true;
+                    break;
+                }
+                WeakOrderQueue next = cursor.next;
+                if (cursor.owner.get() == null) {
+                    // If the thread associated with the queue is gone, unlink it, after
+                    // performing a volatile read to confirm there is no data left to collect.
+                    // We never unlink the first queue, as we don't want to synchronize on updating the head.
+                    if (cursor.hasFinalData()) {
+                        for (;;) {
+                            if (cursor.transfer(this)) {
+                                success = true;
+                            } else {
+                                break;
+                            }
+                        }
+                    }
+
+                    if (prev != null) {
+                        prev.setNext(next);
+                    }
+                } else {
+                    prev = cursor;
+                }
+
+                cursor = next;
+
+            } while (cursor != null && !success);
+
+            this.prev = prev;
+            this.cursor = cursor;
+            return success;
+        }
+
         void push(DefaultHandle<?> item){
 
             //获取当前线程
             Thread currentThread = Thread.currentThread();
 
             if(threadRef.get()==currentThread){
+                // The current Thread is the thread that belongs to the Stack, we can try to push the object now.
+                pushNow(item);
+            } else {
+                // 其他线程回收的对象放入该线程为当前 Stack 创建的 WeakOrderQueue,由所属线程在 pop 时转移
+                pushLater(item, currentThread);
+            }
+        }
 
+        private void pushNow(DefaultHandle<?> item) {
+            if ((item.recycleId | item.lastRecycledId) != 0) {
+                throw new IllegalStateException("recycled already");
             }
+            item.recycleId = item.lastRecycledId = OWN_THREAD_ID;
+
+            int size = this.size;
+            if (size >= maxCapacity || dropHandle(item)) {
+                // Hit the maximum capacity or should drop - drop the possibly youngest object.
+                return;
+            }
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, min(size << 1, maxCapacity));
+            }
+
+            elements[size] = item;
+            this.size = size + 1;
+        }
+
+        private void pushLater(DefaultHandle<?> item, Thread thread) {
+            // we don't want to have a ref to the queue as the value in our weak map
+            // so we null it out; to ensure there are no races with restoring it later
+            // we impose a memory ordering here (no-op on x86)
+            Map<Stack<?>, WeakOrderQueue> delayedRecycled = DELAYED_RECYCLED.get();
+            WeakOrderQueue queue = delayedRecycled.get(this);
+            if (queue == null) {
+                if (delayedRecycled.size() >= maxDelayedQueues) {
+                    // Add a dummy queue so we know we should drop the object
+                    delayedRecycled.put(this, WeakOrderQueue.DUMMY);
+                    return;
+                }
+                // Check if we already reached the maximum number of delayed queues and if we can allocate at all.
+                if ((queue = WeakOrderQueue.allocate(this, thread)) == null) {
+                    // drop object
+                    return;
+                }
+                delayedRecycled.put(this, queue);
+            } else if (queue == WeakOrderQueue.DUMMY) {
+                // drop object
+                return;
+            }
+
+            queue.add(item);
+        }
+
+        /**从未回收过的对象按 ratio 丢弃,避免突发分配使对象池无限增长*/
+        boolean dropHandle(DefaultHandle<?> handle) {
+            if (!handle.hasBeenRecycled) {
+                if ((++handleRecycleCount & ratioMask) != 0) {
+                    // Drop the object.
+                    return true;
+                }
+                handle.hasBeenRecycled = true;
+            }
+            return false;
+        }
+
+        DefaultHandle<T> newHandle() {
+            return new DefaultHandle<T>(this);
         }
 
 
     }
 
+    /**
+     * 其他线程回收的对象的队列,每个回收线程为每个 Stack 创建一个,由 Stack 所属线程取出
+     *
+     * 对象按 LINK_CAPACITY 个一组存放在 Link 链表中,回收线程只写 tail,所属线程只读 head,不需要加锁。
+     * 所有 WeakOrderQueue 占用的 Link 总数受 Stack 的 availableSharedCapacity 限制,超出时丢弃对象
+     */
     private static final class WeakOrderQueue{
 
+        /**回收线程的 WeakOrderQueue 数量超过 maxDelayedQueues 时的占位,表示丢弃对象*/
         static final WeakOrderQueue DUMMY = new WeakOrderQueue();
 
+        // Let Link extend AtomicInteger for intrinsics. The Link itself will be used as writerIndex.
         @SuppressWarnings("serial")
         static final class Link extends AtomicInteger {
             private final DefaultHandle<?>[] elements = new DefaultHandle[LINK_CAPACITY];
@@ -206,6 +415,208 @@ public abstract class Recycler<T> {
             Link next;
         }
 
+        // This act as a place holder for the head Link but also will reclaim space once the WeakOrderQueue is
+        // collected, see newQueue(). Its important this does not hold any reference to either Stack or WeakOrderQueue.
+        static final class Head {
+            private final AtomicInteger availableSharedCapacity;
+
+            Link link;
+
+            Head(AtomicInteger availableSharedCapacity) {
+                this.availableSharedCapacity = availableSharedCapacity;
+            }
+
+            /**回收线程结束、WeakOrderQueue 被 GC 后由 ObjectCleaner 调用,归还剩余 Link 占用的容量*/
+            void reclaimAllSpaceAndUnlink() {
+                Link head = link;
+                link = null;
+                int reclaimSpace = 0;
+                while (head != null) {
+                    reclaimSpace += LINK_CAPACITY;
+                    Link next = head.next;
+                    // Unlink to help GC and guard against GC nepotism.
+                    head.next = null;
+                    head = next;
+                }
+                if (reclaimSpace > 0) {
+                    reclaimSpace(reclaimSpace);
+                }
+            }
+
+            void reclaimSpace(int space) {
+                assert space >= 0;
+                availableSharedCapacity.addAndGet(space);
+            }
+
+            boolean reserveSpace(int space) {
+                return reserveSpace(availableSharedCapacity, space);
+            }
+
+            static boolean reserveSpace(AtomicInteger availableSharedCapacity, int space) {
+                assert space >= 0;
+                for (;;) {
+                    int available = availableSharedCapacity.get();
+                    if (available < space) {
+                        return false;
+                    }
+                    if (availableSharedCapacity.compareAndSet(available, available - space)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        // chain of data items
+        private final Head head;
+        private Link tail;
+        // pointer to another queue of delayed items for the same stack
+        private WeakOrderQueue next;
+        private final WeakReference<Thread> owner;
+        private final int id = ID_GENERATOR.getAndIncrement();
+
+        private WeakOrderQueue() {
+            owner = null;
+            head = new Head(null);
+        }
+
+        private WeakOrderQueue(Stack<?> stack, Thread thread) {
+            tail = new Link();
+
+            // Its important that we not store the Stack itself in the WeakOrderQueue as the Stack also is used in
+            // the WeakHashMap as key. So just store the enclosed AtomicInteger which should allow to have the
+            // Stack itself GCed.
+            head = new Head(stack.availableSharedCapacity);
+            head.link = tail;
+            owner = new WeakReference<Thread>(thread);
+        }
+
+        static WeakOrderQueue newQueue(Stack<?> stack, Thread thread) {
+            final WeakOrderQueue queue = new WeakOrderQueue(stack, thread);
+            // Done outside of the constructor to ensure WeakOrderQueue.this does not escape the constructor and so
+            // may be accessed while its still constructed.
+            stack.setHead(queue);
+
+            // 清理任务只能引用 Head,不能引用 WeakOrderQueue
+            final Head head = queue.head;
+            ObjectCleaner.register(queue, new Runnable() {
+                @Override
+                public void run() {
+                    head.reclaimAllSpaceAndUnlink();
+                }
+            });
+
+            return queue;
+        }
+
+        private void setNext(WeakOrderQueue next) {
+            assert next != this;
+            this.next = next;
+        }
+
+        /**
+         * Allocate a new {@link WeakOrderQueue} or return {@code null} if not possible.
+         */
+        static WeakOrderQueue allocate(Stack<?> stack, Thread thread) {
+            // We allocated a Link so reserve the space
+            return Head.reserveSpace(stack.availableSharedCapacity, LINK_CAPACITY)
+                    ? newQueue(stack, thread) : null;
+        }
+
+        /**由回收线程调用,放入 tail,tail 已满时申请新的 Link*/
+        void add(DefaultHandle<?> handle) {
+            handle.lastRecycledId = id;
+
+            Link tail = this.tail;
+            int writeIndex;
+            if ((writeIndex = tail.get()) == LINK_CAPACITY) {
+                if (!head.reserveSpace(LINK_CAPACITY)) {
+                    // Drop it.
+                    return;
+                }
+                // We allocate a Link so reserve the space
+                this.tail = tail = tail.next = new Link();
+
+                writeIndex = tail.get();
+            }
+            tail.elements[writeIndex] = handle;
+            handle.stack = null;
+            // we lazy set to ensure that setting stack to null appears before we unnull it in the owning thread;
+            // this also means we guarantee visibility of an element in the queue if we see the index updated
+            tail.lazySet(writeIndex + 1);
+        }
+
+        boolean hasFinalData() {
+            return tail.readIndex != tail.get();
+        }
+
+        // transfer as many items as we can from this queue to the stack, returning true if any were transferred
+        @SuppressWarnings("rawtypes")
+        boolean transfer(Stack<?> dst) {
+            Link head = this.head.link;
+            if (head == null) {
+                return false;
+            }
+
+            if (head.readIndex == LINK_CAPACITY) {
+                if (head.next == null) {
+                    return false;
+                }
+                this.head.link = head = head.next;
+            }
+
+            final int srcStart = head.readIndex;
+            int srcEnd = head.get();
+            final int srcSize = srcEnd - srcStart;
+            if (srcSize == 0) {
+                return false;
+            }
+
+            final int dstSize = dst.size;
+            final int expectedCapacity = dstSize + srcSize;
+
+            if (expectedCapacity > dst.elements.length) {
+                final int actualCapacity = dst.increaseCapacity(expectedCapacity);
+                srcEnd = min(srcStart + actualCapacity - dstSize, srcEnd);
+            }
+
+            if (srcStart != srcEnd) {
+                final DefaultHandle[] srcElems = head.elements;
+                final DefaultHandle[] dstElems = dst.elements;
+                int newDstSize = dstSize;
+                for (int i = srcStart; i < srcEnd; i++) {
+                    DefaultHandle element = srcElems[i];
+                    if (element.recycleId == 0) {
+                        element.recycleId = element.lastRecycledId;
+                    } else if (element.recycleId != element.lastRecycledId) {
+                        throw new IllegalStateException("recycled already");
+                    }
+                    srcElems[i] = null;
+
+                    if (dst.dropHandle(element)) {
+                        // Drop the object.
+                        continue;
+                    }
+                    element.stack = dst;
+                    dstElems[newDstSize ++] = element;
+                }
+
+                if (srcEnd == LINK_CAPACITY && head.next != null) {
+                    // Add capacity back as the Link is GCed.
+                    this.head.reclaimSpace(LINK_CAPACITY);
+                    this.head.link = head.next;
+                }
+
+                head.readIndex = srcEnd;
+                if (dst.size == newDstSize) {
+                    return false;
+                }
+                dst.size = newDstSize;
+                return true;
+            } else {
+                // The destination stack is full already.
+                return false;
+            }
+        }
     }
 
     static final class DefaultHandle<T> implements Handle<T> {
@@ -225,6 +636,12 @@ public abstract class Recycler<T> {
             if (object != value) {
                 throw new IllegalArgumentException("object does not belong to handle");
             }
+
+            // 其他线程回收后 stack 为 null,直到所属线程转移回 Stack
+            Stack<?> stack = this.stack;
+            if (lastRecycledId != recycleId || stack == null) {
+                throw new IllegalStateException("recycled already");
+            }
             stack.push(this);
         }
     }
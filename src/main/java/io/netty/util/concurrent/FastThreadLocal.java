@@ -1,6 +1,7 @@
 package io.netty.util.concurrent;
 
 import io.netty.util.internal.InternalThreadLocalMap;
+import io.netty.util.internal.ObjectCleaner;
 import io.netty.util.internal.PlatformDependent;
 
 import java.util.Collections;
@@ -44,6 +45,9 @@ public class FastThreadLocal<V> {
     }
 
 
+    /**
+     * 普通线程退出时不会调用 removeAll(),在线程对象被回收后由 ObjectCleaner 移除当前值,触发 onRemoval
+     * */
     private void registerCleaner(final InternalThreadLocalMap threadLocalMap){
         Thread current = Thread.currentThread();
         /**检测当前索引是否存在清楚标志,存在则直接返回*/
@@ -51,6 +55,14 @@ public class FastThreadLocal<V> {
             return;
         }
         threadLocalMap.setCleanerFlag(index);
+
+        // 清理任务只能引用 threadLocalMap,不能引用线程本身
+        ObjectCleaner.register(current, new Runnable() {
+            @Override
+            public void run() {
+                remove(threadLocalMap);
+            }
+        });
     }
 
     private V initialize(InternalThreadLocalMap threadLocalMap){
@@ -141,18 +141,6 @@ public class InternalThreadLocalMap extends UnpaddedInternalThreadLocalMap {
         if (handlerSharableCache != null) {
             count ++;
         }
-        if (counterHashCode != null) {
-            count ++;
-        }
-        if (random != null) {
-            count ++;
-        }
-        if (typeParameterMatcherGetCache != null) {
-            count ++;
-        }
-        if (typeParameterMatcherFindCache != null) {
-            count ++;
-        }
         if (stringBuilder != null) {
             count ++;
         }
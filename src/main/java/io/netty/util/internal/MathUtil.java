@@ -11,4 +11,12 @@ public class MathUtil {
         assert value > Integer.MIN_VALUE && value < 0x40000000;
         return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
     }
+
+    /**
+     * 与 {@link #findNextPositivePowerOfTwo(int)} 相同,但不做断言
+     * 小于等于 0 时返回 1,大于 2^30 时返回 2^30
+     */
+    public static int safeFindNextPositivePowerOfTwo(final int value) {
+        return value <= 0 ? 1 : value >= 0x40000000 ? 0x40000000 : findNextPositivePowerOfTwo(value);
+    }
 }
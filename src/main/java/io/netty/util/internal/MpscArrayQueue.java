@@ -0,0 +1,150 @@
+package io.netty.util.internal;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者单消费者队列
+ *
+ * 生产者通过 CAS 抢占 producerIndex 对应的槽位,再写入元素;消费者只有一个线程,直接读取 consumerIndex 对应的槽位。
+ * 槽位为 null 但 producerIndex 已经越过它,说明生产者已抢占但还未写入,消费者自旋等待。
+ * 容量会向上取整到 2 的幂次,通过位运算计算槽位下标。
+ *
+ * {@link #iterator()} 是弱一致的只读迭代器,不支持 {@link Iterator#remove()},因此 {@link #remove(Object)} 也不支持。
+ */
+public final class MpscArrayQueue<E> extends AbstractQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final int mask;
+
+    private final int capacity;
+
+    /**下一个写入的位置,生产者 CAS 递增*/
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    /**下一个读取的位置,只有消费者修改*/
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    public MpscArrayQueue(int capacity) {
+        ObjectUtil.checkPositive(capacity, "capacity");
+        this.capacity = MathUtil.safeFindNextPositivePowerOfTwo(capacity);
+        mask = this.capacity - 1;
+        buffer = new AtomicReferenceArray<E>(this.capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        ObjectUtil.checkNotNull(e, "e");
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                // 队列已满
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        buffer.lazySet((int) index & mask, e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        final long index = consumerIndex.get();
+        final int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            // 生产者已抢占槽位但还未写入
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        final long index = consumerIndex.get();
+        final int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        // 先读 consumerIndex,保证结果不为负数
+        final long consumer = consumerIndex.get();
+        final long size = producerIndex.get() - consumer;
+        return (int) Math.min(size, capacity);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex.get() == producerIndex.get();
+    }
+
+    /**队列的容量,即向上取整后的 2 的幂次*/
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 遍历创建时 consumerIndex 到 producerIndex 之间的槽位,跳过已被消费或还未写入的槽位,
+     * 可以与生产者和消费者并发执行,不会抛出 ConcurrentModificationException
+     * */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr(consumerIndex.get(), producerIndex.get());
+    }
+
+    private final class Itr implements Iterator<E> {
+        private final long end;
+        private long index;
+        private E next;
+
+        Itr(long start, long end) {
+            this.end = end;
+            index = start;
+        }
+
+        /**在需要时才读取下一个不为 null 的元素,期间被消费的元素不会返回*/
+        @Override
+        public boolean hasNext() {
+            while (next == null && index < end) {
+                next = buffer.get((int) index++ & mask);
+            }
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final E e = next;
+            next = null;
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+}
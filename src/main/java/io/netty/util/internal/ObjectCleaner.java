@@ -0,0 +1,121 @@
+package io.netty.util.internal;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static java.lang.Math.max;
+
+/**
+ * 在对象被 GC 回收后执行清理任务,用于释放普通线程(非 FastThreadLocalThread)退出后遗留的 FastThreadLocal 值
+ *
+ * 通过 PhantomReference 跟踪对象,由一个守护线程等待 ReferenceQueue,
+ * 没有需要跟踪的对象时守护线程退出,下次注册时重新启动。
+ */
+public final class ObjectCleaner {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(ObjectCleaner.class);
+
+    /**等待 ReferenceQueue 的超时时间,超时后检查是否还有需要跟踪的对象*/
+    private static final int REFERENCE_QUEUE_POLL_TIMEOUT_MS =
+            max(500, SystemPropertyUtil.getInt("io.netty.util.internal.ObjectCleaner.refQueuePollTimeout", 10000));
+
+    static final String CLEANER_THREAD_NAME = ObjectCleaner.class.getSimpleName() + "Thread";
+
+    /**持有所有未执行的 PhantomReference,防止其本身被回收*/
+    private static final Set<AutomaticCleanerReference> LIVE_SET =
+            Collections.newSetFromMap(PlatformDependent.<AutomaticCleanerReference, Boolean>newConcurrentHashMap());
+
+    private static final ReferenceQueue<Object> REFERENCE_QUEUE = new ReferenceQueue<Object>();
+
+    /**守护线程是否在运行*/
+    private static final AtomicBoolean CLEANER_RUNNING = new AtomicBoolean(false);
+
+    private static final Runnable CLEANER_TASK = new Runnable() {
+        @Override
+        public void run() {
+            boolean interrupted = false;
+            for (;;) {
+                // 还有需要跟踪的对象时一直等待
+                while (!LIVE_SET.isEmpty()) {
+                    final AutomaticCleanerReference reference;
+                    try {
+                        reference = (AutomaticCleanerReference) REFERENCE_QUEUE.remove(REFERENCE_QUEUE_POLL_TIMEOUT_MS);
+                    } catch (InterruptedException ex) {
+                        // Just consume and move on
+                        interrupted = true;
+                        continue;
+                    }
+                    if (reference != null) {
+                        try {
+                            reference.cleanup();
+                        } catch (Throwable t) {
+                            logger.warn("Failed to run cleanup task", t);
+                        }
+                        LIVE_SET.remove(reference);
+                    }
+                }
+                CLEANER_RUNNING.set(false);
+
+                // 退出前再检查一次,期间注册的对象可能没有启动新的守护线程
+                if (LIVE_SET.isEmpty() || !CLEANER_RUNNING.compareAndSet(false, true)) {
+                    break;
+                }
+            }
+            if (interrupted) {
+                // As we caught the InterruptedException above we should mark the Thread as interrupted.
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    /**
+     * 注册对象被回收后执行的清理任务
+     * cleanupTask 不能直接或间接引用 object,否则 object 永远不会被回收
+     * */
+    public static void register(Object object, Runnable cleanupTask) {
+        AutomaticCleanerReference reference = new AutomaticCleanerReference(object,
+                checkNotNull(cleanupTask, "cleanupTask"));
+        LIVE_SET.add(reference);
+
+        // 守护线程没有运行时启动
+        if (CLEANER_RUNNING.compareAndSet(false, true)) {
+            final Thread cleanupThread = new FastThreadLocalThread(CLEANER_TASK);
+            cleanupThread.setPriority(Thread.MIN_PRIORITY);
+            // 不持有注册线程的 ClassLoader,避免 ClassLoader 泄漏
+            cleanupThread.setContextClassLoader(null);
+            cleanupThread.setName(CLEANER_THREAD_NAME);
+            cleanupThread.setDaemon(true);
+            cleanupThread.start();
+        }
+    }
+
+    /**还未执行的清理任务数量*/
+    public static int getLiveSetCount() {
+        return LIVE_SET.size();
+    }
+
+    private ObjectCleaner() {
+        // Only contains a static method.
+    }
+
+    private static final class AutomaticCleanerReference extends PhantomReference<Object> {
+        private final Runnable cleanupTask;
+
+        AutomaticCleanerReference(Object referent, Runnable cleanupTask) {
+            super(referent, REFERENCE_QUEUE);
+            this.cleanupTask = cleanupTask;
+        }
+
+        void cleanup() {
+            cleanupTask.run();
+        }
+    }
+}
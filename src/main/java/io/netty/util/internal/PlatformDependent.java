@@ -327,6 +327,14 @@ public final class PlatformDependent {
         }
     }
 
+    /**
+     * Create a new {@link Queue} which is safe to use for multiple producers (different threads) and a single
+     * consumer (one thread!) with the given fixes {@code capacity}.
+     */
+    public static <T> Queue<T> newFixedMpscQueue(int capacity) {
+        return new MpscArrayQueue<T>(capacity);
+    }
+
     /**
      * Creates a new fastest {@link ConcurrentMap} implementation for the current platform.
      */
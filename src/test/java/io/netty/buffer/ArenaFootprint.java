@@ -0,0 +1,31 @@
+package io.netty.buffer;
+
+/**
+ * 基准测试中统计 Arena 常驻的 Chunk,包括所有 PoolChunkList 中的 Chunk
+ */
+final class ArenaFootprint {
+
+    /**常驻的 Chunk 数量*/
+    static int numChunks(PoolArenaMetric arena) {
+        int numChunks = 0;
+        for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+            for (PoolChunkMetric ignored : chunkList) {
+                numChunks ++;
+            }
+        }
+        return numChunks;
+    }
+
+    /**常驻的 Chunk 中已分配的字节数,按占用的 Page 计算*/
+    static long usedBytes(PoolArenaMetric arena) {
+        long usedBytes = 0;
+        for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+            for (PoolChunkMetric chunk : chunkList) {
+                usedBytes += chunk.chunkSize() - chunk.freeBytes();
+            }
+        }
+        return usedBytes;
+    }
+
+    private ArenaFootprint() { }
+}
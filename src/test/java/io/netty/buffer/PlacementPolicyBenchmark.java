@@ -0,0 +1,146 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按固定的分配/释放序列回放,比较 Normal 内存块的放置策略
+ *
+ * 序列分为三个阶段:增长到峰值、逐渐收缩、之后随机分配和释放。
+ * 每次回放报告:
+ * peakChunks 峰值时常驻的 Chunk 数量,shrunkChunks 收缩后常驻的 Chunk 数量,
+ * steadyChunks 最后阶段平均常驻的 Chunk 数量,p99Nanos 单次分配延迟的 99 分位数
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlacementPolicyBenchmark {
+
+    private static final int[] SIZES = { 8192, 16 * 1024, 24 * 1024, 32 * 1024, 64 * 1024, 128 * 1024, 256 * 1024 };
+    private static final int EVENTS = 50000;
+    private static final int MAX_LIVE = 2048;
+
+    @Param({ "Default", "BestFit", "MemorySaving" })
+    public PoolArena.PlacementPolicy policy;
+
+    private PooledByteBufAllocator allocator;
+    private PoolArenaMetric arena;
+
+    /**第 i 个事件分配的大小,0 表示释放*/
+    private final int[] eventSizes = new int[EVENTS];
+    /**释放的内存块,对当时持有的数量取模*/
+    private final int[] eventPicks = new int[EVENTS];
+    private static final int SAMPLE_INTERVAL = 100;
+
+    private final PooledByteBuf<?>[] live = new PooledByteBuf<?>[MAX_LIVE];
+    private long[] latencies;
+
+    @Setup
+    public void setUp() {
+        // 不使用线程缓存,每次都从 Chunk 分配
+        allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(0).pageSize(8192).maxOrder(11)
+                .tinyCacheSize(0).smallCacheSize(0).normalCacheSize(0).useCacheForAllThreads(true)
+                .placementPolicy(policy).build();
+        allocator.threadCache();
+        arena = allocator.metric().heapArenas().get(0);
+
+        Random random = new Random(0);
+        int numLive = 0;
+        int numAllocations = 0;
+        for (int i = 0; i < EVENTS; i ++) {
+            final double allocateRatio;
+            if (i < EVENTS / 4) {
+                allocateRatio = 0.8;
+            } else if (i < EVENTS / 2) {
+                allocateRatio = numLive > MAX_LIVE / 4 ? 0.35 : 0.5;
+            } else {
+                allocateRatio = 0.5;
+            }
+            boolean allocate = numLive == 0 || numLive < MAX_LIVE && random.nextDouble() < allocateRatio;
+            if (allocate) {
+                eventSizes[i] = SIZES[random.nextInt(SIZES.length)];
+                numLive ++;
+                numAllocations ++;
+            } else {
+                numLive --;
+            }
+            eventPicks[i] = random.nextInt(Integer.MAX_VALUE);
+        }
+        latencies = new long[numAllocations];
+    }
+
+    @Benchmark
+    public void replay(Footprint footprint) {
+        final PooledByteBuf<?>[] live = this.live;
+        int numLive = 0;
+        int numAllocations = 0;
+        int peakChunks = 0;
+        long steadyChunks = 0;
+        for (int i = 0; i < EVENTS; i ++) {
+            final int size = eventSizes[i];
+            if (size != 0) {
+                long start = System.nanoTime();
+                live[numLive ++] = (PooledByteBuf<?>) allocator.heapBuffer(size, Integer.MAX_VALUE);
+                latencies[numAllocations ++] = System.nanoTime() - start;
+            } else {
+                int idx = eventPicks[i] % numLive;
+                live[idx].deallocate();
+                live[idx] = live[-- numLive];
+                live[numLive] = null;
+            }
+            if (i == EVENTS / 4) {
+                peakChunks = ArenaFootprint.numChunks(arena);
+            } else if (i == EVENTS / 2) {
+                footprint.shrunkChunks = ArenaFootprint.numChunks(arena);
+            } else if (i > EVENTS / 2 && i % SAMPLE_INTERVAL == 0) {
+                steadyChunks += ArenaFootprint.numChunks(arena);
+            }
+        }
+        footprint.peakChunks = peakChunks;
+        footprint.steadyChunks = (double) steadyChunks / (EVENTS / 2 / SAMPLE_INTERVAL);
+        for (int i = 0; i < numLive; i ++) {
+            live[i].deallocate();
+            live[i] = null;
+        }
+
+        Arrays.sort(latencies, 0, numAllocations);
+        footprint.p99Nanos = latencies[(int) (numAllocations * 0.99)];
+    }
+
+    /**最近一次回放的结果*/
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long peakChunks;
+        public long shrunkChunks;
+        public double steadyChunks;
+        public long p99Nanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakChunks = 0;
+            shrunkChunks = 0;
+            steadyChunks = 0;
+            p99Nanos = 0;
+        }
+    }
+}
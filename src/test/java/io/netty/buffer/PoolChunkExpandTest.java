@@ -0,0 +1,216 @@
+package io.netty.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Normal 内存块在所属 Chunk 中原地扩容,无法原地扩容时 Chunk 的状态不变
+ */
+public class PoolChunkExpandTest {
+
+    private static final int PAGE_SIZE = 8192;
+
+    private static PoolArena<byte[]> newArena(boolean useRunChunk) {
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                false, 1, 0, PAGE_SIZE, 11, 0, 0, 0, true, 0, useRunChunk);
+        return allocator.threadCache().heapArena;
+    }
+
+    private static PoolChunk<byte[]> newChunk(PoolArena<byte[]> arena) {
+        return arena.newPooledChunk(new byte[arena.chunkSize], arena.pageSize, 11, arena.pageShifts,
+                arena.chunkSize, 0);
+    }
+
+    /**handle 对应的内存块在 Chunk 中的偏移量*/
+    private static int offsetOf(PoolChunk<byte[]> chunk, long handle) {
+        PooledByteBuf<byte[]> buf = PooledHeapByteBuf.newInstance(Integer.MAX_VALUE);
+        chunk.initBuf(buf, handle, PAGE_SIZE, null);
+        return buf.offset;
+    }
+
+    @Test
+    public void testRunChunkExpand() {
+        PoolRunChunk<byte[]> chunk = (PoolRunChunk<byte[]>) newChunk(newArena(true));
+        long handle = chunk.allocate(PAGE_SIZE);
+        int offset = offsetOf(chunk, handle);
+
+        long expanded = chunk.expand(handle, 5 * PAGE_SIZE);
+        assertEquals(5, PoolRunChunk.runPages((int) expanded));
+        assertEquals(offset, offsetOf(chunk, expanded));
+        assertEquals(chunk.chunkSize() - 5 * PAGE_SIZE, chunk.freeBytes);
+
+        // 剩余的空闲 run 从第 5 个 Page 开始
+        int next = chunk.runsAvailMap[5];
+        assertEquals(5, PoolRunChunk.runOffset(next));
+
+        chunk.free(expanded);
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+        assertEquals(chunk.chunkSize(), chunk.maxFreeRun());
+    }
+
+    /**相邻的空闲 run 不够大时失败,足够时恰好用完*/
+    @Test
+    public void testRunChunkNeighbourTooSmall() {
+        PoolRunChunk<byte[]> chunk = (PoolRunChunk<byte[]>) newChunk(newArena(true));
+        long a = chunk.allocate(PAGE_SIZE);
+        long b = chunk.allocate(2 * PAGE_SIZE);
+        long c = chunk.allocate(PAGE_SIZE);
+        chunk.free(b);
+
+        int[] map = chunk.runsAvailMap.clone();
+        int freeBytes = chunk.freeBytes;
+        assertEquals(-1, chunk.expand(a, 4 * PAGE_SIZE));
+        assertArrayEquals(map, chunk.runsAvailMap);
+        assertEquals(freeBytes, chunk.freeBytes);
+
+        long expanded = chunk.expand(a, 3 * PAGE_SIZE);
+        assertEquals(3, PoolRunChunk.runPages((int) expanded));
+        assertEquals(0, chunk.runsAvailMap[1]);
+        assertEquals(0, chunk.runsAvailMap[2]);
+        assertEquals(freeBytes - 2 * PAGE_SIZE, chunk.freeBytes);
+
+        // 后一个 run 已分配
+        assertEquals(-1, chunk.expand(expanded, 4 * PAGE_SIZE));
+
+        chunk.free(expanded);
+        chunk.free(c);
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+        assertEquals(chunk.chunkSize(), chunk.maxFreeRun());
+    }
+
+    /**Chunk 最后一个 run 之后没有 Page,无法扩容*/
+    @Test
+    public void testRunChunkExpandAtChunkBoundary() {
+        PoolRunChunk<byte[]> chunk = (PoolRunChunk<byte[]>) newChunk(newArena(true));
+        List<Long> handles = new ArrayList<Long>();
+        long handle;
+        while ((handle = chunk.allocate(PAGE_SIZE)) >= 0) {
+            handles.add(handle);
+        }
+        long last = handles.remove(handles.size() - 1);
+        assertEquals(chunk.chunkSize() - PAGE_SIZE, offsetOf(chunk, last));
+        // 前面的 Page 空闲也不能向前扩容
+        chunk.free(handles.remove(handles.size() - 1));
+
+        int[] map = chunk.runsAvailMap.clone();
+        assertEquals(-1, chunk.expand(last, 2 * PAGE_SIZE));
+        assertArrayEquals(map, chunk.runsAvailMap);
+        assertEquals(PAGE_SIZE, chunk.freeBytes);
+
+        // 整个 Chunk 的 run 也无法扩容
+        for (long h : handles) {
+            chunk.free(h);
+        }
+        chunk.free(last);
+        long whole = chunk.allocate(chunk.chunkSize());
+        assertEquals(-1, chunk.expand(whole, 2 * chunk.chunkSize()));
+        chunk.free(whole);
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+    }
+
+    @Test
+    public void testRunChunkSubpageNotExpanded() {
+        PoolRunChunk<byte[]> chunk = (PoolRunChunk<byte[]>) newChunk(newArena(true));
+        long handle = chunk.allocate(1024);
+        assertTrue(PoolChunk.bitmapIdx(handle) != 0);
+        assertEquals(-1, chunk.expand(handle, 2 * PAGE_SIZE));
+    }
+
+    @Test
+    public void testBuddyChunkExpand() {
+        PoolChunk<byte[]> chunk = newChunk(newArena(false));
+        long handle = chunk.allocate(PAGE_SIZE);
+        int offset = offsetOf(chunk, handle);
+
+        long expanded = chunk.expand(handle, 2 * PAGE_SIZE);
+        assertTrue(expanded >= 0);
+        assertEquals(offset, offsetOf(chunk, expanded));
+        assertEquals(chunk.chunkSize() - 2 * PAGE_SIZE, chunk.freeBytes);
+
+        // 跨越多层合并
+        expanded = chunk.expand(expanded, 16 * PAGE_SIZE);
+        assertTrue(expanded >= 0);
+        assertEquals(offset, offsetOf(chunk, expanded));
+        assertEquals(chunk.chunkSize() - 16 * PAGE_SIZE, chunk.freeBytes);
+
+        chunk.free(expanded);
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+        assertEquals(chunk.chunkSize(), chunk.maxFreeRun());
+    }
+
+    /**右子节点扩容需要向前合并,起始位置会改变;伙伴节点被占用时也无法合并*/
+    @Test
+    public void testBuddyChunkExpandFails() {
+        PoolChunk<byte[]> chunk = newChunk(newArena(false));
+        long a = chunk.allocate(PAGE_SIZE);
+        long b = chunk.allocate(PAGE_SIZE);
+        assertEquals(PAGE_SIZE, offsetOf(chunk, b));
+
+        int freeBytes = chunk.freeBytes;
+        int maxFreeRun = chunk.maxFreeRun();
+        assertEquals(-1, chunk.expand(a, 2 * PAGE_SIZE));
+        chunk.free(a);
+        assertEquals(-1, chunk.expand(b, 2 * PAGE_SIZE));
+        assertEquals(freeBytes + PAGE_SIZE, chunk.freeBytes);
+        assertEquals(maxFreeRun, chunk.maxFreeRun());
+
+        // 右子节点被占用,左子节点跨层扩容在中间一层失败
+        long c = chunk.allocate(PAGE_SIZE);
+        assertEquals(0, offsetOf(chunk, c));
+        chunk.free(b);
+        long d = chunk.allocate(2 * PAGE_SIZE);
+        assertEquals(2 * PAGE_SIZE, offsetOf(chunk, d));
+        assertEquals(-1, chunk.expand(c, 4 * PAGE_SIZE));
+        assertEquals(chunk.chunkSize() - 3 * PAGE_SIZE, chunk.freeBytes);
+
+        long expanded = chunk.expand(c, 2 * PAGE_SIZE);
+        assertTrue(expanded >= 0);
+        chunk.free(expanded);
+        chunk.free(d);
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+        assertEquals(chunk.chunkSize(), chunk.maxFreeRun());
+    }
+
+    /**通过 ByteBuf#capacity(int) 扩容,能原地扩容时偏移量不变,否则复制到新的内存块*/
+    @Test
+    public void testCapacityExpandsInPlace() {
+        testCapacityExpandsInPlace(true);
+        testCapacityExpandsInPlace(false);
+    }
+
+    private static void testCapacityExpandsInPlace(boolean useRunChunk) {
+        PoolArena<byte[]> arena = newArena(useRunChunk);
+        PooledByteBufAllocator allocator = arena.parent;
+        PooledByteBuf<byte[]> buf = (PooledByteBuf<byte[]>) allocator.heapBuffer(PAGE_SIZE, Integer.MAX_VALUE);
+        PoolChunk<byte[]> chunk = buf.chunk;
+        int offset = buf.offset;
+        buf.memory[offset] = 1;
+
+        buf.capacity(4 * PAGE_SIZE);
+        assertEquals(4 * PAGE_SIZE, buf.capacity());
+        assertSame(chunk, buf.chunk);
+        assertEquals(offset, buf.offset);
+        assertEquals(1, arena.numInPlaceExpansions());
+        assertEquals(0, arena.numCopiedExpansions());
+
+        // 紧随其后的内存块被占用,只能复制
+        PooledByteBuf<byte[]> next = (PooledByteBuf<byte[]>) allocator.heapBuffer(PAGE_SIZE, Integer.MAX_VALUE);
+        assertEquals(offset + 4 * PAGE_SIZE, next.offset);
+        buf.capacity(8 * PAGE_SIZE);
+        assertEquals(8 * PAGE_SIZE, buf.capacity());
+        assertTrue(buf.offset != offset);
+        assertEquals(1, buf.memory[buf.offset]);
+        assertEquals(1, arena.numInPlaceExpansions());
+        assertEquals(1, arena.numCopiedExpansions());
+
+        buf.deallocate();
+        next.deallocate();
+    }
+}
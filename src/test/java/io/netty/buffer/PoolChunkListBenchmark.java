@@ -0,0 +1,81 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量碎片化的 Chunk 中分配 Normal 内存块
+ *
+ * 每个 Chunk 的 Page 隔一个释放一个,最大空闲 run 只有 1 个 Page,
+ * 只有第一个 Chunk 的前 4 个 Page 都空闲,能放下 4 个 Page 的请求。
+ * 按最大空闲 run 分桶后只会尝试这个 Chunk,分配延迟不随 Chunk 数量增加
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoolChunkListBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+    /**chunkSize 为 256KB,每个 Chunk 32 个 Page*/
+    private static final int MAX_ORDER = 5;
+    private static final int PAGES_PER_CHUNK = 1 << MAX_ORDER;
+    private static final int RUN_PAGES = 4;
+
+    @Param({ "16", "256", "1024" })
+    public int chunks;
+
+    private PooledByteBufAllocator allocator;
+    private PoolArenaMetric arena;
+    private long[] handles;
+
+    @Setup
+    public void setUp() {
+        // 不使用线程缓存,每次都从 Chunk 分配
+        allocator = new PooledByteBufAllocator(false, 1, 0, PAGE_SIZE, MAX_ORDER, 0, 0, 0, true);
+        handles = new long[chunks * PAGES_PER_CHUNK];
+        for (int i = 0; i < handles.length; i ++) {
+            handles[i] = allocator.allocateHeapHandle(PAGE_SIZE);
+        }
+        arena = allocator.metric().heapArenas().get(0);
+        if (ArenaFootprint.numChunks(arena) != chunks) {
+            throw new IllegalStateException("chunks: " + ArenaFootprint.numChunks(arena) + " (expected: " + chunks + ')');
+        }
+
+        // Chunk 按顺序占满,handles[i] 为第 i / PAGES_PER_CHUNK 个 Chunk 的第 i % PAGES_PER_CHUNK 个 Page
+        for (int i = 0; i < handles.length; i ++) {
+            if (i < RUN_PAGES || (i & 1) != 0) {
+                PoolHandle.release(handles[i]);
+                handles[i] = 0;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (long handle : handles) {
+            if (handle != 0) {
+                PoolHandle.release(handle);
+            }
+        }
+    }
+
+    @Benchmark
+    public void allocateAndFree() {
+        PoolHandle.release(allocator.allocateHeapHandle(RUN_PAGES * PAGE_SIZE));
+    }
+}
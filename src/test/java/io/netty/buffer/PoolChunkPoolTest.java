@@ -0,0 +1,124 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 空闲 Chunk 池:后放入的先取出,空闲超时的 Chunk 在访问分段或 trim() 时销毁
+ */
+public class PoolChunkPoolTest {
+
+    private static final long IDLE_MILLIS = 50;
+
+    private PoolArena<byte[]> arena;
+
+    @Before
+    public void setUp() {
+        PooledByteBufAllocator allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(0).pageSize(8192).maxOrder(11).build();
+        arena = allocator.threadCache().heapArena;
+    }
+
+    @Test
+    public void testPollLastOffered() {
+        PoolChunkPool<byte[]> pool = newPool(1, 4, Long.MAX_VALUE);
+        PoolChunk<byte[]> a = newChunk();
+        PoolChunk<byte[]> b = newChunk();
+        assertTrue(pool.offer(a));
+        assertTrue(pool.offer(b));
+        assertEquals(2, pool.size());
+
+        assertSame(b, pool.poll(arena));
+        assertSame(a, pool.poll(arena));
+        assertNull(pool.poll(arena));
+        assertEquals(0, pool.size());
+    }
+
+    /**分段已满时拒绝放入,由调用者销毁*/
+    @Test
+    public void testOfferFull() {
+        PoolChunkPool<byte[]> pool = newPool(1, 2, Long.MAX_VALUE);
+        assertTrue(pool.offer(newChunk()));
+        assertTrue(pool.offer(newChunk()));
+        assertFalse(pool.offer(newChunk()));
+        assertEquals(2, pool.size());
+    }
+
+    /**没有超时的 Chunk 不被 trim() 回收*/
+    @Test
+    public void testTrimKeepsIdleChunks() {
+        PoolChunkPool<byte[]> pool = newPool(1, 4, Long.MAX_VALUE);
+        pool.offer(newChunk());
+        assertEquals(0, pool.trim());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testTrimExpired() throws Exception {
+        PoolChunkPool<byte[]> pool = newPool(1, 4, TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+        pool.offer(newChunk());
+        pool.offer(newChunk());
+        Thread.sleep(IDLE_MILLIS * 2);
+
+        assertEquals(2L * arena.chunkSize, pool.trim());
+        assertEquals(0, pool.size());
+        assertNull(pool.poll(arena));
+    }
+
+    /**访问分段时先销毁其中超时的 Chunk,超时的 Chunk 不会被取出*/
+    @Test
+    public void testExpireOnAccess() throws Exception {
+        PoolChunkPool<byte[]> pool = newPool(1, 4, TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+        pool.offer(newChunk());
+        Thread.sleep(IDLE_MILLIS * 2);
+
+        PoolChunk<byte[]> fresh = newChunk();
+        assertTrue(pool.offer(fresh));
+        assertEquals(1, pool.size());
+        assertSame(fresh, pool.poll(arena));
+
+        pool.offer(newChunk());
+        Thread.sleep(IDLE_MILLIS * 2);
+        assertNull(pool.poll(arena));
+        assertEquals(0, pool.size());
+    }
+
+    /**当前线程的分段为空时从其他分段取出*/
+    @Test
+    public void testPollOtherStripe() throws Exception {
+        final PoolChunkPool<byte[]> pool = newPool(2, 4, Long.MAX_VALUE);
+        final PoolChunk<byte[]> chunk = newChunk();
+        // 找到与当前线程使用不同分段的线程
+        Thread thread;
+        do {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pool.offer(chunk);
+                }
+            });
+        } while ((thread.getId() & 1) == (Thread.currentThread().getId() & 1));
+        thread.start();
+        thread.join();
+
+        assertEquals(1, pool.size());
+        assertSame(chunk, pool.poll(arena));
+    }
+
+    private static PoolChunkPool<byte[]> newPool(int numStripes, int maxChunks, long idleNanos) {
+        return new PoolChunkPool<byte[]>(numStripes, maxChunks, idleNanos);
+    }
+
+    private PoolChunk<byte[]> newChunk() {
+        return arena.newPooledChunk(
+                new byte[arena.chunkSize], arena.pageSize, 11, arena.pageShifts, arena.chunkSize, 0);
+    }
+}
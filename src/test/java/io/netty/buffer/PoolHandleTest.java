@@ -0,0 +1,144 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * handle 的读写按绝对下标、大端序进行,越界和无效的 handle 抛出异常
+ */
+public class PoolHandleTest {
+
+    private PooledByteBufAllocator allocator;
+
+    @Before
+    public void setUp() {
+        allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(8192).maxOrder(11).build();
+    }
+
+    @Test
+    public void testHeapAccessors() {
+        long handle = allocator.allocateHeapHandle(100);
+        assertFalse(PoolHandle.isDirect(handle));
+        testAccessors(handle);
+        PoolHandle.release(handle);
+    }
+
+    @Test
+    public void testDirectAccessors() {
+        long handle = allocator.allocateDirectHandle(100);
+        assertTrue(PoolHandle.isDirect(handle));
+        testAccessors(handle);
+        PoolHandle.release(handle);
+    }
+
+    private static void testAccessors(long handle) {
+        final int capacity = PoolHandle.capacity(handle);
+        // 容量为规格化后的容量
+        assertEquals(112, capacity);
+
+        PoolHandle.setInt(handle, 0, 0x01020304);
+        assertEquals(1, PoolHandle.getByte(handle, 0));
+        assertEquals(4, PoolHandle.getByte(handle, 3));
+        assertEquals(0x0102, PoolHandle.getShort(handle, 0));
+        assertEquals(0x01020304, PoolHandle.getInt(handle, 0));
+
+        PoolHandle.setByte(handle, capacity - 1, 0xFF);
+        assertEquals(-1, PoolHandle.getByte(handle, capacity - 1));
+        PoolHandle.setShort(handle, capacity - 2, 0x8001);
+        assertEquals((short) 0x8001, PoolHandle.getShort(handle, capacity - 2));
+        PoolHandle.setInt(handle, capacity - 4, 0x80000001);
+        assertEquals(0x80000001, PoolHandle.getInt(handle, capacity - 4));
+        PoolHandle.setLong(handle, capacity - 8, 0x0102030405060708L);
+        assertEquals(0x0102030405060708L, PoolHandle.getLong(handle, capacity - 8));
+        assertEquals(0x05060708, PoolHandle.getInt(handle, capacity - 4));
+        PoolHandle.setLong(handle, 1, -2L);
+        assertEquals(-2L, PoolHandle.getLong(handle, 1));
+
+        assertOutOfBounds(handle, -1, 1);
+        assertOutOfBounds(handle, capacity, 1);
+        assertOutOfBounds(handle, capacity - 1, 2);
+        assertOutOfBounds(handle, capacity - 3, 4);
+        assertOutOfBounds(handle, capacity - 7, 8);
+    }
+
+    private static void assertOutOfBounds(long handle, int index, int width) {
+        try {
+            switch (width) {
+                case 1:
+                    PoolHandle.getByte(handle, index);
+                    break;
+                case 2:
+                    PoolHandle.setShort(handle, index, 0);
+                    break;
+                case 4:
+                    PoolHandle.getInt(handle, index);
+                    break;
+                default:
+                    PoolHandle.setLong(handle, index, 0);
+                    break;
+            }
+            fail("index: " + index + ", width: " + width);
+        } catch (IndexOutOfBoundsException expected) {
+            // expected
+        }
+    }
+
+    /**释放后同一规格的分配从线程缓存复用同一内存块*/
+    @Test
+    public void testReleaseAndReuse() {
+        long handle = allocator.allocateHeapHandle(1024);
+        PoolHandle.release(handle);
+        assertEquals(handle, allocator.allocateHeapHandle(1000));
+    }
+
+    /**Huge 内存块的容量为请求容量,释放后 Chunk 注销,handle 失效*/
+    @Test
+    public void testHuge() {
+        PoolArena<byte[]> arena = allocator.threadCache().heapArena;
+        long handle = allocator.allocateHeapHandle(arena.chunkSize + 1);
+        assertEquals(arena.chunkSize + 1, PoolHandle.capacity(handle));
+        PoolHandle.setLong(handle, arena.chunkSize - 7, 42);
+        assertEquals(42, PoolHandle.getLong(handle, arena.chunkSize - 7));
+
+        PoolHandle.release(handle);
+        assertInvalid(handle);
+    }
+
+    @Test
+    public void testInvalidHandle() {
+        assertInvalid(PoolHandle.INVALID);
+        // 没有注册的 Chunk id
+        assertInvalid(Long.MAX_VALUE);
+    }
+
+    private static void assertInvalid(long handle) {
+        try {
+            PoolHandle.capacity(handle);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        try {
+            PoolHandle.release(handle);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        allocator.allocateHeapHandle(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoDirectArena() {
+        PooledByteBufAllocator.builder().nDirectArena(0).build().allocateDirectHandle(16);
+    }
+}
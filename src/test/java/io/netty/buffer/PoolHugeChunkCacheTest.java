@@ -0,0 +1,134 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Huge Chunk 缓存的字节上限、LRU 淘汰顺序,以及 poll 后桶与 LRU 队列保持一致
+ */
+public class PoolHugeChunkCacheTest {
+
+    private static final int MB = 1 << 20;
+    /**1MB 之后的下一个规格*/
+    private static final int MB_NEXT = MB + (MB >>> 3);
+    private static final long MAX_BYTES = 3L * MB;
+
+    private PoolArena<byte[]> arena;
+    private PoolHugeChunkCache<byte[]> cache;
+
+    @Before
+    public void setUp() {
+        PooledByteBufAllocator allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(0).pageSize(8192).maxOrder(11).build();
+        arena = allocator.threadCache().heapArena;
+        cache = new PoolHugeChunkCache<byte[]>(arena, MAX_BYTES);
+    }
+
+    @Test
+    public void testNormalizeCapacity() {
+        assertEquals(MB, PoolHugeChunkCache.normalizeCapacity(MB));
+        assertEquals(MB, PoolHugeChunkCache.normalizeCapacity(MB - 100));
+        assertEquals(MB_NEXT, PoolHugeChunkCache.normalizeCapacity(MB + 1));
+        assertEquals(MB_NEXT, PoolHugeChunkCache.normalizeCapacity(MB_NEXT));
+        // 溢出时不做规格化
+        assertEquals(Integer.MAX_VALUE, PoolHugeChunkCache.normalizeCapacity(Integer.MAX_VALUE));
+    }
+
+    /**只复用同一规格中最近放入的 Chunk*/
+    @Test
+    public void testPollSameSize() {
+        PoolChunk<byte[]> a1 = newChunk(MB);
+        PoolChunk<byte[]> a2 = newChunk(MB);
+        assertTrue(cache.offer(a1));
+        assertTrue(cache.offer(a2));
+        assertEquals(2L * MB, cache.cachedBytes());
+
+        assertNull(cache.poll(MB + 1));
+        assertSame(a2, cache.poll(MB - 100));
+        assertSame(a1, cache.poll(MB));
+        assertNull(cache.poll(MB));
+        assertEquals(0, cache.cachedBytes());
+        assertEquals(2, cache.numHits());
+        assertEquals(2, cache.numMisses());
+    }
+
+    @Test
+    public void testOfferLargerThanMaxBytes() {
+        assertFalse(cache.offer(newChunk(4 * MB)));
+        assertEquals(0, cache.cachedBytes());
+        assertEquals(0, cache.numEvictions());
+    }
+
+    /**超出字节上限时淘汰最早放入的 Chunk,而不是同一规格中的其他 Chunk*/
+    @Test
+    public void testEvictEldest() {
+        PoolChunk<byte[]> a1 = newChunk(MB);
+        PoolChunk<byte[]> b1 = newChunk(MB_NEXT);
+        PoolChunk<byte[]> a2 = newChunk(MB);
+        cache.offer(a1);
+        cache.offer(b1);
+        assertEquals(0, cache.numEvictions());
+        cache.offer(a2);
+        assertEquals(1, cache.numEvictions());
+        assertEquals((long) MB + MB_NEXT, cache.cachedBytes());
+
+        assertSame(a2, cache.poll(MB));
+        assertNull(cache.poll(MB));
+        assertSame(b1, cache.poll(MB_NEXT));
+        assertEquals(0, cache.cachedBytes());
+    }
+
+    /**poll 取出的 Chunk 同时从 LRU 队列移除,之后的淘汰不会再选中它*/
+    @Test
+    public void testPollRemovesFromLru() {
+        PoolChunk<byte[]> a1 = newChunk(MB);
+        PoolChunk<byte[]> b1 = newChunk(MB_NEXT);
+        PoolChunk<byte[]> a2 = newChunk(MB);
+        cache.offer(a1);
+        cache.offer(b1);
+        assertSame(b1, cache.poll(MB_NEXT));
+        cache.offer(a2);
+        assertEquals(2L * MB, cache.cachedBytes());
+
+        // b1 已取出,淘汰 a1 后缓存 a2、b2
+        PoolChunk<byte[]> b2 = newChunk(MB_NEXT);
+        cache.offer(b2);
+        assertEquals(1, cache.numEvictions());
+        assertEquals((long) MB + MB_NEXT, cache.cachedBytes());
+
+        // 重新放入取出的 b1,淘汰的是最早放入的 a2
+        cache.offer(b1);
+        assertEquals(2, cache.numEvictions());
+        assertEquals(2L * MB_NEXT, cache.cachedBytes());
+        assertNull(cache.poll(MB));
+        assertSame(b1, cache.poll(MB_NEXT));
+        assertSame(b2, cache.poll(MB_NEXT));
+        assertEquals(0, cache.cachedBytes());
+    }
+
+    @Test
+    public void testTrim() {
+        cache.offer(newChunk(MB));
+        cache.offer(newChunk(MB_NEXT));
+        assertEquals((long) MB + MB_NEXT, cache.trim());
+        assertEquals(0, cache.cachedBytes());
+        assertNull(cache.poll(MB));
+        assertNull(cache.poll(MB_NEXT));
+        assertEquals(0, cache.trim());
+
+        // trim 后继续正常缓存
+        PoolChunk<byte[]> chunk = newChunk(MB);
+        assertTrue(cache.offer(chunk));
+        assertSame(chunk, cache.poll(MB));
+    }
+
+    private PoolChunk<byte[]> newChunk(int capacity) {
+        return arena.newUnpooledChunk(capacity);
+    }
+}
@@ -0,0 +1,91 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 满二叉树的 PoolChunk 与按 run 分配的 PoolRunChunk:Normal 内存块的分配延迟和占用的内存
+ *
+ * 请求的 Page 数量不是 2 的幂次时,满二叉树向上取整,如 40KB 占用 64KB,
+ * allocateBatch 的 usedBytes 为同时持有 BATCH 个内存块时 Chunk 中已分配的字节数
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoolRunChunkBenchmark {
+
+    private static final int BATCH = 256;
+
+    @Param({ "false", "true" })
+    public boolean useRunChunk;
+
+    /**3、5、9 个 Page*/
+    @Param({ "24576", "40960", "73728" })
+    public int size;
+
+    private PooledByteBufAllocator allocator;
+    private PoolArenaMetric arena;
+    private final PooledByteBuf<?>[] bufs = new PooledByteBuf<?>[BATCH];
+
+    @Setup
+    public void setUp() {
+        // 不使用线程缓存,每次都从 Chunk 分配
+        allocator = new PooledByteBufAllocator(false, 1, 0, 8192, 11, 0, 0, 0, true, 0, useRunChunk);
+        allocator.heapBuffer(size, Integer.MAX_VALUE);
+        arena = allocator.metric().heapArenas().get(0);
+    }
+
+    @Benchmark
+    public void allocateAndFree() {
+        ((PooledByteBuf<?>) allocator.heapBuffer(size, Integer.MAX_VALUE)).deallocate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void allocateBatch(Footprint footprint) {
+        for (int i = 0; i < BATCH; i ++) {
+            bufs[i] = (PooledByteBuf<?>) allocator.heapBuffer(size, Integer.MAX_VALUE);
+        }
+        footprint.record(arena);
+        for (int i = 0; i < BATCH; i ++) {
+            bufs[i].deallocate();
+            bufs[i] = null;
+        }
+    }
+
+    /**同时持有 BATCH 个内存块时常驻的 Chunk 数量和已分配的字节数*/
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long chunks;
+        public long usedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chunks = 0;
+            usedBytes = 0;
+        }
+
+        void record(PoolArenaMetric arena) {
+            chunks = Math.max(chunks, ArenaFootprint.numChunks(arena));
+            usedBytes = Math.max(usedBytes, ArenaFootprint.usedBytes(arena));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * run 的拆分与合并:任意顺序分配和释放后,空闲 run 合并回整个 Chunk
+ */
+public class PoolRunChunkTest {
+
+    private PoolArena<byte[]> arena;
+    private PoolRunChunk<byte[]> chunk;
+    private int chunkPages;
+
+    @Before
+    public void setUp() {
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1, 0, 8192, 11, 0, 0, 0, true, 0, true);
+        arena = allocator.threadCache().heapArena;
+        chunk = (PoolRunChunk<byte[]>) arena.newPooledChunk(
+                new byte[arena.chunkSize], arena.pageSize, 11, arena.pageShifts, arena.chunkSize, 0);
+        chunkPages = arena.chunkSize >>> arena.pageShifts;
+    }
+
+    @Test
+    public void testInitialState() {
+        assertEquals(arena.chunkSize, chunk.freeBytes);
+        assertEquals(arena.chunkSize, chunk.maxFreeRun());
+        int handle = chunk.runsAvailMap[0];
+        assertEquals(0, PoolRunChunk.runOffset(handle));
+        assertEquals(chunkPages, PoolRunChunk.runPages(handle));
+        assertEquals(handle, chunk.runsAvailMap[chunkPages - 1]);
+    }
+
+    /**只占用请求的 Page 数量,5 个 Page 的请求不向上取整到 8 个*/
+    @Test
+    public void testAllocateExactPages() {
+        int normCapacity = normalize(5 * arena.pageSize);
+        assertEquals(5 * arena.pageSize, normCapacity);
+        long handle = chunk.allocate(normCapacity);
+        assertEquals(0, PoolRunChunk.runOffset((int) handle));
+        assertEquals(5, PoolRunChunk.runPages((int) handle));
+        assertEquals(arena.chunkSize - normCapacity, chunk.freeBytes);
+
+        // 剩余部分拆分为从第 5 个 Page 开始的空闲 run
+        int rem = chunk.runsAvailMap[5];
+        assertEquals(5, PoolRunChunk.runOffset(rem));
+        assertEquals(chunkPages - 5, PoolRunChunk.runPages(rem));
+
+        chunk.free(handle);
+        assertFullyFree();
+    }
+
+    /**中间的 run 最后释放时与前后两个空闲 run 合并*/
+    @Test
+    public void testCollapseWithPrevAndNext() {
+        int normCapacity = 2 * arena.pageSize;
+        long a = chunk.allocate(normCapacity);
+        long b = chunk.allocate(normCapacity);
+        long c = chunk.allocate(normCapacity);
+        // 占满剩余的 Page,a、b、c 释放后只能彼此合并
+        List<Long> rest = new ArrayList<Long>();
+        long handle;
+        while ((handle = chunk.allocate(arena.pageSize)) >= 0) {
+            rest.add(handle);
+        }
+        assertEquals(0, chunk.freeBytes);
+        assertEquals(-1, chunk.allocate(arena.pageSize));
+
+        chunk.free(a);
+        chunk.free(c);
+        // a 和 c 不相邻,分别是一个 2 个 Page 的空闲 run
+        assertEquals(2 * normCapacity, chunk.freeBytes);
+        assertEquals(normCapacity, chunk.maxFreeRun());
+
+        chunk.free(b);
+        assertEquals(3 * normCapacity, chunk.maxFreeRun());
+        int merged = chunk.runsAvailMap[0];
+        assertEquals(6, PoolRunChunk.runPages(merged));
+        assertEquals(merged, chunk.runsAvailMap[5]);
+        assertEquals(0, chunk.runsAvailMap[2]);
+        assertEquals(0, chunk.runsAvailMap[3]);
+
+        for (long r : rest) {
+            chunk.free(r);
+        }
+        assertFullyFree();
+    }
+
+    @Test
+    public void testAllocateAllPages() {
+        List<Long> handles = new ArrayList<Long>();
+        long handle;
+        while ((handle = chunk.allocate(arena.pageSize)) >= 0) {
+            handles.add(handle);
+        }
+        assertEquals(chunkPages, handles.size());
+        assertEquals(0, chunk.freeBytes);
+        assertEquals(0, chunk.maxFreeRun());
+
+        // 按奇偶交错释放,后一半释放时每次都要合并
+        for (int i = 0; i < handles.size(); i += 2) {
+            chunk.free(handles.get(i));
+        }
+        assertEquals(arena.pageSize, chunk.maxFreeRun());
+        for (int i = 1; i < handles.size(); i += 2) {
+            chunk.free(handles.get(i));
+        }
+        assertFullyFree();
+    }
+
+    @Test
+    public void testRandomSplitAndMerge() {
+        int[] initialMap = chunk.runsAvailMap.clone();
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round ++) {
+            List<Long> handles = new ArrayList<Long>();
+            BitSet used = new BitSet(chunkPages);
+            for (int i = 0; i < 2000; i ++) {
+                if (handles.isEmpty() || random.nextInt(3) != 0) {
+                    int normCapacity = normalize(arena.pageSize + random.nextInt(arena.chunkSize / 16));
+                    long handle = chunk.allocate(normCapacity);
+                    if (handle < 0) {
+                        assertTrue(chunk.maxFreeRun() < normCapacity);
+                        continue;
+                    }
+                    int offset = PoolRunChunk.runOffset((int) handle);
+                    int pages = PoolRunChunk.runPages((int) handle);
+                    assertEquals(normCapacity >>> arena.pageShifts, pages);
+                    // 分配到的 run 不与已分配的 run 重叠
+                    assertTrue(used.get(offset, offset + pages).isEmpty());
+                    used.set(offset, offset + pages);
+                    handles.add(handle);
+                } else {
+                    long handle = handles.remove(random.nextInt(handles.size()));
+                    int offset = PoolRunChunk.runOffset((int) handle);
+                    used.clear(offset, offset + PoolRunChunk.runPages((int) handle));
+                    chunk.free(handle);
+                }
+                assertEquals(arena.chunkSize - ((long) used.cardinality() << arena.pageShifts), chunk.freeBytes);
+                assertFreeRunsMatch(used);
+            }
+            while (!handles.isEmpty()) {
+                chunk.free(handles.remove(random.nextInt(handles.size())));
+            }
+            assertArrayEquals("round " + round, initialMap, chunk.runsAvailMap);
+            assertFullyFree();
+        }
+    }
+
+    /**每个未分配的 Page 都属于一个空闲 run,且空闲 run 之间没有相邻(已合并)*/
+    private void assertFreeRunsMatch(BitSet used) {
+        int page = 0;
+        while (page < chunkPages) {
+            if (used.get(page)) {
+                page ++;
+                continue;
+            }
+            int handle = chunk.runsAvailMap[page];
+            assertEquals(page, PoolRunChunk.runOffset(handle));
+            int end = page + PoolRunChunk.runPages(handle);
+            assertEquals(handle, chunk.runsAvailMap[end - 1]);
+            assertTrue(used.get(page, end).isEmpty());
+            assertFalse(end < chunkPages && !used.get(end));
+            page = end;
+        }
+    }
+
+    private void assertFullyFree() {
+        assertEquals(arena.chunkSize, chunk.freeBytes);
+        assertEquals(arena.chunkSize, chunk.maxFreeRun());
+        long handle = chunk.allocate(arena.chunkSize);
+        assertEquals(0, PoolRunChunk.runOffset((int) handle));
+        assertEquals(chunkPages, PoolRunChunk.runPages((int) handle));
+        chunk.free(handle);
+    }
+
+    private int normalize(int reqCapacity) {
+        return arena.sizeClasses.sizeIdx2size(arena.sizeClasses.size2SizeIdx(reqCapacity));
+    }
+}
@@ -0,0 +1,82 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subpage 中内存段的分配和释放
+ *
+ * 预先占满 4 个 Subpage,每次释放两个不相邻的内存段再分配两个:
+ * 第一个分配使用 nextAvail,第二个需要通过 bitmap 查找空闲的内存段
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoolSubpageBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+    private static final int SUBPAGES = 4;
+
+    @Param({ "16", "64", "496" })
+    public int elemSize;
+
+    private PooledByteBufAllocator allocator;
+    private long[] handles;
+    private int stride;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // 不使用线程缓存,每次都从 Subpage 分配
+        allocator = new PooledByteBufAllocator(false, 1, 0, PAGE_SIZE, 11, 0, 0, 0, true);
+        handles = new long[PAGE_SIZE / elemSize * SUBPAGES];
+        for (int i = 0; i < handles.length; i ++) {
+            handles[i] = allocator.allocateHeapHandle(elemSize);
+        }
+        // 与数组长度互质的步长,释放的位置分散在 bitmap 中
+        stride = handles.length / 2 + 1;
+        while (gcd(stride, handles.length) != 1) {
+            stride ++;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (long handle : handles) {
+            PoolHandle.release(handle);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void freeAndAllocate() {
+        final long[] handles = this.handles;
+        final int a = next;
+        final int b = (a + stride) % handles.length;
+        next = (b + stride) % handles.length;
+        PoolHandle.release(handles[a]);
+        PoolHandle.release(handles[b]);
+        handles[a] = allocator.allocateHeapHandle(elemSize);
+        handles[b] = allocator.allocateHeapHandle(elemSize);
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -0,0 +1,25 @@
+package io.netty.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 与 {@link PoolSubpageTest} 相同,Subpage 通过 CAS 无锁分配和释放内存段
+ */
+public class PoolSubpageConcurrentTest extends PoolSubpageTest {
+
+    @Override
+    PooledByteBufAllocator newAllocator(PooledByteBufAllocator.Builder builder) {
+        PooledByteBufAllocator allocator = builder.concurrentSubpage(true).build();
+        assertTrue(allocator.concurrentSubpage);
+        return allocator;
+    }
+
+    /**state 的高 32 位为 elemSize,低 32 位为 numAvail,都回到初始值*/
+    @Override
+    void assertSubpageFree(PoolSubpageMetric subpage) {
+        super.assertSubpageFree(subpage);
+        PoolSubpage<?> s = (PoolSubpage<?>) subpage;
+        assertEquals(s.elemSize, subpage.elementSize());
+    }
+}
@@ -0,0 +1,193 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tiny/Small 内存块分配和全部释放后,Subpage 的 bitmap 和 Chunk 的空闲字节数都回到空闲状态
+ *
+ * 线程缓存大小为 0,每次分配和释放都经过 Subpage
+ */
+public class PoolSubpageTest {
+
+    static final int[] SIZES = { 16, 32, 48, 64, 112, 496, 512, 1024, 2048, 4096 };
+
+    static final int THREADS = 4;
+    static final int ITERATIONS = 20000;
+
+    PooledByteBufAllocator allocator;
+    PoolArena<byte[]> arena;
+
+    @Before
+    public void setUp() {
+        allocator = newAllocator(PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(8192).maxOrder(11)
+                .tinyCacheSize(0).smallCacheSize(0).normalCacheSize(0).useCacheForAllThreads(true));
+        // 创建当前线程的缓存,同时创建 Arena
+        arena = allocator.threadCache().heapArena;
+    }
+
+    PooledByteBufAllocator newAllocator(PooledByteBufAllocator.Builder builder) {
+        return builder.build();
+    }
+
+    @Test
+    public void testAllocateAndFreeAll() {
+        List<PooledByteBuf<byte[]>> bufs = new ArrayList<PooledByteBuf<byte[]>>();
+        for (int size : SIZES) {
+            // 超过一个 Subpage 的数量,使同一规格占用多个 Subpage
+            int n = 8192 / size * 3 + 1;
+            for (int i = 0; i < n; i ++) {
+                bufs.add(allocate(size));
+            }
+        }
+        assertFalse(arena.tinySubpages().isEmpty());
+        assertFalse(arena.smallSubpages().isEmpty());
+
+        for (PooledByteBuf<byte[]> buf : bufs) {
+            buf.deallocate();
+        }
+        assertAllFree();
+    }
+
+    @Test
+    public void testRandomAllocateAndFree() {
+        randomAllocateAndFree(new Random(42), SIZES, ITERATIONS);
+        assertAllFree();
+    }
+
+    @Test
+    public void testConcurrentAllocateAndFree() throws Throwable {
+        runConcurrently(SIZES);
+        assertAllFree();
+    }
+
+    /**所有线程分配同一规格,竞争同一个 Subpage*/
+    @Test
+    public void testConcurrentAllocateAndFreeSameSize() throws Throwable {
+        runConcurrently(new int[] { 16 });
+        assertAllFree();
+        runConcurrently(new int[] { 4096 });
+        assertAllFree();
+    }
+
+    /**其他线程分配的内存块在当前线程释放*/
+    @Test
+    public void testFreeFromOtherThread() throws Throwable {
+        final List<PooledByteBuf<byte[]>> bufs = new ArrayList<PooledByteBuf<byte[]>>();
+        for (int i = 0; i < 1000; i ++) {
+            bufs.add(allocate(SIZES[i % SIZES.length]));
+        }
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (PooledByteBuf<byte[]> buf : bufs) {
+                        buf.deallocate();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        t.start();
+        t.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertAllFree();
+    }
+
+    @SuppressWarnings("unchecked")
+    PooledByteBuf<byte[]> allocate(int size) {
+        PooledByteBuf<byte[]> buf = (PooledByteBuf<byte[]>) allocator.heapBuffer(size, Integer.MAX_VALUE);
+        assertTrue(buf.chunk != null && !buf.chunk.unpooled);
+        assertEquals(size, buf.capacity());
+        return buf;
+    }
+
+    /**随机分配和释放,最多同时持有 256 个内存块,最后全部释放*/
+    void randomAllocateAndFree(Random random, int[] sizes, int iterations) {
+        List<PooledByteBuf<byte[]>> bufs = new ArrayList<PooledByteBuf<byte[]>>();
+        for (int i = 0; i < iterations; i ++) {
+            if (bufs.isEmpty() || bufs.size() < 256 && random.nextBoolean()) {
+                PooledByteBuf<byte[]> buf = allocate(sizes[random.nextInt(sizes.length)]);
+                // 写入后检查没有与其他内存块重叠
+                buf.memory[buf.offset] = (byte) i;
+                buf.memory[buf.offset + buf.capacity() - 1] = (byte) i;
+                bufs.add(buf);
+            } else {
+                PooledByteBuf<byte[]> buf = bufs.remove(random.nextInt(bufs.size()));
+                assertEquals(buf.memory[buf.offset], buf.memory[buf.offset + buf.capacity() - 1]);
+                buf.deallocate();
+            }
+        }
+        for (PooledByteBuf<byte[]> buf : bufs) {
+            buf.deallocate();
+        }
+    }
+
+    void runConcurrently(final int[] sizes) throws Throwable {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i ++) {
+            final int seed = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        randomAllocateAndFree(new Random(seed), sizes, ITERATIONS);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * 留在 Subpage 池中的 Subpage 全部空闲,且 Chunk 中已分配的字节数恰好是这些 Subpage 占用的 Page
+     */
+    void assertAllFree() {
+        List<PoolSubpageMetric> subpages = new ArrayList<PoolSubpageMetric>();
+        subpages.addAll(arena.tinySubpages());
+        subpages.addAll(arena.smallSubpages());
+        for (PoolSubpageMetric subpage : subpages) {
+            assertSubpageFree(subpage);
+        }
+
+        long usedBytes = 0;
+        for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+            for (PoolChunkMetric chunk : chunkList) {
+                usedBytes += chunk.chunkSize() - chunk.freeBytes();
+            }
+        }
+        assertEquals((long) arena.pageSize * subpages.size(), usedBytes);
+    }
+
+    void assertSubpageFree(PoolSubpageMetric subpage) {
+        assertEquals(subpage.maxNumElements(), subpage.numAvailable());
+        assertEquals(subpage.pageSize() / subpage.elementSize(), subpage.maxNumElements());
+    }
+}
@@ -0,0 +1,241 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MemoryRegionCache 的无锁环形数组:多个线程放入、所属线程同时取出,每个内存块恰好被取出一次
+ */
+public class PoolThreadCacheTest {
+
+    private static final int PAGE_SIZE = 8192;
+    private static final int PRODUCERS = 4;
+    /**不超过一个 Chunk 的 Page 数量,所有内存块都在同一个 Chunk 中*/
+    private static final int BLOCKS = 1024;
+    private static final int CACHE_SIZE = 64;
+
+    private PoolThreadCache allocatorCache;
+    private PoolArena<byte[]> arena;
+    private PoolChunk<byte[]> chunk;
+    private long[] handles;
+    private int sizeIdx;
+
+    @Before
+    public void setUp() {
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1, 0, PAGE_SIZE, 11, 0, 0, 0, true);
+        allocatorCache = allocator.threadCache();
+        arena = allocatorCache.heapArena;
+        sizeIdx = arena.sizeClasses.size2SizeIdx(PAGE_SIZE);
+        allocateBlocks();
+    }
+
+    /**从 Arena 分配,不经过任何缓存*/
+    private void allocateBlocks() {
+        chunk = null;
+        handles = new long[BLOCKS];
+        for (int i = 0; i < BLOCKS; i ++) {
+            PooledByteBuf<byte[]> buf = PooledHeapByteBuf.newInstance(Integer.MAX_VALUE);
+            arena.allocate(allocatorCache, buf, PAGE_SIZE);
+            if (chunk == null) {
+                chunk = buf.chunk;
+            }
+            assertSame(chunk, buf.chunk);
+            handles[i] = buf.handle;
+        }
+        assertEquals(chunk.chunkSize() - BLOCKS * PAGE_SIZE, chunk.freeBytes);
+    }
+
+    /**只有 Normal 缓存,不会因分配次数触发 trim*/
+    private PoolThreadCache newCache() {
+        return new PoolThreadCache(arena, null, 0, 0, CACHE_SIZE, 32 * 1024, Integer.MAX_VALUE, 1, false);
+    }
+
+    @Test
+    public void testAddAndAllocate() {
+        PoolThreadCache cache = newCache();
+        for (int i = 0; i < CACHE_SIZE; i ++) {
+            assertTrue(cache.add(arena, chunk, handles[i], sizeIdx));
+        }
+        // 已满
+        assertFalse(cache.add(arena, chunk, handles[CACHE_SIZE], sizeIdx));
+
+        // 先进先出
+        for (int i = 0; i < CACHE_SIZE; i ++) {
+            PooledByteBuf<byte[]> buf = PooledHeapByteBuf.newInstance(Integer.MAX_VALUE);
+            assertTrue(cache.allocate(arena, buf, PAGE_SIZE, sizeIdx));
+            assertEquals(handles[i], buf.handle);
+            assertSame(cache, buf.cache);
+        }
+        assertFalse(cache.allocate(arena, PooledHeapByteBuf.newInstance(Integer.MAX_VALUE), PAGE_SIZE, sizeIdx));
+
+        freeAll();
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+    }
+
+    /**多个线程放入,所属线程同时取出,每个内存块恰好取出一次*/
+    @Test
+    public void testConcurrentAddAndAllocate() throws Throwable {
+        final PoolThreadCache cache = newCache();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p ++) {
+            final int first = p;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = first; i < BLOCKS; i += PRODUCERS) {
+                            // 缓存已满时等待所属线程取出
+                            while (!cache.add(arena, chunk, handles[i], sizeIdx)) {
+                                Thread.yield();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            t.start();
+            producers.add(t);
+        }
+        start.countDown();
+
+        BitSet received = new BitSet(BLOCKS);
+        PooledByteBuf<byte[]> buf = PooledHeapByteBuf.newInstance(Integer.MAX_VALUE);
+        int count = 0;
+        while (count < BLOCKS && error.get() == null) {
+            if (cache.allocate(arena, buf, PAGE_SIZE, sizeIdx)) {
+                int idx = indexOf(buf.handle);
+                assertFalse("allocated twice: " + idx, received.get(idx));
+                received.set(idx);
+                count ++;
+            }
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(BLOCKS, received.cardinality());
+        assertFalse(cache.allocate(arena, buf, PAGE_SIZE, sizeIdx));
+
+        freeAll();
+        assertEquals(chunk.chunkSize(), chunk.freeBytes);
+    }
+
+    /**
+     * 所属线程取出、其他线程放入的同时释放缓存:每个内存块只会被所属线程取出、
+     * 由 free() 归还给 Arena,或放入失败后由放入的线程归还给 Arena 中的一种
+     */
+    @Test
+    public void testFreeWhileAddAndAllocate() throws Throwable {
+        for (int round = 0; round < 20; round ++) {
+            final PoolThreadCache cache = newCache();
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            final AtomicInteger offered = new AtomicInteger();
+            final AtomicInteger done = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int p = 0; p < PRODUCERS; p ++) {
+                final int first = p;
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = first; i < BLOCKS; i += PRODUCERS) {
+                                if (!cache.add(arena, chunk, handles[i], sizeIdx)) {
+                                    arena.freeChunk(chunk, handles[i]);
+                                }
+                                offered.incrementAndGet();
+                            }
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            done.incrementAndGet();
+                        }
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+            // 每一轮在放入不同数量的内存块后释放缓存
+            final int freeAfter = round * BLOCKS / 20;
+            Thread freer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (offered.get() < freeAfter) {
+                            Thread.yield();
+                        }
+                        cache.free();
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            freer.start();
+            threads.add(freer);
+            start.countDown();
+
+            BitSet received = new BitSet(BLOCKS);
+            PooledByteBuf<byte[]> buf = PooledHeapByteBuf.newInstance(Integer.MAX_VALUE);
+            while (done.get() < PRODUCERS || freer.isAlive()) {
+                if (cache.allocate(arena, buf, PAGE_SIZE, sizeIdx)) {
+                    int idx = indexOf(buf.handle);
+                    assertFalse("allocated twice: " + idx, received.get(idx));
+                    received.set(idx);
+                }
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+            // 释放后放入的内存块由放入的线程立即清空
+            assertFalse(cache.allocate(arena, buf, PAGE_SIZE, sizeIdx));
+
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                arena.freeChunk(chunk, handles[i]);
+            }
+            // 没有泄露,也没有重复释放
+            assertEquals("round " + round, chunk.chunkSize(), chunk.freeBytes);
+            assertEquals(chunk.chunkSize(), chunk.maxFreeRun());
+
+            allocateBlocks();
+        }
+        freeAll();
+    }
+
+    private int indexOf(long handle) {
+        for (int i = 0; i < BLOCKS; i ++) {
+            if (handles[i] == handle) {
+                return i;
+            }
+        }
+        throw new AssertionError("unknown handle: " + handle);
+    }
+
+    private void freeAll() {
+        for (int i = 0; i < BLOCKS; i ++) {
+            arena.freeChunk(chunk, handles[i]);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 池化内存的分配和释放在 Java 堆上创建的字节数,与 {@link PooledByteBufAllocatorAllocationTest} 相同的场景
+ *
+ * 需要加上 -prof gc 运行,预热后 gc.alloc.rate.norm 应为 0 B/op:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="PooledByteBufAllocatorAllocationBenchmark -prof gc"
+ *
+ * size 分别对应 Tiny、Small、Normal 内存块,都从线程缓存分配
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PooledByteBufAllocatorAllocationBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+
+    @Param({ "heap", "direct" })
+    public String bufferType;
+
+    @Param({ "64", "1024", "16384" })
+    public int size;
+
+    private PooledByteBufAllocator allocator;
+    private boolean direct;
+
+    @Setup
+    public void setUp() {
+        allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(PAGE_SIZE).maxOrder(11).build();
+        if ("heap".equals(bufferType)) {
+            direct = false;
+        } else if ("direct".equals(bufferType)) {
+            direct = true;
+        } else {
+            throw new IllegalArgumentException("bufferType: " + bufferType);
+        }
+    }
+
+    @Benchmark
+    public void allocateAndFree() {
+        PooledByteBuf<?> buf = (PooledByteBuf<?>) (direct ?
+                allocator.directBuffer(size, Integer.MAX_VALUE) : allocator.heapBuffer(size, Integer.MAX_VALUE));
+        buf.deallocate();
+    }
+}
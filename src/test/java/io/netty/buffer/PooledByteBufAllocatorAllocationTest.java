@@ -0,0 +1,185 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 预热后分配和释放池化内存不在 Java 堆上创建对象,即 0 B/op
+ *
+ * 通过 {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} 统计线程在堆上分配的字节数,
+ * 不支持时跳过。其他线程归还内存块时经过 Arena 的 remote free 队列
+ */
+public class PooledByteBufAllocatorAllocationTest {
+
+    /**预热时多次调用同一个方法,使其被 JIT 编译,解释执行时逃逸分析不会消除临时对象*/
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ITERATIONS = 100000;
+    private static final int[] SIZES = { 64, 1024, 16 * 1024 };
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private PooledByteBufAllocator allocator;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(8192).maxOrder(11)
+                .remoteFreeQueueCapacity(1024).build();
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testHeapBuffer() {
+        for (int size : SIZES) {
+            for (int i = 0; i < WARMUP_ROUNDS; i ++) {
+                heapCycles(size, ITERATIONS / WARMUP_ROUNDS);
+            }
+            long start = allocatedBytes();
+            heapCycles(size, ITERATIONS);
+            long allocated = allocatedBytes() - start;
+            assertZeroBytesPerOp("heap " + size, allocated);
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        for (int size : SIZES) {
+            for (int i = 0; i < WARMUP_ROUNDS; i ++) {
+                directCycles(size, ITERATIONS / WARMUP_ROUNDS);
+            }
+            long start = allocatedBytes();
+            directCycles(size, ITERATIONS);
+            long allocated = allocatedBytes() - start;
+            assertZeroBytesPerOp("direct " + size, allocated);
+        }
+    }
+
+    @Test
+    public void testHandle() {
+        for (int size : SIZES) {
+            for (int i = 0; i < WARMUP_ROUNDS; i ++) {
+                handleCycles(size, ITERATIONS / WARMUP_ROUNDS);
+            }
+            long start = allocatedBytes();
+            handleCycles(size, ITERATIONS);
+            long allocated = allocatedBytes() - start;
+            assertZeroBytesPerOp("handle " + size, allocated);
+        }
+    }
+
+    /**
+     * 线程缓存为 0 时,所属线程分配、从未使用过分配器的线程释放,内存块放入 Arena 的 remote free 队列
+     */
+    @Test
+    public void testRemoteFree() throws Throwable {
+        allocator = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(8192).maxOrder(11)
+                .tinyCacheSize(0).smallCacheSize(0).normalCacheSize(0).useCacheForAllThreads(true)
+                .remoteFreeQueueCapacity(1024).build();
+        final long[] handles = new long[64];
+        final PoolArenaMetric arena = allocator.threadCache().heapArena;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final long[] remoteAllocated = new long[1];
+        final int warmupRounds = ITERATIONS / handles.length;
+        final int rounds = warmupRounds * 2;
+        // round 为奇数时由释放线程处理,为偶数时由所属线程分配
+        final VolatileRound round = new VolatileRound();
+
+        Thread remote = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = 0;
+                    for (int r = 0; r < rounds; r ++) {
+                        round.await(2 * r + 1);
+                        if (r == warmupRounds) {
+                            start = allocatedBytes();
+                        }
+                        for (long handle : handles) {
+                            PoolHandle.release(handle);
+                        }
+                        round.set(2 * r + 2);
+                    }
+                    remoteAllocated[0] = allocatedBytes() - start;
+                } catch (Throwable e) {
+                    error.set(e);
+                    round.set(Integer.MAX_VALUE);
+                }
+            }
+        });
+        remote.start();
+
+        for (int r = 0; r < rounds; r ++) {
+            round.await(2 * r);
+            for (int i = 0; i < handles.length; i ++) {
+                handles[i] = allocator.allocateHeapHandle(SIZES[i % SIZES.length]);
+            }
+            round.set(2 * r + 1);
+        }
+        remote.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertTrue(arena.numRemoteFrees() > 0);
+        assertZeroBytesPerOp("remote free", remoteAllocated[0]);
+    }
+
+    private static void assertZeroBytesPerOp(String name, long allocatedBytes) {
+        // 任何对象至少 16 字节,每次操作创建对象时平均不会小于 1 字节
+        assertTrue(name + ": " + allocatedBytes + " bytes allocated in " + ITERATIONS + " ops",
+                allocatedBytes < ITERATIONS);
+    }
+
+    private void heapCycles(int size, int n) {
+        for (int i = 0; i < n; i ++) {
+            PooledByteBuf<?> buf = (PooledByteBuf<?>) allocator.heapBuffer(size, Integer.MAX_VALUE);
+            buf.deallocate();
+        }
+    }
+
+    private void directCycles(int size, int n) {
+        for (int i = 0; i < n; i ++) {
+            PooledByteBuf<?> buf = (PooledByteBuf<?>) allocator.directBuffer(size, Integer.MAX_VALUE);
+            buf.deallocate();
+        }
+    }
+
+    private void handleCycles(int size, int n) {
+        for (int i = 0; i < n; i ++) {
+            PoolHandle.release(allocator.allocateDirectHandle(size));
+        }
+    }
+
+    /**两个线程交替执行的轮次,自旋等待,不创建对象*/
+    private static final class VolatileRound {
+        private volatile int value;
+
+        void set(int value) {
+            this.value = value;
+        }
+
+        void await(int expected) {
+            int v;
+            while ((v = value) != expected) {
+                if (v == Integer.MAX_VALUE) {
+                    throw new IllegalStateException("other thread failed");
+                }
+                Thread.yield();
+            }
+        }
+    }
+}
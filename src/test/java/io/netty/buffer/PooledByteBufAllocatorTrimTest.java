@@ -0,0 +1,82 @@
+package io.netty.buffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * trim() 返回的字节数:空闲的 Chunk、Huge 缓存、空闲 Chunk 池中超时的 Chunk,线程缓存清空的字节数计入指标
+ */
+public class PooledByteBufAllocatorTrimTest {
+
+    private static final int PAGE_SIZE = 8192;
+
+    @Test
+    public void testTrimEmptyChunk() {
+        PooledByteBufAllocator allocator = newBuilder().normalCacheSize(0).build();
+        PooledByteBuf<?> buf = allocate(allocator, PAGE_SIZE * 2);
+        final int chunkSize = buf.chunk.chunkSize();
+
+        // 仍在使用的 Chunk 不被回收
+        assertEquals(0, allocator.trim());
+        buf.deallocate();
+        assertEquals(chunkSize, allocator.trim());
+        assertEquals(0, allocator.trim());
+        assertEquals(chunkSize, allocator.metric().trimmedChunkBytes());
+    }
+
+    /**线程缓存在连续两次 trim 之间没有分配才被清空,之后其 Chunk 变为空闲并被回收*/
+    @Test
+    public void testTrimIdleThreadCache() {
+        PooledByteBufAllocator allocator = newBuilder().build();
+        PooledByteBuf<?> buf = allocate(allocator, PAGE_SIZE * 2);
+        final int chunkSize = buf.chunk.chunkSize();
+        final int maxLength = buf.maxLength;
+        buf.deallocate();
+
+        assertEquals(0, allocator.trim());
+        assertEquals(0, allocator.metric().trimmedCacheBytes());
+        assertEquals(chunkSize, allocator.trim());
+        assertEquals(maxLength, allocator.metric().trimmedCacheBytes());
+    }
+
+    @Test
+    public void testTrimHugeCache() {
+        PooledByteBufAllocator allocator = newBuilder().hugeCacheBytes(64 << 20).build();
+        PoolArena<byte[]> arena = allocator.threadCache().heapArena;
+        PooledByteBuf<?> buf = allocate(allocator, arena.chunkSize + 1);
+        final int capacity = buf.chunk.chunkSize();
+        assertEquals(PoolHugeChunkCache.normalizeCapacity(arena.chunkSize + 1), capacity);
+        buf.deallocate();
+        assertEquals(capacity, arena.hugeCachedBytes());
+
+        assertEquals(capacity, allocator.trim());
+        assertEquals(0, arena.hugeCachedBytes());
+    }
+
+    /**释放后放入空闲 Chunk 池的 Chunk 超时后由 trim 回收*/
+    @Test
+    public void testTrimExpiredPooledChunk() {
+        PooledByteBufAllocator allocator = newBuilder().normalCacheSize(0)
+                .freeChunkPoolSize(1).freeChunkIdleMillis(0).build();
+        PoolArena<byte[]> arena = allocator.threadCache().heapArena;
+        // 利用率超过 qInit 的范围,释放后 Chunk 从 q000 移除并放入空闲 Chunk 池
+        PooledByteBuf<?> buf = allocate(allocator, arena.chunkSize >>> 1);
+        final int chunkSize = buf.chunk.chunkSize();
+        buf.deallocate();
+        assertEquals(1, allocator.heapChunkPool.size());
+
+        assertEquals(chunkSize, allocator.trim());
+        assertEquals(0, allocator.heapChunkPool.size());
+    }
+
+    private static PooledByteBufAllocator.Builder newBuilder() {
+        return PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(0).pageSize(PAGE_SIZE).maxOrder(11)
+                .remoteFreeQueueCapacity(0).useCacheForAllThreads(true);
+    }
+
+    private static PooledByteBuf<?> allocate(PooledByteBufAllocator allocator, int capacity) {
+        return (PooledByteBuf<?>) allocator.heapBuffer(capacity, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,139 @@
+package io.netty.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 区域内按 8 字节对齐分配,reset 归还所有区域并清零当前计数,峰值跨越多次 reset 保留
+ */
+public class ScopedByteBufAllocatorTest {
+
+    private static final int REGION_SIZE = 8192;
+
+    private PoolArena<byte[]> arena;
+    private ScopedByteBufAllocator scope;
+
+    @Before
+    public void setUp() {
+        // 不使用线程缓存,区域归还后立即回到 Chunk
+        PooledByteBufAllocator parent = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(1).pageSize(8192).maxOrder(11)
+                .tinyCacheSize(0).smallCacheSize(0).normalCacheSize(0).build();
+        arena = parent.threadCache().heapArena;
+        scope = new ScopedByteBufAllocator(parent, REGION_SIZE);
+    }
+
+    @Test
+    public void testAlignment() {
+        PooledByteBuf<?> a = allocate(1);
+        PooledByteBuf<?> b = allocate(9);
+        PooledByteBuf<?> c = allocate(8);
+        assertEquals(1, a.capacity());
+        assertEquals(a.offset + 8, b.offset);
+        assertEquals(b.offset + 16, c.offset);
+        assertSame(a.chunk, c.chunk);
+        assertEquals(32, scope.usedBytes());
+        assertEquals(1, scope.numRegions());
+        assertEquals(REGION_SIZE, scope.regionBytes());
+    }
+
+    /**当前区域剩余空间不足时申请新的区域,剩余部分浪费掉*/
+    @Test
+    public void testNewRegion() {
+        allocate(8000);
+        allocate(200);
+        assertEquals(2, scope.numRegions());
+        assertEquals(2L * REGION_SIZE, scope.regionBytes());
+        assertEquals(8200, scope.usedBytes());
+    }
+
+    /**Heap 和 Direct 使用各自的区域*/
+    @Test
+    public void testSeparateRegions() {
+        allocate(8);
+        scope.directBuffer(8, 8);
+        assertEquals(2, scope.numRegions());
+        assertEquals(16, scope.usedBytes());
+    }
+
+    /**大于区域大小的请求直接从 parent 分配,不计入 scope*/
+    @Test
+    public void testFallback() {
+        PooledByteBuf<?> buf = allocate(REGION_SIZE + 1);
+        assertEquals(1, scope.numFallbackAllocations());
+        assertEquals(0, scope.usedBytes());
+        assertEquals(0, scope.numRegions());
+        buf.deallocate();
+        assertEquals(0, usedBytes());
+    }
+
+    @Test
+    public void testResetAndPeak() {
+        allocate(8000);
+        assertEquals(8000, scope.peakUsedBytes());
+        assertEquals(REGION_SIZE, scope.peakRegionBytes());
+        allocate(200);
+        assertEquals(8200, scope.peakUsedBytes());
+        assertEquals(2L * REGION_SIZE, scope.peakRegionBytes());
+        assertTrue(usedBytes() > 0);
+
+        scope.reset();
+        assertEquals(0, scope.usedBytes());
+        assertEquals(0, scope.regionBytes());
+        assertEquals(0, scope.numRegions());
+        assertEquals(0, usedBytes());
+        // 峰值跨越 reset 保留
+        assertEquals(8200, scope.peakUsedBytes());
+        assertEquals(2L * REGION_SIZE, scope.peakRegionBytes());
+
+        // reset 后重新申请区域,没有超过峰值时峰值不变
+        allocate(4000);
+        assertEquals(4000, scope.usedBytes());
+        assertEquals(1, scope.numRegions());
+        assertEquals(8200, scope.peakUsedBytes());
+        assertEquals(2L * REGION_SIZE, scope.peakRegionBytes());
+
+        // 超过峰值时记录当时的区域字节数
+        allocate(4000);
+        allocate(400);
+        assertEquals(8400, scope.peakUsedBytes());
+        assertEquals(2L * REGION_SIZE, scope.peakRegionBytes());
+        scope.reset();
+        assertEquals(0, usedBytes());
+    }
+
+    @Test
+    public void testClose() {
+        allocate(8);
+        scope.close();
+        assertEquals(0, scope.numRegions());
+        assertEquals(0, usedBytes());
+        scope.close();
+        try {
+            allocate(8);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    private PooledByteBuf<?> allocate(int capacity) {
+        return (PooledByteBuf<?>) scope.heapBuffer(capacity, Integer.MAX_VALUE);
+    }
+
+    /**Heap Arena 中所有 Chunk 已占用的字节数*/
+    private long usedBytes() {
+        long used = 0;
+        for (PoolChunkListMetric list : arena.chunkLists()) {
+            for (PoolChunkMetric chunk : list) {
+                used += chunk.chunkSize() - chunk.freeBytes();
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,79 @@
+package io.netty.buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 固定大小的小消息在 {@link SlabByteBufAllocator} 和 {@link PooledByteBufAllocator} 中的分配和释放
+ *
+ * 每次调用连续分配 BATCH 个 ByteBuf 后全部释放,PooledByteBufAllocator 使用线程缓存,
+ * 缓存不足时需要经过规格化和 Subpage 的 bitmap 查找,Slab 只需弹出和压入当前线程的空闲链表
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SlabByteBufAllocatorBenchmark {
+
+    private static final int BATCH = 1024;
+
+    @Param({ "pooled", "slab" })
+    public String allocatorType;
+
+    @Param({ "32", "64", "128" })
+    public int size;
+
+    private PooledByteBufAllocator pooled;
+    private SlabByteBufAllocator slab;
+    private ByteBufAllocator allocator;
+    private final ByteBuf[] bufs = new ByteBuf[BATCH];
+
+    @Setup
+    public void setUp() {
+        pooled = new PooledByteBufAllocator(false);
+        slab = new SlabByteBufAllocator(pooled, 32, 64, 128);
+        if ("pooled".equals(allocatorType)) {
+            allocator = pooled;
+        } else if ("slab".equals(allocatorType)) {
+            allocator = slab;
+        } else {
+            throw new IllegalArgumentException("allocatorType: " + allocatorType);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (slab.numFallbackAllocations() != 0) {
+            throw new IllegalStateException("numFallbackAllocations: " + slab.numFallbackAllocations());
+        }
+        slab.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void allocateAndFree() {
+        final ByteBuf[] bufs = this.bufs;
+        for (int i = 0; i < BATCH; i ++) {
+            bufs[i] = allocator.heapBuffer(size, Integer.MAX_VALUE);
+        }
+        for (int i = 0; i < BATCH; i ++) {
+            ((PooledByteBuf<?>) bufs[i]).deallocate();
+            bufs[i] = null;
+        }
+    }
+}
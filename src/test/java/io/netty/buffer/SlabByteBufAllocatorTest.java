@@ -0,0 +1,210 @@
+package io.netty.buffer;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Slot 在线程的空闲链表与共享链表之间的转移,以及 close() 与分配并发时 Slab 全部归还
+ */
+public class SlabByteBufAllocatorTest {
+
+    private static final int SLOT_SIZE = 64;
+    private static final int MAX_LOCAL_SLOTS = 8;
+
+    private PooledByteBufAllocator parent;
+    private PoolArena<byte[]> arena;
+    private SlabByteBufAllocator allocator;
+    private int slotsPerSlab;
+
+    @Before
+    public void setUp() {
+        // 不使用线程缓存和 remoteFreeQueue,Slab 归还后立即回到 Chunk
+        parent = PooledByteBufAllocator.builder()
+                .nHeapArena(1).nDirectArena(0).pageSize(8192).maxOrder(11)
+                .tinyCacheSize(0).smallCacheSize(0).normalCacheSize(0).useCacheForAllThreads(true)
+                .remoteFreeQueueCapacity(0).build();
+        arena = parent.threadCache().heapArena;
+        allocator = new SlabByteBufAllocator(parent, 1, MAX_LOCAL_SLOTS, new int[] { SLOT_SIZE });
+        slotsPerSlab = arena.pageSize / SLOT_SIZE;
+    }
+
+    /**空闲 Slot 超过上限时一半转移到共享链表,其他线程从共享链表取出,不申请新的 Slab*/
+    @Test
+    public void testLocalOverflowToShared() throws Exception {
+        List<PooledByteBuf<?>> bufs = allocate(slotsPerSlab);
+        assertEquals(1, allocator.numSlabs());
+        assertEquals(0, allocator.numSharedSlots(false, 0));
+
+        free(bufs);
+        int shared = allocator.numSharedSlots(false, 0);
+        assertTrue("shared: " + shared, shared >= slotsPerSlab - MAX_LOCAL_SLOTS);
+        assertTrue("shared: " + shared, shared < slotsPerSlab);
+
+        final int n = shared;
+        runInThread(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(n, distinctOffsets(allocate(n)));
+            }
+        });
+        assertEquals(1, allocator.numSlabs());
+        assertEquals(0, allocator.numSharedSlots(false, 0));
+    }
+
+    /**其他线程释放的 Slot 进入释放线程的空闲链表,线程结束后全部转移到共享链表供原线程再次分配*/
+    @Test
+    public void testCrossThreadFree() throws Exception {
+        final List<PooledByteBuf<?>> bufs = allocate(slotsPerSlab);
+        assertEquals(slotsPerSlab, distinctOffsets(bufs));
+
+        runInThread(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(allocator.hasLocalSlots());
+                free(bufs);
+                assertTrue(allocator.hasLocalSlots());
+                assertTrue(allocator.numSharedSlots(false, 0) < slotsPerSlab);
+            }
+        });
+        // 线程结束时剩余的 Slot 也转移到共享链表
+        assertEquals(slotsPerSlab, allocator.numSharedSlots(false, 0));
+
+        assertEquals(slotsPerSlab, distinctOffsets(allocate(slotsPerSlab)));
+        assertEquals(1, allocator.numSlabs());
+        assertEquals(0, allocator.numSharedSlots(false, 0));
+    }
+
+    /**close() 与分配、释放并发,结束后所有 Slab 归还,各线程访问后不再持有空闲链表*/
+    @Test
+    public void testCloseRace() throws Exception {
+        final int nThreads = 4;
+        final CountDownLatch started = new CountDownLatch(nThreads);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < nThreads; i ++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        started.countDown();
+                        for (;;) {
+                            List<PooledByteBuf<?>> bufs;
+                            try {
+                                bufs = allocate(slotsPerSlab + 1);
+                            } catch (IllegalStateException e) {
+                                break;
+                            }
+                            free(bufs);
+                        }
+                        // 关闭后的访问丢弃了当前线程的空闲链表
+                        assertFalse(allocator.hasLocalSlots());
+                        try {
+                            allocate(1);
+                            fail("allocate after close");
+                        } catch (IllegalStateException expected) {
+                            // expected
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        started.await();
+        Thread.sleep(50);
+        allocator.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        assertEquals(0, allocator.numSlabs());
+        assertEquals(0, allocator.numSharedSlots(false, 0));
+        assertFalse(allocator.hasLocalSlots());
+        assertEquals(0, usedBytes());
+    }
+
+    /**关闭后释放 ByteBuf 不再放入空闲链表*/
+    @Test
+    public void testFreeAfterClose() {
+        List<PooledByteBuf<?>> bufs = allocate(slotsPerSlab);
+        assertTrue(allocator.hasLocalSlots());
+        allocator.close();
+        assertFalse(allocator.hasLocalSlots());
+        assertEquals(0, usedBytes());
+
+        free(bufs);
+        assertFalse(allocator.hasLocalSlots());
+        assertEquals(0, allocator.numSharedSlots(false, 0));
+    }
+
+    private List<PooledByteBuf<?>> allocate(int n) {
+        List<PooledByteBuf<?>> bufs = new ArrayList<PooledByteBuf<?>>(n);
+        for (int i = 0; i < n; i ++) {
+            bufs.add((PooledByteBuf<?>) allocator.heapBuffer(SLOT_SIZE, SLOT_SIZE));
+        }
+        return bufs;
+    }
+
+    private static void free(List<PooledByteBuf<?>> bufs) {
+        for (PooledByteBuf<?> buf : bufs) {
+            buf.deallocate();
+        }
+    }
+
+    private static int distinctOffsets(List<PooledByteBuf<?>> bufs) {
+        Set<Integer> offsets = new HashSet<Integer>();
+        for (PooledByteBuf<?> buf : bufs) {
+            offsets.add(buf.offset);
+        }
+        return offsets.size();
+    }
+
+    /**Arena 中所有 Chunk 已占用的字节数*/
+    private long usedBytes() {
+        long used = 0;
+        for (PoolChunkListMetric list : arena.chunkLists()) {
+            for (PoolChunkMetric chunk : list) {
+                used += chunk.chunkSize() - chunk.freeBytes();
+            }
+        }
+        return used;
+    }
+
+    /**在 FastThreadLocalThread 中执行,结束时移除线程的 FastThreadLocal,与线程退出相同*/
+    private static void runInThread(final Runnable task) throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread thread = new FastThreadLocalThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    FastThreadLocal.removeAll();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNull(error.get());
+    }
+}
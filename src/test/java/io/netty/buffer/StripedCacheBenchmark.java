@@ -0,0 +1,99 @@
+package io.netty.buffer;
+
+import io.netty.util.internal.InternalThreadLocalMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量短生命周期的线程,每个线程只分配和释放少量内存块
+ *
+ * cacheStripes 为 0 时每个线程在 initialValue() 的全局锁内创建 PoolThreadCache,
+ * 同时创建 InternalThreadLocalMap、Recycler 的 Stack,并为每个 FastThreadLocal 向 ObjectCleaner 注册清理任务,
+ * 线程退出后 PoolThreadCache 要等线程对象被 GC 回收才由 ObjectCleaner 释放;
+ * 大于 0 时按线程 id 共享条带中的 PoolThreadCache,也不通过 Recycler 复用 PooledByteBuf,线程不保留任何状态,
+ * 代价是每次分配创建一个 PooledByteBuf 对象,可以加上 -prof gc 查看。
+ *
+ * 线程为普通的 Thread,与虚拟线程相同,退出时不会调用 FastThreadLocal.removeAll()。
+ * 项目以 Java 8 编译,没有虚拟线程,用平台线程代替,结果包括创建线程的开销
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StripedCacheBenchmark {
+
+    /**每次调用同时启动的线程数量*/
+    private static final int TASKS = 64;
+    /**每个线程分配和释放的次数*/
+    private static final int ALLOCATIONS = 16;
+    private static final int SIZE = 256;
+
+    @Param({ "0", "16" })
+    public int cacheStripes;
+
+    private PooledByteBufAllocator allocator;
+    private final Thread[] threads = new Thread[TASKS];
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < ALLOCATIONS; i ++) {
+                ((PooledByteBuf<?>) allocator.heapBuffer(SIZE, Integer.MAX_VALUE)).deallocate();
+            }
+        }
+    };
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        allocator = PooledByteBufAllocator.builder().cacheStripes(cacheStripes).build();
+
+        // 条带模式下线程不创建 InternalThreadLocalMap,使用条带中的 PoolThreadCache
+        final boolean[] hasThreadLocalMap = new boolean[1];
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                hasThreadLocalMap[0] = InternalThreadLocalMap.getIfSet() != null;
+            }
+        });
+        t.start();
+        t.join();
+        if (hasThreadLocalMap[0] != (cacheStripes == 0)) {
+            throw new IllegalStateException("cacheStripes: " + cacheStripes + ", hasThreadLocalMap: "
+                    + hasThreadLocalMap[0]);
+        }
+        int numThreadCaches = 0;
+        for (PoolArenaMetric arena : allocator.metric().heapArenas()) {
+            numThreadCaches += arena.numThreadCaches();
+        }
+        if (cacheStripes > 0 && numThreadCaches == 0) {
+            throw new IllegalStateException("cacheStripes: " + cacheStripes + ", numThreadCaches: " + numThreadCaches);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void shortLivedThreads() throws InterruptedException {
+        for (int i = 0; i < TASKS; i ++) {
+            threads[i] = new Thread(task);
+            threads[i].start();
+        }
+        for (int i = 0; i < TASKS; i ++) {
+            threads[i].join();
+            threads[i] = null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.netty.util.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 迭代器按 FIFO 顺序遍历未被消费的元素,AbstractQueue 基于迭代器的方法可用
+ */
+public class MpscArrayQueueTest {
+
+    @Test
+    public void testIteratorAfterWrapAround() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(4);
+        for (int i = 0; i < 4; i ++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        // 写入的槽位回绕到数组开头
+        assertTrue(queue.offer(4));
+        assertTrue(queue.offer(5));
+
+        assertEquals(Arrays.asList(2, 3, 4, 5), toList(queue));
+        assertTrue(queue.contains(5));
+        assertFalse(queue.contains(1));
+        assertEquals("[2, 3, 4, 5]", queue.toString());
+    }
+
+    /**迭代器创建后被消费的元素不再返回*/
+    @Test
+    public void testIteratorSkipsPolled() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(8);
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        Iterator<Integer> it = queue.iterator();
+        assertEquals(Integer.valueOf(1), it.next());
+        queue.poll();
+        queue.poll();
+        assertEquals(Integer.valueOf(3), it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals("[]", new MpscArrayQueue<Integer>(2).toString());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRemoveObjectUnsupported() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(2);
+        queue.offer(1);
+        queue.remove(Integer.valueOf(1));
+    }
+
+    private static List<Integer> toList(Iterable<Integer> queue) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer e : queue) {
+            list.add(e);
+        }
+        return list;
+    }
+}